@@ -0,0 +1,25 @@
+package com.pbe;
+
+// *******
+// Benchmark of the two ways Main can read the annotations of the examples (see AnnotationMode), for @MyAnnotation(num = 666)
+// on Example_DefaultValues.myMethod():
+// - num.registry:  the value record from the cache of AnnotationRegistry, as the reflective mode does
+// - num.generated: the accessor ConstantAccessorProcessor generates, as the generated mode does; it is a static method returning
+//                  a constant, so once the JIT has inlined it this measures little more than the harness itself
+//
+// Usage (build.sh compiles the modules first, see there):
+//   ./build.sh bench AnnotationModeBenchmark [regex] [--csv after.csv] [--baseline before.csv] [--tolerance 10] [--quick]
+// or, after ./build.sh:
+//   java -cp out/classes:out/bench com.pbe.AnnotationModeBenchmark [regex] [--csv after.csv] [--baseline before.csv] [--tolerance 10] [--quick]
+// *******
+public class AnnotationModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkHarness h = new BenchmarkHarness(args);
+
+        h.addInt("num.registry", () -> AnnotationRegistry.getMethodValue(Example_DefaultValues.class, "myMethod", MyAnnotationValue.class).num());
+        h.addInt("num.generated", () -> Example_DefaultValuesAnnotations.myMethod_num());
+
+        System.exit(h.run());
+    }
+}
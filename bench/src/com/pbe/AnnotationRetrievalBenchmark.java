@@ -0,0 +1,118 @@
+package com.pbe;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedArrayType;
+import java.lang.reflect.AnnotatedType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+// *******
+// Benchmarks of the annotation retrieval patterns shown in the examples, each on the plain reflection (jdk) path and,
+// where there is one, on the AnnotationRegistry path.
+// - marker:    isAnnotationPresent(), as in Example_MarkerAnnotation
+// - defaults:  getAnnotation() and reading members with default values, as in Example_DefaultValues
+// - all:       getAnnotations() on a class and on a method, as in Example_ObtainingAllAnnotations
+// - repeated:  the container annotation and getAnnotationsByType(), as in Example_RepeatedAnnotation
+// - typeanno:  traversal of an AnnotatedType tree, as for the fields and methods of Example_TypeAnnotations, and of its cached form in TypeAnnotationGraph
+// The "lookup" variants include getMethod() on every call, like the examples did; the "cached" variants reuse the Method object.
+//
+// Usage (build.sh compiles the modules first, see there):
+//   ./build.sh bench AnnotationRetrievalBenchmark [regex] [--csv after.csv] [--baseline before.csv] [--tolerance 10] [--quick]
+// or, after ./build.sh:
+//   java -cp out/classes:out/bench com.pbe.AnnotationRetrievalBenchmark [regex] [--csv after.csv] [--baseline before.csv] [--tolerance 10] [--quick]
+// *******
+public class AnnotationRetrievalBenchmark {
+
+    private static final Class<?>[] STRING_INT = { String.class, int.class };
+    private static final Class<?>[] INT_INT = { int.class, int.class };
+
+    public static void main(String[] args) throws Exception {
+        Method marker = Example_MarkerAnnotation.class.getMethod("myMethod");
+        Method defaults = Example_DefaultValues.class.getMethod("myMethod");
+        Method all = Example_ObtainingAllAnnotations.class.getMethod("myMethod");
+        Method repeated = Example_RepeatedAnnotation.class.getMethod("myMethod", String.class, int.class);
+        Field w = Example_TypeAnnotations.class.getDeclaredField("w");
+        Method f2 = Example_TypeAnnotations.class.getMethod("f2", int.class, int.class);
+
+        BenchmarkHarness h = new BenchmarkHarness(args);
+
+        h.add("marker.jdk.lookup", () -> Example_MarkerAnnotation.class.getMethod("myMethod").isAnnotationPresent(myMarker.class));
+        h.add("marker.jdk.cached", () -> marker.isAnnotationPresent(myMarker.class));
+        h.add("marker.registry", () -> AnnotationRegistry.isMethodAnnotationPresent(Example_MarkerAnnotation.class, "myMethod", AnnotationRegistry.NO_PARAMETERS, myMarker.class));
+
+        h.addInt("defaults.jdk.lookup", () -> {
+            MyAnnotation a = Example_DefaultValues.class.getMethod("myMethod").getAnnotation(MyAnnotation.class);
+            return a.userinput().length() + a.num();
+        });
+        h.addInt("defaults.jdk.cached", () -> {
+            MyAnnotation a = defaults.getAnnotation(MyAnnotation.class);
+            return a.userinput().length() + a.num();
+        });
+        h.addInt("defaults.registry.annotation", () -> {
+            MyAnnotation a = AnnotationRegistry.getMethodAnnotation(Example_DefaultValues.class, "myMethod", MyAnnotation.class);
+            return a.userinput().length() + a.num();
+        });
+        h.addInt("defaults.registry.value", () -> {
+            MyAnnotationValue a = AnnotationRegistry.getMethodValue(Example_DefaultValues.class, "myMethod", MyAnnotationValue.class);
+            return a.userinput().length() + a.num();
+        });
+
+        h.add("all.class.jdk", () -> Example_ObtainingAllAnnotations.class.getAnnotations());
+        h.add("all.method.jdk.lookup", () -> Example_ObtainingAllAnnotations.class.getMethod("myMethod").getAnnotations());
+        h.add("all.method.jdk.cached", () -> all.getAnnotations());
+        h.add("all.class.registry", () -> {
+            AnnotationRegistry.AnnotatedMetadata m = AnnotationRegistry.of(Example_ObtainingAllAnnotations.class).annotations();
+            Annotation last = null;
+            for (int i = 0; i < m.annotationCount(); i++)
+                last = m.annotationAt(i);
+            return last;
+        });
+        h.add("all.method.registry", () -> {
+            AnnotationRegistry.MethodMetadata m = AnnotationRegistry.of(Example_ObtainingAllAnnotations.class).method("myMethod", AnnotationRegistry.NO_PARAMETERS);
+            Annotation last = null;
+            for (int i = 0; i < m.annotationCount(); i++)
+                last = m.annotationAt(i);
+            return last;
+        });
+
+        h.add("repeated.container.jdk", () -> repeated.getAnnotation(MyRepeatedAnnos.class).value()); // value() clones the array
+        h.add("repeated.byType.jdk", () -> repeated.getAnnotationsByType(MyAnno.class));
+        h.addInt("repeated.registry", () -> {
+            AnnotationRegistry.Repeated<MyAnno> r = AnnotationRegistry.of(Example_RepeatedAnnotation.class).method("myMethod", STRING_INT).repeated(MyAnno.class);
+            int sum = 0;
+            for (int i = 0; i < r.size(); i++)
+                sum += r.get(i).num();
+            return sum;
+        });
+
+        h.addInt("typeanno.field.jdk", () -> countTypeAnnotations(w.getAnnotatedType()));
+        h.addInt("typeanno.returnType.jdk", () -> countTypeAnnotations(f2.getAnnotatedReturnType()));
+        h.addInt("typeanno.field.graph", () -> countTypeAnnotations(TypeAnnotationGraph.of(Example_TypeAnnotations.class).field("w")));
+        h.addInt("typeanno.returnType.graph", () -> countTypeAnnotations(TypeAnnotationGraph.of(Example_TypeAnnotations.class).method("f2", INT_INT).returnType()));
+        h.add("typeanno.depth1.jdk", () -> ((AnnotatedArrayType) w.getAnnotatedType()).getAnnotatedGenericComponentType().getAnnotation(NotZeroLen.class));
+        h.add("typeanno.depth1.graph", () -> {
+            TypeAnnotationGraph.Tree t = TypeAnnotationGraph.of(Example_TypeAnnotations.class).field("w");
+            return t.getAnnotation(t.atArrayDepth(1), NotZeroLen.class);
+        });
+
+        System.exit(h.run());
+    }
+
+    // Walk an annotated (array) type, as a framework reading e.g. String @MaxLen(num=99) [] @NotZeroLen [] w would
+    static int countTypeAnnotations(AnnotatedType t) {
+        int n = t.getAnnotations().length;
+        while (t instanceof AnnotatedArrayType) {
+            t = ((AnnotatedArrayType) t).getAnnotatedGenericComponentType();
+            n += t.getAnnotations().length;
+        }
+        return n;
+    }
+
+    // The same walk over the cached tree: the element type of an array is the next node
+    static int countTypeAnnotations(TypeAnnotationGraph.Tree t) {
+        int n = t.annotationCount(0);
+        for (int node = 0; t.kind(node) == TypeAnnotationGraph.Kind.ARRAY; )
+            n += t.annotationCount(++node);
+        return n;
+    }
+}
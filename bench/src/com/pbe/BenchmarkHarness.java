@@ -0,0 +1,226 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// *******
+// Small, dependency free micro benchmark harness, used by the benchmarks in this module.
+// Each benchmark is an operation that is run in batches, on a single thread:
+// - warmup iterations first, so the JIT has compiled the operation before it is measured
+// - measurement iterations next, each running batches for a fixed time
+// - a latency pass last, one iteration long, which times every operation on its own
+// Reported per benchmark:
+// - throughput (operations per second), from the measurement iterations
+// - latency percentiles (p50, p90, p99, p99.9) of single operations, from the latency pass
+//   System.nanoTime() itself costs about as much as the cheapest operations measured, so its cost (the fastest of many back-to-back
+//   calls) is subtracted from each timing; below some tens of nanoseconds the percentiles are still only a rough indication.
+//   Averaging batches instead would smooth away the tail (a pause of one operation in a batch of 100 hardly shows), which is the point here.
+// - bytes allocated per operation, from the allocation counter of the thread (com.sun.management.ThreadMXBean)
+// Results of the operations are written to a sink array, so the JIT can't remove them as dead code.
+//
+// Command line options (see parse()):
+//   <regex>                only run the benchmarks whose name matches
+//   --csv <file>           write the results to a CSV file
+//   --baseline <file>      compare throughput with a CSV file written before, and exit with status 1 on a regression
+//   --tolerance <percent>  allowed throughput loss compared to the baseline (default 10)
+//   --quick                fewer and shorter iterations, for a smoke test
+// *******
+final class BenchmarkHarness {
+
+    // A benchmarked operation; the result is consumed by the harness
+    interface Op {
+        Object run() throws Exception;
+    }
+
+    // An operation with an int result, which is consumed without boxing it
+    interface IntOp {
+        int run() throws Exception;
+    }
+
+    record Result(String name, double opsPerSecond, double p50, double p90, double p99, double p999, double bytesPerOp) { }
+
+    static final int BATCH = 100;
+
+    private static final Object[] SINK = new Object[16];
+    private static final int[] INT_SINK = new int[16];
+
+    private final Map<String, Object> benchmarks = new LinkedHashMap<>(); // Op or IntOp
+    private Pattern filter = Pattern.compile(".*");
+    private Path csv, baseline;
+    private double tolerance = 10;
+    private int warmupIterations = 5, iterations = 10;
+    private long iterationNanos = 200_000_000L;
+
+    private long[] samples; // duration of each operation of the latency pass
+    private int sampleCount;
+    private final long timerCost = timerCost();
+
+    BenchmarkHarness(String[] args) {
+        parse(args);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--csv": csv = Paths.get(args[++i]); break;
+                case "--baseline": baseline = Paths.get(args[++i]); break;
+                case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+                case "--quick": warmupIterations = 2; iterations = 3; iterationNanos = 50_000_000L; break;
+                default: filter = Pattern.compile(args[i]); break;
+            }
+        }
+    }
+
+    // Register a benchmark
+    BenchmarkHarness add(String name, Op op) {
+        benchmarks.put(name, op);
+        return this;
+    }
+
+    BenchmarkHarness addInt(String name, IntOp op) {
+        benchmarks.put(name, op);
+        return this;
+    }
+
+    // Run all registered (and selected) benchmarks, print the results, and compare them with the baseline if one was given
+    // Returns the exit status: 0, or 1 if a benchmark regressed
+    int run() throws Exception {
+        List<Result> results = new ArrayList<>();
+        System.out.printf(Locale.ROOT, "%-48s %14s %10s %10s %10s %10s %10s%n", "Benchmark", "ops/s", "p50 ns", "p90 ns", "p99 ns", "p99.9 ns", "B/op");
+        for (Map.Entry<String, Object> b : benchmarks.entrySet()) {
+            if (!filter.matcher(b.getKey()).find())
+                continue;
+            Result r = measure(b.getKey(), b.getValue());
+            results.add(r);
+            System.out.printf(Locale.ROOT, "%-48s %14.0f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    r.name(), r.opsPerSecond(), r.p50(), r.p90(), r.p99(), r.p999(), r.bytesPerOp());
+        }
+        if (csv != null)
+            writeCsv(csv, results);
+        return baseline == null ? 0 : compare(results, readCsv(baseline));
+    }
+
+    private Result measure(String name, Object op) throws Exception {
+        for (int i = 0; i < warmupIterations; i++)
+            runIteration(op);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long ops = 0, nanos = 0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            ops += runIteration(op);
+            nanos += System.nanoTime() - start;
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        samples = new long[1 << 16];
+        sampleCount = 0;
+        runSingles(op);
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        return new Result(name, ops * 1e9 / nanos,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                (double) allocated / ops);
+    }
+
+    // Run batches of the operation for one iteration; return the number of operations run
+    private long runIteration(Object op) throws Exception {
+        Op objectOp = op instanceof Op ? (Op) op : null;
+        IntOp intOp = op instanceof IntOp ? (IntOp) op : null;
+        long end = System.nanoTime() + iterationNanos;
+        long ops = 0;
+        long now;
+        do {
+            long start = System.nanoTime();
+            if (objectOp != null)
+                for (int i = 0; i < BATCH; i++)
+                    SINK[i & 15] = objectOp.run();
+            else
+                for (int i = 0; i < BATCH; i++)
+                    INT_SINK[i & 15] = intOp.run();
+            now = System.nanoTime();
+            ops += BATCH;
+        } while (now < end);
+        return ops;
+    }
+
+    // Run the operation for one iteration, timing each call on its own, less the cost of the timer
+    private void runSingles(Object op) throws Exception {
+        Op objectOp = op instanceof Op ? (Op) op : null;
+        IntOp intOp = op instanceof IntOp ? (IntOp) op : null;
+        long end = System.nanoTime() + iterationNanos;
+        long now;
+        int i = 0;
+        do {
+            long start = System.nanoTime();
+            if (objectOp != null)
+                SINK[i++ & 15] = objectOp.run();
+            else
+                INT_SINK[i++ & 15] = intOp.run();
+            now = System.nanoTime();
+            if (sampleCount == samples.length)
+                samples = Arrays.copyOf(samples, sampleCount * 2);
+            samples[sampleCount++] = Math.max(0, now - start - timerCost);
+        } while (now < end);
+    }
+
+    // Cost of a System.nanoTime() call as seen between two of them: the fastest of many back-to-back pairs
+    private static long timerCost() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 100_000; i++) {
+            long start = System.nanoTime();
+            min = Math.min(min, System.nanoTime() - start);
+        }
+        return min;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : (double) sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+    private static void writeCsv(Path file, List<Result> results) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("name,opsPerSecond,p50,p90,p99,p999,bytesPerOp");
+            for (Result r : results)
+                out.printf(Locale.ROOT, "%s,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f%n", r.name(), r.opsPerSecond(), r.p50(), r.p90(), r.p99(), r.p999(), r.bytesPerOp());
+        }
+    }
+
+    private static Map<String, Double> readCsv(Path file) throws IOException {
+        Map<String, Double> throughput = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(file);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] f = line.split(",");
+            throughput.put(f[0], Double.parseDouble(f[1]));
+        }
+        return throughput;
+    }
+
+    private int compare(List<Result> results, Map<String, Double> base) {
+        int status = 0;
+        for (Result r : results) {
+            Double before = base.get(r.name());
+            if (before == null)
+                continue;
+            double change = (r.opsPerSecond() - before) / before * 100;
+            boolean regressed = change < -tolerance;
+            System.out.printf(Locale.ROOT, "%-48s %+8.1f%%%s%n", r.name(), change, regressed ? "  REGRESSION" : "");
+            if (regressed)
+                status = 1;
+        }
+        return status;
+    }
+}
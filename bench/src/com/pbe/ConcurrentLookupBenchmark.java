@@ -0,0 +1,316 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+// *******
+// Multi-threaded stress test of the annotation lookups used in the examples, on the plain reflection (jdk) path and on the caching layers:
+// - getAnnotation:          as in Example_DefaultValues, against AnnotationRegistry.getMethodValue()
+// - getAnnotations:         on a class and a method, as in Example_ObtainingAllAnnotations, against the AnnotationRegistry metadata
+// - getAnnotationsByType:   as in Example_RepeatedAnnotation, against AnnotationRegistry.Repeated
+// - getAnnotatedReturnType: as on f2() of Example_TypeAnnotations, against the AnnotationSnapshot store (reflection has no cache for it)
+// For each lookup and each number of threads (1 up to 256 by default), all threads start together and run the lookup for a fixed time.
+// The points are measured in rounds (3 by default), each round running every number of threads once, and the best round of each point
+// is reported; interleaving the rounds keeps a slow phase of the machine (the JIT compiling, the GC) from hitting just one point.
+// Reported per point:
+// - throughput, in total and per thread, and the scaling: the throughput divided by what linear scaling from 1 thread would give,
+//   up to the number of processors (so 1.0 means no loss to contention or coordination, on any number of threads)
+//   1 thread, the baseline, is measured in the same rounds as the others. Beyond the number of processors the threads take turns,
+//   so there the scaling only shows the cost of coordination, and on a single processor it can't show contention at all.
+// - contention: how often, and how long in total, the threads were blocked on a monitor (from ThreadMXBean)
+// - mismatches: every thread compares each result with the one computed up front; a single difference means the lookup isn't thread-safe
+// The JDK's own annotation caches (in Class, and the annotation parser) are built lazily and shared, so this shows whether they,
+// or the caches of this package, hold back the threads.
+// Those caches are only built by the first lookups, which the measurement above doesn't see (it warms up first). The cold phase
+// measures them: for each lookup and number of threads it loads the examples, the annotations and this package into a new class loader,
+// so their caches are empty, and all threads do their first lookup together. Reported per point (the median of the rounds):
+// - the time until the slowest thread had its result, and the contention and mismatches, as above
+// The JIT and the JDK's own shared structures (e.g. the annotation parser's code) stay warm; only the classes are fresh.
+// Only platform threads are used: virtual threads need Java 21.
+//
+// Usage (build.sh compiles the modules first, see there):
+//   ./build.sh bench ConcurrentLookupBenchmark [regex] [--threads 1,2,4,...,256] [--millis 500] [--rounds 3] [--csv scaling.csv] [--min-scaling 0.5]
+// or, after ./build.sh:
+//   java -cp out/classes:out/bench com.pbe.ConcurrentLookupBenchmark [regex] [--threads 1,2,4,...,256] [--millis 500] [--rounds 3] [--csv scaling.csv] [--min-scaling 0.5]
+// Exits with status 1 on a mismatch (warm or cold), or when the scaling at the highest number of threads is below --min-scaling; that
+// check is skipped on a single processor, where the scaling is always about 1.
+// *******
+public class ConcurrentLookupBenchmark {
+
+    private record Case(String name, BenchmarkHarness.IntOp op) { }
+
+    // One point of the warm phase (slowestMicros is NaN) or of the cold phase (opsPerSecond and scaling are NaN)
+    private record Point(String phase, String name, int threads, double opsPerSecond, double scaling, double slowestMicros,
+                         long blockedCount, long blockedMillis, long mismatches) { }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static Pattern filter = Pattern.compile(".*");
+    private static int[] threadCounts = { 1, 2, 4, 8, 16, 32, 64, 128, 256 };
+    private static long millis = 500;
+    private static int rounds = 3;
+    private static Path csv;
+    private static double minScaling = 0.5;
+
+    private static volatile boolean stopped; // read once per batch of lookups, so it costs next to nothing
+
+    public static void main(String[] args) throws Exception {
+        parse(args);
+        if (THREADS.isThreadContentionMonitoringSupported())
+            THREADS.setThreadContentionMonitoringEnabled(true); // needed for the blocked times
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d processors, %d ms per point, best of %d rounds%n", processors, millis, rounds);
+        System.out.printf("%-36s %7s %14s %12s %8s %10s %11s %10s%n", "Lookup", "threads", "ops/s", "ops/s/thread", "scaling", "blocked", "blocked ms", "mismatches");
+        List<Case> cases = new ArrayList<>();
+        for (Case c : cases())
+            if (filter.matcher(c.name()).find())
+                cases.add(c);
+        List<Point> points = new ArrayList<>();
+        Map<String, Integer> expected = new HashMap<>();
+        int status = 0;
+        for (Case c : cases) {
+            expected.put(c.name(), c.op().run());
+            run(c, expected.get(c.name()), 1, millis); // warmup, so the JIT has compiled the lookup, on one thread and on a few
+            run(c, expected.get(c.name()), Math.min(4, processors), Math.max(millis, 1000));
+            Point[] best = new Point[threadCounts.length];
+            long[] mismatches = new long[threadCounts.length];
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < threadCounts.length; i++) {
+                    Point p = run(c, expected.get(c.name()), threadCounts[i], millis);
+                    mismatches[i] += p.mismatches();
+                    if (best[i] == null || p.opsPerSecond() > best[i].opsPerSecond())
+                        best[i] = p;
+                }
+            }
+            double single = best[0].opsPerSecond(); // parse() puts 1 thread first
+            Point last = null;
+            for (int i = 0; i < threadCounts.length; i++) {
+                int n = threadCounts[i];
+                double scaling = best[i].opsPerSecond() / (single * Math.min(n, processors));
+                last = new Point("warm", c.name(), n, best[i].opsPerSecond(), scaling, Double.NaN, best[i].blockedCount(), best[i].blockedMillis(), mismatches[i]);
+                points.add(last);
+                System.out.printf(Locale.ROOT, "%-36s %7d %14.0f %12.0f %8.2f %10d %11d %10d%n", c.name(), n, last.opsPerSecond(), last.opsPerSecond() / n,
+                        scaling, last.blockedCount(), last.blockedMillis(), last.mismatches());
+                if (last.mismatches() > 0)
+                    status = 1;
+            }
+            if (processors > 1 && last.scaling() < minScaling) {
+                System.out.printf(Locale.ROOT, "%s: scaling %.2f at %d threads is below %.2f%n", c.name(), last.scaling(), last.threads(), minScaling);
+                status = 1;
+            }
+        }
+        if (processors == 1)
+            System.out.println("A single processor: the threads take turns, so the scaling can't show contention and --min-scaling isn't checked");
+
+        System.out.println();
+        System.out.printf("%-36s %7s %14s %10s %11s %10s%n", "Cold lookup", "threads", "slowest us", "blocked", "blocked ms", "mismatches");
+        for (Case c : cases) {
+            for (int n : threadCounts) {
+                Point[] runs = new Point[rounds];
+                long mismatches = 0;
+                for (int r = 0; r < rounds; r++) {
+                    runs[r] = cold(c.name(), expected.get(c.name()), n);
+                    mismatches += runs[r].mismatches();
+                }
+                Arrays.sort(runs, Comparator.comparingDouble(Point::slowestMicros));
+                Point median = runs[rounds / 2];
+                Point p = new Point("cold", c.name(), n, Double.NaN, Double.NaN, median.slowestMicros(), median.blockedCount(), median.blockedMillis(), mismatches);
+                points.add(p);
+                System.out.printf(Locale.ROOT, "%-36s %7d %14.1f %10d %11d %10d%n", c.name(), n, p.slowestMicros(), p.blockedCount(), p.blockedMillis(), p.mismatches());
+                if (p.mismatches() > 0)
+                    status = 1;
+            }
+        }
+        if (csv != null)
+            writeCsv(points);
+        System.exit(status);
+    }
+
+    // The lookups; built anew by each call, with the classes of the class loader that loaded this class
+    static List<Case> cases() throws Exception {
+        Method defaults = Example_DefaultValues.class.getMethod("myMethod");
+        Method all = Example_ObtainingAllAnnotations.class.getMethod("myMethod");
+        Method repeated = Example_RepeatedAnnotation.class.getMethod("myMethod", String.class, int.class);
+        Method f2 = Example_TypeAnnotations.class.getMethod("f2", int.class, int.class);
+        Class<?>[] stringInt = { String.class, int.class };
+        AnnotationStore snapshot = AnnotationSnapshot.build(AnnotationScanner.classPath(), "com.pbe");
+        int f2Id = snapshot.stringId("f2(int,int)");
+
+        List<Case> cases = new ArrayList<>();
+        cases.add(new Case("getAnnotation.jdk", () -> defaults.getAnnotation(MyAnnotation.class).num()));
+        cases.add(new Case("getAnnotation.registry", () -> AnnotationRegistry.getMethodValue(Example_DefaultValues.class, "myMethod", MyAnnotationValue.class).num()));
+        cases.add(new Case("getAnnotations.jdk", () -> Example_ObtainingAllAnnotations.class.getAnnotations().length + all.getAnnotations().length));
+        cases.add(new Case("getAnnotations.registry", () -> {
+            AnnotationRegistry.ClassMetadata c = AnnotationRegistry.of(Example_ObtainingAllAnnotations.class);
+            AnnotationRegistry.MethodMetadata m = c.method("myMethod", AnnotationRegistry.NO_PARAMETERS);
+            int n = 0;
+            for (int i = 0; i < c.annotations().annotationCount(); i++)
+                n += c.annotations().annotationAt(i) != null ? 1 : 0;
+            for (int i = 0; i < m.annotationCount(); i++)
+                n += m.annotationAt(i) != null ? 1 : 0;
+            return n;
+        }));
+        cases.add(new Case("getAnnotationsByType.jdk", () -> {
+            int sum = 0;
+            for (MyAnno a : repeated.getAnnotationsByType(MyAnno.class))
+                sum += a.num();
+            return sum;
+        }));
+        cases.add(new Case("getAnnotationsByType.registry", () -> {
+            AnnotationRegistry.Repeated<MyAnno> r = AnnotationRegistry.of(Example_RepeatedAnnotation.class).method("myMethod", stringInt).repeated(MyAnno.class);
+            int sum = 0;
+            for (int i = 0; i < r.size(); i++)
+                sum += r.get(i).num();
+            return sum;
+        }));
+        cases.add(new Case("getAnnotatedReturnType.jdk", () -> AnnotationRetrievalBenchmark.countTypeAnnotations(f2.getAnnotatedReturnType())));
+        cases.add(new Case("getAnnotatedReturnType.snapshot", () -> {
+            int n = 0;
+            for (AnnotationStore.Cursor c = snapshot.queryClass("com.pbe.Example_TypeAnnotations"); c.next(); )
+                if (c.memberId() == f2Id && c.targetType() == 0x14) // return type
+                    n++;
+            return n;
+        }));
+        return cases;
+    }
+
+    // A lookup as a Callable, which (unlike Case) is the same type in every class loader; called on a copy of this class in a new one
+    static Callable<Integer> callable(String name) throws Exception {
+        for (Case c : cases())
+            if (c.name().equals(name))
+                return () -> c.op().run();
+        throw new IllegalArgumentException("No lookup " + name);
+    }
+
+    // Do the first lookup on n threads together, on fresh copies of the classes: this package and the examples in a new class loader
+    private static Point cold(String name, int expected, int n) throws Exception {
+        URL[] classPath = {
+                AnnotationRegistry.class.getProtectionDomain().getCodeSource().getLocation(),
+                ConcurrentLookupBenchmark.class.getProtectionDomain().getCodeSource().getLocation() };
+        try (URLClassLoader loader = new URLClassLoader(classPath, ClassLoader.getPlatformClassLoader())) {
+            Method callable = loader.loadClass(ConcurrentLookupBenchmark.class.getName()).getDeclaredMethod("callable", String.class);
+            callable.setAccessible(true); // package-private, and the package of the copy is another one at run time
+            Callable<?> lookup = (Callable<?>) callable.invoke(null, name);
+            return run(new Case(name, () -> (Integer) lookup.call()), expected, n, 0);
+        }
+    }
+
+    // Run a lookup on n threads, all starting together, and measure it: for the given time, or with millis 0 once on each thread
+    private static Point run(Case c, int expected, int n, long millis) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(n), start = new CountDownLatch(1), done = new CountDownLatch(n), measured = new CountDownLatch(1);
+        AtomicLong operations = new AtomicLong(), mismatches = new AtomicLong(), lastEnd = new AtomicLong(Long.MIN_VALUE);
+        long[] ids = new long[n];
+        stopped = false;
+        Thread[] threads = new Thread[n];
+        for (int t = 0; t < n; t++) {
+            threads[t] = new Thread(() -> {
+                long ops = 0, wrong = 0;
+                ready.countDown();
+                try {
+                    start.await();
+                    if (millis == 0) {
+                        if (c.op().run() != expected)
+                            wrong++;
+                        ops++;
+                    }
+                    while (millis > 0 && !stopped) {
+                        for (int i = 0; i < 64; i++) // check the stop flag once per batch
+                            if (c.op().run() != expected)
+                                wrong++;
+                        ops += 64;
+                    }
+                } catch (Exception e) {
+                    wrong++;
+                }
+                lastEnd.accumulateAndGet(System.nanoTime(), Math::max);
+                operations.addAndGet(ops);
+                mismatches.addAndGet(wrong);
+                done.countDown();
+                try {
+                    measured.await(); // stay alive until the blocked times are read, they aren't available once the thread has ended
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "lookup-" + t);
+            threads[t].setDaemon(true);
+            ids[t] = threads[t].getId();
+            threads[t].start();
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        if (millis > 0) {
+            Thread.sleep(millis);
+            stopped = true;
+        }
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        long blockedCount = 0, blockedMillis = 0;
+        for (ThreadInfo info : THREADS.getThreadInfo(ids)) {
+            if (info == null)
+                continue;
+            blockedCount += info.getBlockedCount();
+            blockedMillis += Math.max(0, info.getBlockedTime()); // -1 without contention monitoring
+        }
+        measured.countDown();
+        for (Thread t : threads)
+            t.join();
+        if (millis == 0)
+            return new Point("cold", c.name(), n, Double.NaN, Double.NaN, (lastEnd.get() - begin) / 1e3, blockedCount, blockedMillis, mismatches.get());
+        return new Point("warm", c.name(), n, operations.get() * 1e9 / elapsed, Double.NaN, Double.NaN, blockedCount, blockedMillis, mismatches.get());
+    }
+
+    private static void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    String[] counts = args[++i].split(",");
+                    threadCounts = new int[counts.length];
+                    for (int j = 0; j < counts.length; j++)
+                        threadCounts[j] = Integer.parseInt(counts[j].trim());
+                    break;
+                case "--millis": millis = Long.parseLong(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--csv": csv = Paths.get(args[++i]); break;
+                case "--min-scaling": minScaling = Double.parseDouble(args[++i]); break;
+                default: filter = Pattern.compile(args[i]); break;
+            }
+        }
+        if (millis <= 0 || rounds <= 0)
+            throw new IllegalArgumentException("--millis and --rounds must be positive");
+        // 1 thread first: it is the baseline of the scaling, so it is always measured
+        threadCounts = IntStream.concat(IntStream.of(1), Arrays.stream(threadCounts).filter(n -> n != 1)).toArray();
+    }
+
+    private static void writeCsv(List<Point> points) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv))) {
+            out.println("phase,name,threads,opsPerSecond,scaling,slowestMicros,blockedCount,blockedMillis,mismatches");
+            for (Point p : points)
+                out.printf(Locale.ROOT, "%s,%s,%d,%.1f,%.3f,%.1f,%d,%d,%d%n", p.phase(), p.name(), p.threads(), p.opsPerSecond(), p.scaling(), p.slowestMicros(),
+                        p.blockedCount(), p.blockedMillis(), p.mismatches());
+        }
+    }
+}
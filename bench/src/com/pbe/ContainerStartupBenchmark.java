@@ -0,0 +1,162 @@
+package com.pbe;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Constructor;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// *******
+// Startup benchmark of the generated container (see Container), against wiring the same components of Example_DependencyInjection
+// with reflection, the way a container without an annotation processor does it:
+// - reflective: scan the class path for @Component classes (with AnnotationScanner), load them, and find their constructors
+//   with getDeclaredConstructors(); then create each component on first use, resolving its parameters recursively
+// - generated:  new Container(), whose wiring was generated at compile time
+// Cold start: each way is timed in fresh JVMs (--runs of them, alternating), from before the container is created
+// until the Controller has been created, which is what an application waits for at start-up; the wall time of the JVM is shown too.
+// Warm: the same, and getting the Controller from a container that exists, measured with BenchmarkHarness in this JVM
+// (without the class path scan, whose result is reused, so only the wiring itself is compared).
+//
+// Usage (build.sh compiles the modules first, see there):
+//   ./build.sh bench ContainerStartupBenchmark [--runs 10] [regex] [--csv after.csv] [--baseline before.csv] [--quick]
+// or, after ./build.sh:
+//   java -cp out/classes:out/bench com.pbe.ContainerStartupBenchmark [--runs 10] [regex] [--csv after.csv] [--baseline before.csv] [--quick]
+// *******
+public class ContainerStartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--child")) {
+            child(args[1]);
+            return;
+        }
+        int runs = 10;
+        List<String> harnessArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--runs"))
+                runs = Integer.parseInt(args[++i]);
+            else
+                harnessArgs.add(args[i]);
+        }
+
+        // Cold start
+        String[] modes = { "reflective", "generated" };
+        long[][] wiring = new long[modes.length][runs], wall = new long[modes.length][runs];
+        for (int r = 0; r < runs; r++) {
+            for (int m = 0; m < modes.length; m++) {
+                long start = System.nanoTime();
+                wiring[m][r] = runChild(modes[m]);
+                wall[m][r] = System.nanoTime() - start;
+            }
+        }
+        System.out.printf(Locale.ROOT, "Cold start, %d JVMs each:%n", runs);
+        System.out.printf(Locale.ROOT, "%-12s %16s %16s %16s%n", "", "wiring p50 us", "wiring min us", "JVM wall p50 ms");
+        for (int m = 0; m < modes.length; m++)
+            System.out.printf(Locale.ROOT, "%-12s %16.0f %16.0f %16.1f%n", modes[m], median(wiring[m]) / 1e3, Arrays.stream(wiring[m]).min().getAsLong() / 1e3, median(wall[m]) / 1e6);
+        System.out.printf(Locale.ROOT, "Generated wiring starts %.1fx as fast%n%n", median(wiring[0]) / median(wiring[1]));
+
+        // Warm
+        List<Class<?>> components = ReflectiveContainer.scan(AnnotationScanner.classPath());
+        Container container = new Container();
+        ReflectiveContainer reflective = new ReflectiveContainer(components);
+        BenchmarkHarness h = new BenchmarkHarness(harnessArgs.toArray(new String[0]));
+        h.add("generated.wire", () -> new Container().get(Example_DependencyInjection.Controller.class));
+        h.add("reflective.wire", () -> new ReflectiveContainer(components).get(Example_DependencyInjection.Controller.class));
+        h.add("generated.get", () -> container.get(Example_DependencyInjection.Controller.class));
+        h.add("reflective.get", () -> reflective.get(Example_DependencyInjection.Controller.class));
+        System.exit(h.run());
+    }
+
+    // In a fresh JVM: wire the components one way, and print the time taken in nanoseconds
+    private static void child(String mode) throws Exception {
+        long start = System.nanoTime();
+        Object controller;
+        if (mode.equals("generated"))
+            controller = new Container().get(Example_DependencyInjection.Controller.class);
+        else
+            controller = new ReflectiveContainer(ReflectiveContainer.scan(AnnotationScanner.classPath())).get(Example_DependencyInjection.Controller.class);
+        long nanos = System.nanoTime() - start;
+        if (controller == null)
+            throw new AssertionError("No controller");
+        System.out.println(nanos);
+    }
+
+    private static long runChild(String mode) throws IOException, InterruptedException {
+        Process p = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), ContainerStartupBenchmark.class.getName(), "--child", mode)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String line;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            line = in.readLine();
+        }
+        if (p.waitFor() != 0 || line == null)
+            throw new IllegalStateException("The " + mode + " run failed");
+        return Long.parseLong(line.trim());
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    // *******
+    // Container wired with reflection at run time, with the same behavior as Container: singletons bound to their class
+    // and interfaces, created on first use with the @Inject constructor (or the only one)
+    // *******
+    static final class ReflectiveContainer {
+
+        private final Map<Class<?>, Class<?>> bindings = new HashMap<>(); // class or interface -> component class
+        private final Map<Class<?>, Object> instances = new HashMap<>();
+
+        ReflectiveContainer(List<Class<?>> components) {
+            for (Class<?> c : components) {
+                bindings.put(c, c);
+                for (Class<?> i : c.getInterfaces())
+                    bindings.put(i, c);
+            }
+        }
+
+        // The @Component classes in a class path
+        static List<Class<?>> scan(List<Path> classPath) throws IOException, ClassNotFoundException {
+            List<Class<?>> components = new ArrayList<>();
+            for (AnnotationIndex.Element e : AnnotationScanner.forPackage("com.pbe").scan(classPath).getOrDefault(Component.class.getName(), List.of()))
+                components.add(Class.forName(e.className().replace('/', '.')));
+            return components;
+        }
+
+        synchronized <T> T get(Class<T> type) throws ReflectiveOperationException {
+            Class<?> c = bindings.get(type);
+            if (c == null)
+                throw new IllegalArgumentException("No @Component bound to " + type.getName());
+            Object o = instances.get(c);
+            if (o == null) {
+                Constructor<?> constructor = constructor(c);
+                Class<?>[] parameters = constructor.getParameterTypes();
+                Object[] arguments = new Object[parameters.length];
+                for (int i = 0; i < parameters.length; i++)
+                    arguments[i] = get(parameters[i]);
+                constructor.setAccessible(true);
+                o = constructor.newInstance(arguments);
+                instances.put(c, o);
+            }
+            return type.cast(o);
+        }
+
+        private static Constructor<?> constructor(Class<?> c) {
+            Constructor<?>[] constructors = c.getDeclaredConstructors();
+            for (Constructor<?> k : constructors)
+                if (k.isAnnotationPresent(Inject.class))
+                    return k;
+            if (constructors.length != 1)
+                throw new IllegalStateException(c.getName() + " has several constructors, and none with @Inject");
+            return constructors[0];
+        }
+    }
+}
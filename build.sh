@@ -0,0 +1,63 @@
+#!/bin/sh
+# *******
+# Build script of the project; needs only a JDK (17 or later), no build tool or downloaded dependencies.
+# Compiles the modules in the order they depend on each other:
+# - processor: the annotation processors (into out/processor, with their META-INF/services registration)
+# - src:       the examples and the runtime, with the processors on the processor path (into out/classes; the generated
+#              sources end up next to the classes), then writes the annotation snapshot (see AnnotationSnapshot)
+# - bench:     the benchmarks, against out/classes (into out/bench)
+#
+# Usage:
+#   ./build.sh                          compile all modules
+#   ./build.sh agent                    compile, and package out/pbe-agent.jar (see AnnotationAgent)
+#   ./build.sh bench <Benchmark> [args] compile, and run a benchmark of the bench module, e.g.
+#     ./build.sh bench AnnotationRetrievalBenchmark --csv before.csv
+#     ./build.sh bench AnnotationRetrievalBenchmark --baseline before.csv --tolerance 10
+#   ./build.sh clean                    remove out
+# The benchmark arguments are those of BenchmarkHarness; with --baseline the script exits with status 1 on a regression.
+# *******
+set -eu
+
+cd "$(dirname "$0")"
+OUT=out
+JAVAC="javac -encoding UTF-8 -Xlint:all,-auxiliaryclass,-processing"
+
+compile() {
+    rm -rf "$OUT/processor" "$OUT/classes" "$OUT/bench"
+
+    $JAVAC -d "$OUT/processor" processor/src/com/pbe/processor/*.java
+    cp -r processor/src/META-INF "$OUT/processor"
+
+    $JAVAC -processorpath "$OUT/processor" -d "$OUT/classes" src/com/pbe/*.java
+    cp -r src/META-INF "$OUT/classes"
+    java -cp "$OUT/classes" com.pbe.AnnotationSnapshot "$OUT/classes" > /dev/null
+
+    $JAVAC -cp "$OUT/classes" -d "$OUT/bench" bench/src/com/pbe/*.java
+}
+
+case "${1:-build}" in
+    build)
+        compile
+        ;;
+    agent)
+        compile
+        jar cfm "$OUT/pbe-agent.jar" agent/MANIFEST.MF -C "$OUT/classes" .
+        ;;
+    bench)
+        if [ $# -lt 2 ]; then
+            echo "Usage: $0 bench <Benchmark> [args]" >&2
+            exit 2
+        fi
+        benchmark=$2
+        shift 2
+        compile
+        exec java -cp "$OUT/classes:$OUT/bench" "com.pbe.$benchmark" "$@"
+        ;;
+    clean)
+        rm -rf "$OUT"
+        ;;
+    *)
+        echo "Usage: $0 [build|agent|bench <Benchmark> [args]|clean]" >&2
+        exit 2
+        ;;
+esac
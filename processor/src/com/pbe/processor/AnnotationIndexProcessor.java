@@ -0,0 +1,253 @@
+package com.pbe.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.SimpleAnnotationValueVisitor9;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Repeatable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// *******
+// Annotation processor that writes an index of all elements carrying a com.pbe annotation to META-INF/pbe/annotations.idx.
+// At run time, AnnotationIndex memory-maps that file and answers "all elements annotated with X" without loading (or reflecting on) the annotated classes.
+// Repeated annotations are indexed individually as well as through their container, so MyAnno can be looked up directly.
+//
+// Index format (big-endian, as written by DataOutputStream):
+//   int     magic (0x50424549, "PBEI")
+//   short   version
+//   int     string count, followed by each string as: short byte length + UTF-8 bytes
+//   int     entry count, followed by each entry as:
+//             int class name, int member name, byte element kind, int annotation type   (names are indexes into the string table)
+//             short member value count, followed by each member as: int name + tagged value
+//   Tagged values: a tag byte, followed by
+//     'Z' byte, 'B' byte, 'C' char, 'S' short, 'I' int, 'J' long, 'F' float, 'D' double,
+//     's' string, 'e' enum constant, 'c' class name, '@' annotation (source form)   (all four as string table index)
+//     '[' short element count + tagged values
+// Member names: "" for the class itself, the field name, or the method name with its parameter types e.g. "myMethod(java.lang.String,int)".
+// *******
+@SupportedAnnotationTypes("*")
+public class AnnotationIndexProcessor extends AbstractProcessor {
+
+    static final String INDEX_RESOURCE = "META-INF/pbe/annotations.idx";
+    static final int MAGIC = 0x50424549;
+    static final short VERSION = 1;
+
+    // Element kinds, as stored in the index
+    static final byte KIND_TYPE = 0, KIND_FIELD = 1, KIND_METHOD = 2, KIND_CONSTRUCTOR = 3;
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndex = new HashMap<>();
+    private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+    private final DataOutputStream entries = new DataOutputStream(entryBytes);
+    private int entryCount;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        try {
+            if (roundEnv.processingOver())
+                writeIndex();
+            else
+                for (TypeElement t : ElementFilter.typesIn(roundEnv.getRootElements()))
+                    indexType(t);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write annotation index: " + e.getMessage());
+        }
+        return false;
+    }
+
+    // Index the class, its fields, methods and constructors, and its nested classes
+    private void indexType(TypeElement type) throws IOException {
+        String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+        indexElement(className, "", KIND_TYPE, type);
+        for (Element e : type.getEnclosedElements()) {
+            switch (e.getKind()) {
+                case FIELD:
+                case ENUM_CONSTANT:
+                    indexElement(className, e.getSimpleName().toString(), KIND_FIELD, e);
+                    break;
+                case METHOD:
+                    indexElement(className, memberName((ExecutableElement) e), KIND_METHOD, e);
+                    break;
+                case CONSTRUCTOR:
+                    indexElement(className, memberName((ExecutableElement) e), KIND_CONSTRUCTOR, e);
+                    break;
+                case CLASS:
+                case INTERFACE:
+                case ENUM:
+                case RECORD:
+                case ANNOTATION_TYPE:
+                    indexType((TypeElement) e);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void indexElement(String className, String member, byte kind, Element e) throws IOException {
+        for (AnnotationMirror a : e.getAnnotationMirrors()) {
+            if (!isIndexed(a))
+                continue;
+            writeEntry(className, member, kind, a);
+
+            // Index the annotations inside a container (e.g. each MyAnno inside MyRepeatedAnnos) as well
+            for (AnnotationMirror repeated : containedAnnotations(a))
+                writeEntry(className, member, kind, repeated);
+        }
+    }
+
+    // Only the annotations declared in com.pbe are indexed
+    private static boolean isIndexed(AnnotationMirror a) {
+        TypeElement type = (TypeElement) a.getAnnotationType().asElement();
+        return type.getQualifiedName().toString().equals(AnnotationValueProcessor.PACKAGE + "." + type.getSimpleName());
+    }
+
+    // If a is a container annotation, return the repeated annotations it holds
+    private List<AnnotationMirror> containedAnnotations(AnnotationMirror a) {
+        List<AnnotationMirror> contained = new ArrayList<>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> member : a.getElementValues().entrySet()) {
+            if (!member.getKey().getSimpleName().contentEquals("value") || !(member.getValue().getValue() instanceof List))
+                continue;
+            for (Object o : (List<?>) member.getValue().getValue()) {
+                Object v = ((AnnotationValue) o).getValue();
+                if (v instanceof AnnotationMirror && isContainedIn((AnnotationMirror) v, a))
+                    contained.add((AnnotationMirror) v);
+            }
+        }
+        return contained;
+    }
+
+    private boolean isContainedIn(AnnotationMirror repeated, AnnotationMirror container) {
+        for (AnnotationMirror meta : repeated.getAnnotationType().asElement().getAnnotationMirrors()) {
+            if (!((TypeElement) meta.getAnnotationType().asElement()).getQualifiedName().contentEquals(Repeatable.class.getName()))
+                continue;
+            for (AnnotationValue v : meta.getElementValues().values())
+                if (processingEnv.getTypeUtils().isSameType((TypeMirror) v.getValue(), container.getAnnotationType()))
+                    return true;
+        }
+        return false;
+    }
+
+    private void writeEntry(String className, String member, byte kind, AnnotationMirror a) throws IOException {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils().getElementValuesWithDefaults(a);
+        entries.writeInt(string(className));
+        entries.writeInt(string(member));
+        entries.writeByte(kind);
+        entries.writeInt(string(((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().toString()));
+        entries.writeShort(values.size());
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> v : values.entrySet()) {
+            entries.writeInt(string(v.getKey().getSimpleName().toString()));
+            writeValue(v.getValue());
+        }
+        entryCount++;
+    }
+
+    // Write a single member value, with a tag describing its type
+    private void writeValue(AnnotationValue value) {
+        value.accept(new SimpleAnnotationValueVisitor9<Void, Void>() {
+            @Override public Void visitBoolean(boolean b, Void p) { return write('Z', () -> entries.writeByte(b ? 1 : 0)); }
+            @Override public Void visitByte(byte b, Void p) { return write('B', () -> entries.writeByte(b)); }
+            @Override public Void visitChar(char c, Void p) { return write('C', () -> entries.writeChar(c)); }
+            @Override public Void visitShort(short s, Void p) { return write('S', () -> entries.writeShort(s)); }
+            @Override public Void visitInt(int i, Void p) { return write('I', () -> entries.writeInt(i)); }
+            @Override public Void visitLong(long l, Void p) { return write('J', () -> entries.writeLong(l)); }
+            @Override public Void visitFloat(float f, Void p) { return write('F', () -> entries.writeFloat(f)); }
+            @Override public Void visitDouble(double d, Void p) { return write('D', () -> entries.writeDouble(d)); }
+            @Override public Void visitString(String s, Void p) { return write('s', () -> entries.writeInt(string(s))); }
+            @Override public Void visitEnumConstant(VariableElement c, Void p) {
+                return write('e', () -> entries.writeInt(string(((TypeElement) c.getEnclosingElement()).getQualifiedName() + "." + c.getSimpleName())));
+            }
+            @Override public Void visitType(TypeMirror t, Void p) {
+                return write('c', () -> entries.writeInt(string(t instanceof DeclaredType
+                        ? processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) t).asElement()).toString()
+                        : t.toString())));
+            }
+            @Override public Void visitAnnotation(AnnotationMirror a, Void p) { return write('@', () -> entries.writeInt(string(a.toString()))); }
+            @Override public Void visitArray(List<? extends AnnotationValue> values, Void p) {
+                return write('[', () -> {
+                    entries.writeShort(values.size());
+                    for (AnnotationValue v : values)
+                        writeValue(v);
+                });
+            }
+        }, null);
+    }
+
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
+    private Void write(char tag, IOAction body) {
+        try {
+            entries.writeByte(tag);
+            body.run();
+        } catch (IOException e) { // a ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return null;
+    }
+
+    private int string(String s) {
+        Integer index = stringIndex.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndex.put(s, index);
+        }
+        return index;
+    }
+
+    private void writeIndex() throws IOException {
+        try (OutputStream os = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE).openOutputStream();
+             DataOutputStream out = new DataOutputStream(os)) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+            out.writeInt(entryCount);
+            entryBytes.writeTo(out);
+        }
+    }
+
+    // e.g. "myMethod(java.lang.String,int)" or "<init>()"
+    private String memberName(ExecutableElement e) {
+        StringBuilder sb = new StringBuilder(e.getKind() == ElementKind.CONSTRUCTOR ? "<init>" : e.getSimpleName().toString()).append('(');
+        for (int i = 0; i < e.getParameters().size(); i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(processingEnv.getTypeUtils().erasure(e.getParameters().get(i).asType()));
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,298 @@
+package com.pbe.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// *******
+// Annotation processor that generates a plain, immutable value record for every RUNTIME annotation type declared in com.pbe.
+// An annotation instance obtained through reflection is a dynamic proxy: each member read (e.g. myanno.num()) goes through
+// the proxy's invocation handler, which looks the member up in a map by name.
+// The generated record (e.g. MyAnnotationValue) holds the member values in final fields instead, so reading a member is a plain field load.
+// Besides the records, the processor generates AnnotationValues, which converts an annotation instance into its record.
+// Records are interned: equal values share one canonical instance (and one shared DEFAULTS instance when all members have defaults),
+// so the many elements carrying an identical annotation don't each hold their own copy. The interner (WeakInterner) holds the
+// canonical instances weakly, so values that are no longer used anywhere don't stay on the heap.
+// AnnotationRegistry uses that to hand out the records. Note that a record comes on top of the annotation proxy, which the JDK keeps
+// cached with its Class or Method anyway: the records make reading a member cheaper, they don't make the annotations take less heap.
+//
+// Usage: compile this module first, then compile src with the processor on the processor path, e.g.
+//   javac -d out/processor processor/src/com/pbe/processor/*.java && cp -r processor/src/META-INF out/processor
+//   javac -processorpath out/processor -d out/classes src/com/pbe/*.java
+// build.sh in the project root does this, and compiles the bench module after it.
+// *******
+@SupportedAnnotationTypes("*")
+public class AnnotationValueProcessor extends AbstractProcessor {
+
+    static final String PACKAGE = "com.pbe";
+    static final String VALUE_SUFFIX = "Value";
+
+    private boolean generated; // the annotation types are all found in the first round, so only generate once
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (generated || roundEnv.processingOver())
+            return false;
+
+        // Find the RUNTIME annotation types among the compiled sources
+        List<TypeElement> types = new ArrayList<>();
+        for (TypeElement t : ElementFilter.typesIn(roundEnv.getRootElements()))
+            if (isRuntimeAnnotation(t))
+                types.add(t);
+        if (types.isEmpty())
+            return false;
+        generated = true;
+
+        Set<String> names = new HashSet<>();
+        for (TypeElement t : types)
+            names.add(t.getQualifiedName().toString());
+
+        try {
+            for (TypeElement t : types)
+                writeValueRecord(t, names);
+            writeFactory(types);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate annotation values: " + e.getMessage());
+        }
+        return false; // never claim the annotations, other processors may need them too
+    }
+
+    // Only annotation types in com.pbe that are retained at run time can be read through reflection, and so need a value record
+    static boolean isRuntimeAnnotation(Element e) {
+        if (e.getKind() != ElementKind.ANNOTATION_TYPE)
+            return false;
+        if (!((TypeElement) e).getQualifiedName().toString().equals(PACKAGE + "." + e.getSimpleName()))
+            return false;
+        Retention retention = e.getAnnotation(Retention.class);
+        return retention != null && retention.value() == RetentionPolicy.RUNTIME;
+    }
+
+    static String valueName(TypeElement annotationType) {
+        return annotationType.getSimpleName() + VALUE_SUFFIX;
+    }
+
+    // Generate e.g.: record MyAnnotationValue(String userinput, int num) { static MyAnnotationValue of(MyAnnotation a) { .. } }
+    private void writeValueRecord(TypeElement type, Set<String> names) throws IOException {
+        String name = valueName(type);
+        List<ExecutableElement> members = ElementFilter.methodsIn(type.getEnclosedElements());
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(PACKAGE + "." + name, type).openWriter())) {
+            out.println("package " + PACKAGE + ";");
+            out.println();
+            out.println("// Generated by " + getClass().getSimpleName() + " from " + type.getQualifiedName() + " - do not edit");
+            out.println("// Note that array members are shared, not copied, so they must not be modified");
+            out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+
+            out.print("record " + name + "(");
+            for (int i = 0; i < members.size(); i++) {
+                ExecutableElement m = members.get(i);
+                out.print((i > 0 ? ", " : "") + typeName(m.getReturnType(), names) + " " + m.getSimpleName());
+            }
+            out.println(") {");
+            out.println();
+
+            // Shared instance with all default values, if every member has a default
+            String defaults = defaultsArguments(members, names);
+            if (defaults != null) {
+                out.println("    // Instance with all members at their default value, shared by every use of the annotation that sets no members");
+                out.println("    static final " + name + " DEFAULTS = new " + name + "(" + defaults + ");");
+                out.println();
+            }
+
+            // Canonical instances, one per distinct set of values in use; held weakly, so values nobody refers to any more are dropped
+            out.println("    private static final WeakInterner<" + name + "> INTERNED = new WeakInterner<>();");
+            out.println();
+            out.println("    // Return the canonical instance that is equal to v");
+            out.println("    static " + name + " intern(" + name + " v) {");
+            if (defaults != null) {
+                out.println("        if (v.equals(DEFAULTS))");
+                out.println("            return DEFAULTS;");
+            }
+            out.println("        return INTERNED.intern(v);");
+            out.println("    }");
+            out.println();
+
+            // Factory method, copying the members of the annotation instance
+            out.println("    // Return the canonical value of an annotation instance");
+            out.println("    static " + name + " of(" + type.getSimpleName() + " a) {");
+            out.print("        return intern(new " + name + "(");
+            for (int i = 0; i < members.size(); i++) {
+                ExecutableElement m = members.get(i);
+                String read = "a." + m.getSimpleName() + "()";
+                TypeMirror t = m.getReturnType();
+                if (isNestedValue(t, names))
+                    read = nestedValueName(t) + ".of(" + read + ")";
+                else if (t.getKind() == TypeKind.ARRAY && isNestedValue(((ArrayType) t).getComponentType(), names))
+                    read = "map" + capitalize(m.getSimpleName().toString()) + "(" + read + ")";
+                out.print((i > 0 ? ", " : "") + read);
+            }
+            out.println("));");
+            out.println("    }");
+
+            // Records compare array components by reference; compare their contents instead, so equal values can be shared
+            boolean hasArrays = false;
+            for (ExecutableElement m : members)
+                hasArrays |= m.getReturnType().getKind() == TypeKind.ARRAY;
+            if (hasArrays) {
+                out.println();
+                out.println("    @Override");
+                out.println("    public boolean equals(Object o) {");
+                out.print("        return o instanceof " + name + " other");
+                for (ExecutableElement m : members) {
+                    String n = m.getSimpleName().toString();
+                    out.print(m.getReturnType().getKind() == TypeKind.ARRAY
+                            ? " && java.util.Arrays.equals(" + n + ", other." + n + ")"
+                            : " && java.util.Objects.equals(" + n + ", other." + n + ")");
+                }
+                out.println(";");
+                out.println("    }");
+                out.println();
+                out.println("    @Override");
+                out.println("    public int hashCode() {");
+                out.println("        int h = 0;");
+                for (ExecutableElement m : members) {
+                    String n = m.getSimpleName().toString();
+                    out.println("        h = 31 * h + " + (m.getReturnType().getKind() == TypeKind.ARRAY ? "java.util.Arrays.hashCode(" + n + ")" : "java.util.Objects.hashCode(" + n + ")") + ";");
+                }
+                out.println("        return h;");
+                out.println("    }");
+            }
+
+            // Helpers converting arrays of nested annotations (e.g. the value() of a container annotation)
+            for (ExecutableElement m : members) {
+                TypeMirror t = m.getReturnType();
+                if (t.getKind() != TypeKind.ARRAY || !isNestedValue(((ArrayType) t).getComponentType(), names))
+                    continue;
+                TypeMirror component = ((ArrayType) t).getComponentType();
+                String valueType = nestedValueName(component);
+                out.println();
+                out.println("    private static " + valueType + "[] map" + capitalize(m.getSimpleName().toString()) + "(" + component + "[] in) {");
+                out.println("        " + valueType + "[] out = new " + valueType + "[in.length];");
+                out.println("        for (int i = 0; i < in.length; i++)");
+                out.println("            out[i] = " + valueType + ".of(in[i]);");
+                out.println("        return out;");
+                out.println("    }");
+            }
+            out.println("}");
+        }
+    }
+
+    // Generate AnnotationValues, which maps an annotation instance to its value record
+    private void writeFactory(List<TypeElement> types) throws IOException {
+        Element[] origins = types.toArray(new Element[0]);
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(PACKAGE + ".AnnotationValues", origins).openWriter())) {
+            out.println("package " + PACKAGE + ";");
+            out.println();
+            out.println("import java.lang.annotation.Annotation;");
+            out.println();
+            out.println("// Generated by " + getClass().getSimpleName() + " - do not edit");
+            out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+            out.println("final class AnnotationValues {");
+            out.println();
+            out.println("    private AnnotationValues() { }");
+            out.println();
+            out.println("    // Convert an annotation instance into its value record, or return null if no record was generated for its type");
+            out.println("    static Object of(Annotation a) {");
+            out.println("        Class<? extends Annotation> type = a.annotationType();");
+            for (TypeElement t : types) {
+                out.println("        if (type == " + t.getSimpleName() + ".class)");
+                out.println("            return " + valueName(t) + ".of((" + t.getSimpleName() + ") a);");
+            }
+            out.println("        return null;");
+            out.println("    }");
+            out.println();
+            out.println("    // Annotation type of a value record type, or null if it isn't one");
+            out.println("    static Class<? extends Annotation> annotationType(Class<?> valueType) {");
+            for (TypeElement t : types) {
+                out.println("        if (valueType == " + valueName(t) + ".class)");
+                out.println("            return " + t.getSimpleName() + ".class;");
+            }
+            out.println("        return null;");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    // Constructor arguments for the default values of all members, as source literals; null if a member has no default
+    // (or a default that can't easily be written as a literal, such as a nested annotation)
+    private static String defaultsArguments(List<ExecutableElement> members, Set<String> names) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < members.size(); i++) {
+            ExecutableElement m = members.get(i);
+            if (m.getDefaultValue() == null || isNestedValue(m.getReturnType(), names))
+                return null;
+            TypeMirror t = m.getReturnType();
+            String literal = literal(m.getDefaultValue());
+            if (t.getKind() == TypeKind.ARRAY) {
+                if (isNestedValue(((ArrayType) t).getComponentType(), names) || ((ArrayType) t).getComponentType().getKind() == TypeKind.DECLARED
+                        && ((DeclaredType) ((ArrayType) t).getComponentType()).asElement().getKind() == ElementKind.ANNOTATION_TYPE)
+                    return null;
+                literal = "new " + t + literal;
+            }
+            sb.append(i > 0 ? ", " : "").append(literal);
+        }
+        return sb.toString();
+    }
+
+    // Source literal of an annotation member value; enum constants are qualified with their type, arrays are given as {..}
+    static String literal(AnnotationValue v) {
+        Object value = v.getValue();
+        if (value instanceof VariableElement)
+            return ((TypeElement) ((VariableElement) value).getEnclosingElement()).getQualifiedName() + "." + ((VariableElement) value).getSimpleName();
+        if (value instanceof List) {
+            StringBuilder sb = new StringBuilder("{");
+            for (Object element : (List<?>) value)
+                sb.append(sb.length() > 1 ? ", " : "").append(literal((AnnotationValue) element));
+            return sb.append('}').toString();
+        }
+        return v.toString();
+    }
+
+    // Type of a record component: nested annotations become their value record, everything else keeps its type
+    private static String typeName(TypeMirror t, Set<String> names) {
+        if (isNestedValue(t, names))
+            return nestedValueName(t);
+        if (t.getKind() == TypeKind.ARRAY && isNestedValue(((ArrayType) t).getComponentType(), names))
+            return nestedValueName(((ArrayType) t).getComponentType()) + "[]";
+        return t.toString();
+    }
+
+    private static boolean isNestedValue(TypeMirror t, Set<String> names) {
+        return t.getKind() == TypeKind.DECLARED
+                && names.contains(((TypeElement) ((DeclaredType) t).asElement()).getQualifiedName().toString());
+    }
+
+    private static String nestedValueName(TypeMirror t) {
+        return valueName((TypeElement) ((DeclaredType) t).asElement());
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+}
@@ -0,0 +1,242 @@
+package com.pbe.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// *******
+// Annotation processor that builds the wiring graph of the classes in com.pbe annotated with @Component at compile time,
+// and generates it as code in Components, which Container uses at run time:
+// - indexOf(Class) maps a component class, and each interface it implements, to the component's index
+// - create(index, container) calls the component's constructor, with its dependencies taken from the container by index
+// The constructor is the one annotated with @Inject, or else the only one; each of its parameters must be bound to a component.
+// Components are numbered in dependency order (a component after all components it depends on), and a cycle is a compile error,
+// as are a parameter without a component and an interface implemented by two components.
+// So at run time there is nothing to scan, no constructor to look up with reflection, and no graph to check.
+// *******
+@SupportedAnnotationTypes("*")
+public class ComponentProcessor extends AbstractProcessor {
+
+    static final String COMPONENT = AnnotationValueProcessor.PACKAGE + ".Component";
+    static final String INJECT = AnnotationValueProcessor.PACKAGE + ".Inject";
+    static final String FACTORY = "Components";
+
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (generated || roundEnv.processingOver())
+            return false;
+        TypeElement component = processingEnv.getElementUtils().getTypeElement(COMPONENT);
+        if (component == null) // the package isn't being compiled
+            return false;
+        generated = true;
+        List<TypeElement> components = new ArrayList<>();
+        for (Element e : roundEnv.getElementsAnnotatedWith(component))
+            if (isValidComponent(e))
+                components.add((TypeElement) e);
+        try {
+            writeFactory(wire(components));
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate " + FACTORY + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    // A component in the wiring graph: its class, its constructor, and the components it depends on (one per constructor parameter)
+    private static final class Node {
+        final TypeElement type;
+        final ExecutableElement constructor;
+        final List<Node> dependencies = new ArrayList<>();
+        int index = -1; // position in dependency order, once sorted
+        boolean visiting;
+
+        Node(TypeElement type, ExecutableElement constructor) {
+            this.type = type;
+            this.constructor = constructor;
+        }
+    }
+
+    private boolean isValidComponent(Element e) {
+        if (e.getKind() != ElementKind.CLASS || e.getModifiers().contains(Modifier.ABSTRACT))
+            return error(e, "@Component must be on a concrete class");
+        TypeElement t = (TypeElement) e;
+        if (t.getNestingKind() == NestingKind.MEMBER && !t.getModifiers().contains(Modifier.STATIC))
+            return error(e, "@Component class must be static");
+        if (t.getNestingKind() == NestingKind.LOCAL || t.getNestingKind() == NestingKind.ANONYMOUS || !t.getTypeParameters().isEmpty())
+            return error(e, "@Component class must be a top-level or member class without type parameters");
+        for (Element outer = t; outer instanceof TypeElement; outer = outer.getEnclosingElement())
+            if (outer.getModifiers().contains(Modifier.PRIVATE))
+                return error(e, "@Component class must be accessible from its package");
+        return true;
+    }
+
+    // Resolve each component's constructor and dependencies, and sort the components in dependency order
+    private List<Node> wire(List<TypeElement> components) {
+        Map<String, Node> bindings = new LinkedHashMap<>(); // class or interface -> component
+        List<Node> nodes = new ArrayList<>();
+        for (TypeElement t : components) {
+            ExecutableElement constructor = constructor(t);
+            if (constructor == null)
+                continue;
+            Node node = new Node(t, constructor);
+            nodes.add(node);
+            bind(bindings, t, node);
+            for (TypeMirror i : t.getInterfaces())
+                bind(bindings, (TypeElement) ((DeclaredType) i).asElement(), node);
+        }
+        for (Node node : nodes) {
+            for (VariableElement p : node.constructor.getParameters()) {
+                Node dependency = p.asType().getKind() == TypeKind.DECLARED ? bindings.get(name((TypeElement) ((DeclaredType) p.asType()).asElement())) : null;
+                if (dependency == null)
+                    error(p, "No @Component for parameter " + p.getSimpleName() + " of type " + p.asType());
+                else
+                    node.dependencies.add(dependency);
+            }
+        }
+        List<Node> sorted = new ArrayList<>(nodes.size());
+        for (Node node : nodes)
+            sort(node, sorted, new ArrayList<>());
+        return sorted;
+    }
+
+    private void bind(Map<String, Node> bindings, TypeElement type, Node node) {
+        Node other = bindings.putIfAbsent(name(type), node);
+        if (other != null)
+            error(node.type, name(type) + " is bound to both " + name(other.type) + " and " + name(node.type));
+    }
+
+    // The constructor annotated with @Inject, or else the only constructor
+    private ExecutableElement constructor(TypeElement t) {
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(t.getEnclosedElements());
+        ExecutableElement chosen = constructors.size() == 1 ? constructors.get(0) : null;
+        for (ExecutableElement c : constructors)
+            if (c.getAnnotationMirrors().stream().anyMatch(a -> a.getAnnotationType().toString().equals(INJECT)))
+                chosen = c;
+        if (chosen == null)
+            error(t, "@Component class with several constructors must mark one with @Inject");
+        else if (chosen.getModifiers().contains(Modifier.PRIVATE))
+            error(chosen, "Constructor of a @Component must not be private");
+        else
+            return chosen;
+        return null;
+    }
+
+    // Depth first: a component is added after its dependencies; meeting a component that is being visited means a cycle
+    private void sort(Node node, List<Node> sorted, List<Node> path) {
+        if (node.index >= 0)
+            return;
+        if (node.visiting) {
+            StringBuilder cycle = new StringBuilder();
+            for (Node n : path.subList(path.indexOf(node), path.size()))
+                cycle.append(n.type.getSimpleName()).append(" -> ");
+            error(node.type, "Dependency cycle: " + cycle + node.type.getSimpleName());
+            return;
+        }
+        node.visiting = true;
+        path.add(node);
+        for (Node d : node.dependencies)
+            sort(d, sorted, path);
+        path.remove(path.size() - 1);
+        node.visiting = false;
+        if (node.index < 0) {
+            node.index = sorted.size();
+            sorted.add(node);
+        }
+    }
+
+    private void writeFactory(List<Node> nodes) throws IOException {
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(AnnotationValueProcessor.PACKAGE + "." + FACTORY).openWriter())) {
+            out.println("package " + AnnotationValueProcessor.PACKAGE + ";");
+            out.println();
+            out.println("// Generated by " + getClass().getSimpleName() + " from the @Component classes of " + AnnotationValueProcessor.PACKAGE + " - do not edit");
+            out.println("// Components in dependency order:");
+            for (Node n : nodes)
+                out.println("//   " + n.index + ": " + n.type.getSimpleName() + dependencyList(n));
+            out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+            out.println("final class " + FACTORY + " {");
+            out.println();
+            out.println("    static final int COUNT = " + nodes.size() + ";");
+            out.println();
+            out.println("    private " + FACTORY + "() { }");
+            out.println();
+            out.println("    // Index of the component bound to a class or interface, or -1");
+            out.println("    static int indexOf(Class<?> type) {");
+            for (Node n : nodes) {
+                out.print("        if (type == " + name(n.type) + ".class");
+                for (TypeMirror i : n.type.getInterfaces())
+                    out.print(" || type == " + name((TypeElement) ((DeclaredType) i).asElement()) + ".class");
+                out.println(")");
+                out.println("            return " + n.index + ";");
+            }
+            out.println("        return -1;");
+            out.println("    }");
+            out.println();
+            out.println("    // Class of a component");
+            out.println("    static Class<?> typeOf(int index) {");
+            out.println("        switch (index) {");
+            for (Node n : nodes)
+                out.println("            case " + n.index + ": return " + name(n.type) + ".class;");
+            out.println("            default: throw new IndexOutOfBoundsException(index);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("    // Create a component; its dependencies come first in the order, so they are created (if they weren't yet) before it");
+            out.println("    static Object create(int index, Container container) {");
+            out.println("        switch (index) {");
+            for (Node n : nodes) {
+                StringBuilder args = new StringBuilder();
+                for (Node d : n.dependencies)
+                    args.append(args.length() > 0 ? ", " : "").append('(').append(name(d.type)).append(") container.get(").append(d.index).append(')');
+                out.println("            case " + n.index + ": return new " + name(n.type) + "(" + args + ");");
+            }
+            out.println("            default: throw new IndexOutOfBoundsException(index);");
+            out.println("        }");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    private static String dependencyList(Node n) {
+        if (n.dependencies.isEmpty())
+            return "";
+        StringBuilder sb = new StringBuilder(" <- ");
+        for (int i = 0; i < n.dependencies.size(); i++)
+            sb.append(i > 0 ? ", " : "").append(n.dependencies.get(i).type.getSimpleName());
+        return sb.toString();
+    }
+
+    private String name(TypeElement t) {
+        return t.getQualifiedName().toString();
+    }
+
+    private boolean error(Element e, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+        return false;
+    }
+}
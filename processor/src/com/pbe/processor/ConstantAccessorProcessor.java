@@ -0,0 +1,335 @@
+package com.pbe.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// *******
+// Annotation processor that reads the annotations of every class in com.pbe at compile time, and generates a class of static accessors
+// returning their values as constants, e.g. for @MyAnnotation() on Example_DefaultValues.myMethod():
+//   final class Example_DefaultValuesAnnotations {
+//       static boolean myMethod_MyAnnotation() { return true; }        // presence
+//       static String myMethod_userinput() { return "default input"; }
+//       static int myMethod_num() { return 666; }
+//       static String[] myMethod_annotations() { .. }                  // the RUNTIME annotations, as Annotation.toString() shows them
+//   }
+// An accessor is a static method returning a literal, so the JIT inlines a call into the constant itself: reading an annotation value
+// costs nothing at run time, and needs neither reflection nor the annotation to be retained at run time.
+// Accessors are named element_member: the element is "class" for the class itself, the field name, the method name, or "init" for a constructor
+// (with the simple names of the parameter types appended for overloads, e.g. parse_String_int). When two annotations on one element
+// have a member with the same name, the annotation's simple name is put in between: myMethod_What_description.
+// Repeated annotations (in their container) get a count and accessors by index: myMethod_MyAnno_count(), myMethod_MyAnno_str(int i).
+// Members that hold another annotation are skipped. Arrays are returned shared, so they must not be modified.
+// *******
+@SupportedAnnotationTypes("*")
+public class ConstantAccessorProcessor extends AbstractProcessor {
+
+    static final String SUFFIX = "Annotations";
+
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (generated || roundEnv.processingOver())
+            return false;
+        try {
+            for (TypeElement t : ElementFilter.typesIn(roundEnv.getRootElements())) {
+                if (!t.getQualifiedName().toString().equals(AnnotationValueProcessor.PACKAGE + "." + t.getSimpleName()) || t.getKind() == ElementKind.ANNOTATION_TYPE)
+                    continue;
+                generated = true;
+                writeAccessors(t);
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate annotation accessors: " + e.getMessage());
+        }
+        return false;
+    }
+
+    // Generate the accessors of a class, if it or its members carry any of the package's annotations
+    private void writeAccessors(TypeElement type) throws IOException {
+        List<Element> elements = new ArrayList<>();
+        elements.add(type);
+        for (Element e : type.getEnclosedElements())
+            if (e.getKind() == ElementKind.FIELD || e.getKind() == ElementKind.METHOD || e.getKind() == ElementKind.CONSTRUCTOR)
+                elements.add(e);
+
+        StringBuilder fields = new StringBuilder(), body = new StringBuilder();
+        for (Element e : elements) {
+            List<AnnotationMirror> annotations = declarationAnnotations(e);
+            if (!annotations.isEmpty())
+                accessors(e, elementName(e, type), annotations, fields, body);
+        }
+        if (body.length() == 0)
+            return;
+
+        String name = type.getSimpleName() + SUFFIX;
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(AnnotationValueProcessor.PACKAGE + "." + name, type).openWriter())) {
+            out.println("package " + AnnotationValueProcessor.PACKAGE + ";");
+            out.println();
+            out.println("// Generated by " + getClass().getSimpleName() + " from the annotations of " + type.getQualifiedName() + " - do not edit");
+            out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+            out.println("final class " + name + " {");
+            out.println();
+            out.print(fields);
+            if (fields.length() > 0)
+                out.println();
+            out.println("    private " + name + "() { }");
+            out.print(body);
+            out.println("}");
+        }
+    }
+
+    // Emit the accessors for the annotations on one element
+    private void accessors(Element e, String prefix, List<AnnotationMirror> annotations, StringBuilder fields, StringBuilder out) {
+        // Member names found on more than one annotation of the element are qualified with the annotation's name
+        Set<String> seen = new HashSet<>(), ambiguous = new HashSet<>();
+        for (AnnotationMirror a : annotations)
+            if (containedType(a) == null)
+                for (ExecutableElement m : members(a))
+                    if (!seen.add(m.getSimpleName().toString()))
+                        ambiguous.add(m.getSimpleName().toString());
+
+        List<String> runtime = new ArrayList<>();
+        for (AnnotationMirror a : annotations) {
+            String simpleName = simpleName(a);
+            out.append('\n');
+            out.append("    // @").append(simpleName).append(" on ").append(describe(e)).append('\n');
+            out.append("    static boolean ").append(prefix).append('_').append(simpleName).append("() {\n");
+            out.append("        return true;\n");
+            out.append("    }\n");
+            if (AnnotationValueProcessor.isRuntimeAnnotation(a.getAnnotationType().asElement()))
+                runtime.add(display(a));
+
+            TypeElement contained = containedType(a);
+            if (contained != null) { // a container: accessors by index for the repeated annotations inside it
+                List<? extends AnnotationValue> items = containedValues(a);
+                String base = prefix + "_" + contained.getSimpleName();
+                out.append('\n');
+                out.append("    // ").append(items.size()).append(" repeated @").append(contained.getSimpleName()).append(" on ").append(describe(e)).append('\n');
+                out.append("    static int ").append(base).append("_count() {\n");
+                out.append("        return ").append(items.size()).append(";\n");
+                out.append("    }\n");
+                for (ExecutableElement m : ElementFilter.methodsIn(contained.getEnclosedElements())) {
+                    if (!isConstant(m.getReturnType()))
+                        continue;
+                    out.append('\n');
+                    out.append("    static ").append(m.getReturnType()).append(' ').append(base).append('_').append(m.getSimpleName()).append("(int i) {\n");
+                    out.append("        switch (i) {\n");
+                    for (int i = 0; i < items.size(); i++) {
+                        AnnotationValue v = processingEnv.getElementUtils().getElementValuesWithDefaults((AnnotationMirror) items.get(i).getValue()).get(m);
+                        out.append("            case ").append(i).append(": return ").append(value(m, base + "_" + m.getSimpleName() + "_" + i, v, fields)).append(";\n");
+                    }
+                    out.append("            default: throw new IndexOutOfBoundsException(i);\n");
+                    out.append("        }\n");
+                    out.append("    }\n");
+                }
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> v : processingEnv.getElementUtils().getElementValuesWithDefaults(a).entrySet()) {
+                ExecutableElement m = v.getKey();
+                if (!isConstant(m.getReturnType()))
+                    continue;
+                String member = m.getSimpleName().toString();
+                String accessor = prefix + "_" + (ambiguous.contains(member) ? simpleName + "_" : "") + member;
+                out.append("    static ").append(m.getReturnType()).append(' ').append(accessor).append("() {\n");
+                out.append("        return ").append(value(m, accessor, v.getValue(), fields)).append(";\n");
+                out.append("    }\n");
+            }
+        }
+
+        if (!runtime.isEmpty()) {
+            String constant = constantName(prefix + "_annotations");
+            fields.append("    private static final String[] ").append(constant).append(" = {\n");
+            for (String s : runtime)
+                fields.append("        ").append(stringLiteral(s)).append(",\n");
+            fields.append("    };\n");
+            out.append('\n');
+            out.append("    // RUNTIME annotations of ").append(describe(e)).append(", as Annotation.toString() shows them (members in declaration order)\n");
+            out.append("    static String[] ").append(prefix).append("_annotations() {\n");
+            out.append("        return ").append(constant).append(";\n");
+            out.append("    }\n");
+        }
+    }
+
+    // Expression for a member value: a literal, or for an array a constant holding it
+    private static String value(ExecutableElement m, String accessor, AnnotationValue v, StringBuilder fields) {
+        String literal = AnnotationValueProcessor.literal(v);
+        if (m.getReturnType().getKind() != TypeKind.ARRAY)
+            return literal;
+        String constant = constantName(accessor);
+        fields.append("    private static final ").append(m.getReturnType()).append(' ').append(constant).append(" = new ").append(m.getReturnType()).append(' ').append(literal).append(";\n");
+        return constant;
+    }
+
+    // Members of primitive, String, Class and enum type (and arrays of them) can be returned as constants; nested annotations can't
+    private static boolean isConstant(TypeMirror t) {
+        if (t.getKind() == TypeKind.ARRAY)
+            t = ((ArrayType) t).getComponentType();
+        return t.getKind() != TypeKind.DECLARED || ((DeclaredType) t).asElement().getKind() != ElementKind.ANNOTATION_TYPE;
+    }
+
+    // Annotations of the package on an element; type annotations (TYPE_USE only) don't belong to the declaration
+    private List<AnnotationMirror> declarationAnnotations(Element e) {
+        List<AnnotationMirror> result = new ArrayList<>();
+        for (AnnotationMirror a : e.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) a.getAnnotationType().asElement();
+            if (!type.getQualifiedName().toString().equals(AnnotationValueProcessor.PACKAGE + "." + type.getSimpleName()))
+                continue;
+            Target target = type.getAnnotation(Target.class);
+            boolean declaration = target == null;
+            if (target != null)
+                for (ElementType t : target.value())
+                    declaration |= t != ElementType.TYPE_USE && t != ElementType.TYPE_PARAMETER;
+            if (declaration)
+                result.add(a);
+        }
+        return result;
+    }
+
+    // The repeatable annotation type held by a container annotation (one whose value() is an array of annotations), or null
+    private static TypeElement containedType(AnnotationMirror a) {
+        for (ExecutableElement m : members(a)) {
+            TypeMirror t = m.getReturnType();
+            if (m.getSimpleName().contentEquals("value") && t.getKind() == TypeKind.ARRAY && ((ArrayType) t).getComponentType().getKind() == TypeKind.DECLARED) {
+                Element component = ((DeclaredType) ((ArrayType) t).getComponentType()).asElement();
+                if (component.getKind() == ElementKind.ANNOTATION_TYPE)
+                    return (TypeElement) component;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<? extends AnnotationValue> containedValues(AnnotationMirror a) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : a.getElementValues().entrySet())
+            if (e.getKey().getSimpleName().contentEquals("value"))
+                return (List<? extends AnnotationValue>) e.getValue().getValue();
+        return List.of();
+    }
+
+    private static List<ExecutableElement> members(AnnotationMirror a) {
+        return ElementFilter.methodsIn(a.getAnnotationType().asElement().getEnclosedElements());
+    }
+
+    // An annotation in the form of Annotation.toString(), e.g. @com.pbe.What(description="Annotation test class")
+    private String display(AnnotationMirror a) {
+        StringBuilder sb = new StringBuilder("@").append(((TypeElement) a.getAnnotationType().asElement()).getQualifiedName()).append('(');
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils().getElementValuesWithDefaults(a);
+        List<ExecutableElement> members = members(a);
+        for (int i = 0; i < members.size(); i++) {
+            ExecutableElement m = members.get(i);
+            if (i > 0)
+                sb.append(", ");
+            if (members.size() > 1 || !m.getSimpleName().contentEquals("value"))
+                sb.append(m.getSimpleName()).append('=');
+            sb.append(display(values.get(m)));
+        }
+        return sb.append(')').toString();
+    }
+
+    private String display(AnnotationValue v) {
+        Object value = v.getValue();
+        if (value instanceof AnnotationMirror)
+            return display((AnnotationMirror) value);
+        if (value instanceof VariableElement) // enum constant
+            return ((VariableElement) value).getSimpleName().toString();
+        if (value instanceof List) {
+            StringBuilder sb = new StringBuilder("{");
+            for (Object element : (List<?>) value)
+                sb.append(sb.length() > 1 ? ", " : "").append(display((AnnotationValue) element));
+            return sb.append('}').toString();
+        }
+        return v.toString(); // strings quoted and escaped, 0L, 1.0f, 'c' and X.class, as in Annotation.toString()
+    }
+
+    // Name of an element in its accessors
+    private static String elementName(Element e, TypeElement type) {
+        if (e == type)
+            return "class";
+        String name = e.getKind() == ElementKind.CONSTRUCTOR ? "init" : e.getSimpleName().toString();
+        if (!(e instanceof ExecutableElement))
+            return name;
+        int overloads = 0;
+        for (Element other : type.getEnclosedElements())
+            if (other.getKind() == e.getKind() && other.getSimpleName().equals(e.getSimpleName()))
+                overloads++;
+        if (overloads < 2)
+            return name;
+        StringBuilder sb = new StringBuilder(name);
+        for (VariableElement p : ((ExecutableElement) e).getParameters())
+            sb.append('_').append(simpleTypeName(p.asType()));
+        return sb.toString();
+    }
+
+    private static String simpleTypeName(TypeMirror t) {
+        if (t.getKind() == TypeKind.ARRAY)
+            return simpleTypeName(((ArrayType) t).getComponentType()) + "Array";
+        if (t.getKind() == TypeKind.DECLARED)
+            return ((DeclaredType) t).asElement().getSimpleName().toString();
+        return t.getKind().name().toLowerCase();
+    }
+
+    private static String describe(Element e) {
+        switch (e.getKind()) {
+            case METHOD: return e.getSimpleName() + "()";
+            case CONSTRUCTOR: return "the constructor";
+            case FIELD: return "field " + e.getSimpleName();
+            default: return "the class";
+        }
+    }
+
+    private static String simpleName(AnnotationMirror a) {
+        return a.getAnnotationType().asElement().getSimpleName().toString();
+    }
+
+    // e.g. MY_METHOD_ANNOTATIONS for myMethod_annotations
+    private static String constantName(String accessor) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < accessor.length(); i++) {
+            char c = accessor.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && Character.isLowerCase(accessor.charAt(i - 1)))
+                sb.append('_');
+            sb.append(Character.toUpperCase(c));
+        }
+        return sb.toString();
+    }
+
+    private static String stringLiteral(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\');
+            sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
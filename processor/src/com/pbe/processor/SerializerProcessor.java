@@ -0,0 +1,496 @@
+package com.pbe.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.RecordComponentElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// *******
+// Annotation processor that generates a BinaryCodec for every class or record in com.pbe marked with @Serialize (see Example_Serialization).
+// The codec is plain straight-line code: encode() reads the fields (or record components) in declaration order and puts them
+// into a ByteBuffer, decode() gets them back in the same order and assigns them (or passes them to the canonical constructor).
+// No field is looked up by reflection, no name or type tag is written, and no object is created besides the decoded ones.
+// Supported types: primitives and their boxes, String, enums, arrays and Lists of supported types, and other @Serialize types.
+// Fields that are static, transient or marked @NotSerialized are skipped; a field of another type is a compile error.
+// @MaxLen(num) on a String, array or List type is used as the expected length when computing the codec's size hint.
+// It also generates Codecs, which maps a class to its codec (used by Serialization at run time).
+// *******
+@SupportedAnnotationTypes("*")
+public class SerializerProcessor extends AbstractProcessor {
+
+    static final String SERIALIZE = AnnotationValueProcessor.PACKAGE + ".Serialize";
+    static final String NOT_SERIALIZED = AnnotationValueProcessor.PACKAGE + ".NotSerialized";
+
+    // Expected length of a String, array or List without @MaxLen, for the size hint
+    static final int DEFAULT_LENGTH = 16;
+
+    private final List<TypeElement> serialized = new ArrayList<>();
+    private Set<TypeElement> uses; // the @Serialize types whose codecs the codec being generated calls
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (generated || roundEnv.processingOver())
+            return false;
+        boolean inPackage = false;
+        try {
+            for (TypeElement t : ElementFilter.typesIn(roundEnv.getRootElements())) {
+                if (!t.getQualifiedName().toString().equals(AnnotationValueProcessor.PACKAGE + "." + t.getSimpleName()))
+                    continue;
+                inPackage = true;
+                collect(t);
+            }
+            if (inPackage) {
+                // Generate the codecs first, and leave out those that failed (the error is reported already),
+                // as well as those calling a codec that is left out, so an error doesn't cascade into "cannot find symbol"s
+                Map<TypeElement, String> sources = new LinkedHashMap<>();
+                Map<TypeElement, Set<TypeElement>> dependencies = new HashMap<>();
+                for (TypeElement t : serialized) {
+                    uses = new HashSet<>();
+                    String source = codecSource(t);
+                    if (source != null) {
+                        sources.put(t, source);
+                        dependencies.put(t, uses);
+                    }
+                }
+                while (sources.keySet().removeIf(t -> !sources.keySet().containsAll(dependencies.get(t))))
+                    ;
+                serialized.retainAll(sources.keySet());
+                for (Map.Entry<TypeElement, String> e : sources.entrySet())
+                    try (Writer out = processingEnv.getFiler().createSourceFile(AnnotationValueProcessor.PACKAGE + "." + codecName(e.getKey()), e.getKey()).openWriter()) {
+                        out.write(e.getValue());
+                    }
+                writeFactory();
+                generated = true;
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate codecs: " + e.getMessage());
+        }
+        return false;
+    }
+
+    // Find the @Serialize types, including nested ones
+    private void collect(TypeElement t) {
+        if (isSerializable(t) && check(t))
+            serialized.add(t);
+        for (TypeElement nested : ElementFilter.typesIn(t.getEnclosedElements()))
+            collect(nested);
+    }
+
+    // Report why a @Serialize type can't get a codec; the codec is generated in the same package, without reflection
+    private boolean check(TypeElement t) {
+        String problem = null;
+        if (!t.getTypeParameters().isEmpty())
+            problem = "A generic type can't be serialized";
+        else if (t.getModifiers().contains(Modifier.ABSTRACT) || t.getKind() != ElementKind.CLASS && t.getKind() != ElementKind.RECORD)
+            problem = "Only concrete classes and records can be serialized";
+        else if (t.getNestingKind() == NestingKind.MEMBER && !t.getModifiers().contains(Modifier.STATIC) && t.getKind() != ElementKind.RECORD)
+            problem = "An inner class can't be serialized, make it static";
+        else if (t.getModifiers().contains(Modifier.PRIVATE))
+            problem = "A private class can't be serialized";
+        else if (t.getKind() == ElementKind.CLASS && !hasNoArgConstructor(t))
+            problem = "A serialized class needs a non-private constructor without parameters";
+        if (problem != null)
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, problem, t);
+        return problem == null;
+    }
+
+    private static boolean hasNoArgConstructor(TypeElement t) {
+        for (ExecutableElement c : ElementFilter.constructorsIn(t.getEnclosedElements()))
+            if (c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE))
+                return true;
+        return false;
+    }
+
+    // A serialized value: a field of a class, or a component of a record
+    private record Property(Element element, String name, TypeMirror type, String read) { }
+
+    private List<Property> properties(TypeElement t) {
+        List<Property> properties = new ArrayList<>();
+        if (t.getKind() == ElementKind.RECORD) {
+            for (RecordComponentElement c : ElementFilter.recordComponentsIn(t.getEnclosedElements()))
+                properties.add(new Property(c, c.getSimpleName().toString(), c.asType(), "o." + c.getSimpleName() + "()"));
+            return properties;
+        }
+        for (VariableElement f : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+            Set<Modifier> modifiers = f.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT) || hasAnnotation(f.getAnnotationMirrors(), NOT_SERIALIZED))
+                continue;
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "A serialized field can't be private or final; mark it @NotSerialized to skip it", f);
+                continue;
+            }
+            properties.add(new Property(f, f.getSimpleName().toString(), f.asType(), "o." + f.getSimpleName()));
+        }
+        return properties;
+    }
+
+    // Source of the codec of a type; null if one of its fields can't be serialized, which is reported
+    private String codecSource(TypeElement type) {
+        String typeName = type.getQualifiedName().toString().substring(AnnotationValueProcessor.PACKAGE.length() + 1);
+        String name = codecName(type);
+        List<Property> properties = properties(type);
+        Map<String, String> enumValues = new LinkedHashMap<>(); // enum type -> constant holding its values()
+        StringBuilder encode = new StringBuilder(), decode = new StringBuilder();
+        int sizeHint = 0;
+        for (int i = 0; i < properties.size(); i++) {
+            Property p = properties.get(i);
+            encode.append("        // ").append(p.name()).append('\n');
+            decode.append("        // ").append(p.name()).append('\n');
+            if (!write(p.type(), p.read(), 0, "        ", encode) || !read(p.type(), "p" + i, "        ", decode, enumValues)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Type " + typeName(p.type()) + " can't be serialized; mark the field @NotSerialized to skip it", p.element());
+                return null;
+            }
+            sizeHint += sizeHint(p.type(), new HashSet<>());
+        }
+
+        StringWriter source = new StringWriter();
+        try (PrintWriter out = new PrintWriter(source)) {
+            out.println("package " + AnnotationValueProcessor.PACKAGE + ";");
+            out.println();
+            out.println("import java.nio.ByteBuffer;");
+            out.println();
+            out.println("// Generated by " + getClass().getSimpleName() + " from the fields of " + type.getQualifiedName() + " - do not edit");
+            out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+            out.println("final class " + name + " implements BinaryCodec<" + typeName + "> {");
+            out.println();
+            out.println("    static final " + name + " INSTANCE = new " + name + "();");
+            for (Map.Entry<String, String> e : enumValues.entrySet())
+                out.println("    private static final " + e.getKey() + "[] " + e.getValue() + " = " + e.getKey() + ".values(); // values() returns a new array on every call");
+            out.println();
+            out.println("    @Override");
+            out.println("    public int sizeHint() {");
+            out.println("        return " + sizeHint + ";");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void encode(" + typeName + " o, ByteBuffer out) {");
+            out.print(encode);
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public " + typeName + " decode(ByteBuffer in) {");
+            out.print(decode);
+            if (type.getKind() == ElementKind.RECORD) {
+                StringBuilder args = new StringBuilder();
+                for (int i = 0; i < properties.size(); i++)
+                    args.append(i > 0 ? ", p" : "p").append(i);
+                out.println("        return new " + typeName + "(" + args + ");");
+            } else {
+                out.println("        " + typeName + " o = new " + typeName + "();");
+                for (int i = 0; i < properties.size(); i++)
+                    out.println("        o." + properties.get(i).name() + " = p" + i + ";");
+                out.println("        return o;");
+            }
+            out.println("    }");
+            out.println("}");
+        }
+        return source.toString();
+    }
+
+    // Emit the statements writing value (an expression without side effects) of type t to out; false if t isn't supported
+    private boolean write(TypeMirror t, String value, int depth, String indent, StringBuilder out) {
+        if (t.getKind().isPrimitive()) {
+            out.append(indent).append(put(t.getKind(), value)).append('\n');
+            return true;
+        }
+        String v = "v" + depth;
+        if (t.getKind() == TypeKind.ARRAY || isList(t)) {
+            TypeMirror element = elementType(t);
+            out.append(indent).append("{\n");
+            out.append(indent).append("    var ").append(v).append(" = ").append(value).append(";\n");
+            out.append(indent).append("    if (").append(v).append(" == null) {\n");
+            out.append(indent).append("        out.putInt(-1);\n");
+            out.append(indent).append("    } else {\n");
+            out.append(indent).append("        out.putInt(").append(v).append(t.getKind() == TypeKind.ARRAY ? ".length" : ".size()").append(");\n");
+            if (element.getKind() == TypeKind.BYTE) {
+                out.append(indent).append("        out.put(").append(v).append(");\n");
+            } else {
+                String e = "e" + depth;
+                out.append(indent).append("        for (var ").append(e).append(" : ").append(v).append(")\n");
+                StringBuilder body = new StringBuilder();
+                if (!write(element, e, depth + 1, indent + "            ", body))
+                    return false;
+                out.append(body);
+            }
+            out.append(indent).append("    }\n");
+            out.append(indent).append("}\n");
+            return true;
+        }
+        if (t.getKind() != TypeKind.DECLARED)
+            return false;
+        TypeElement element = (TypeElement) ((DeclaredType) t).asElement();
+        if (isA(t, "java.lang.String")) {
+            out.append(indent).append("Serialization.putString(out, ").append(value).append(");\n");
+        } else if (element.getKind() == ElementKind.ENUM) {
+            out.append(indent).append("{ var ").append(v).append(" = ").append(value).append("; out.putInt(").append(v).append(" == null ? -1 : ").append(v).append(".ordinal()); }\n");
+        } else if (unboxed(t) != null) {
+            out.append(indent).append("{ var ").append(v).append(" = ").append(value).append("; if (").append(v).append(" == null) out.put((byte) 0); else { out.put((byte) 1); ")
+                    .append(put(unboxed(t).getKind(), v)).append(" } }\n");
+        } else if (isSerializable(element)) {
+            uses.add(element);
+            out.append(indent).append("{ var ").append(v).append(" = ").append(value).append("; if (").append(v).append(" == null) out.put((byte) 0); else { out.put((byte) 1); ")
+                    .append(codecName(element)).append(".INSTANCE.encode(").append(v).append(", out); } }\n");
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    // Emit the statements declaring variable var and reading a value of type t into it; false if t isn't supported
+    // The other variables declared are named after var, so they are distinct within decode()
+    private boolean read(TypeMirror t, String var, String indent, StringBuilder out, Map<String, String> enumValues) {
+        if (!t.getKind().isPrimitive() && t.getKind() != TypeKind.ARRAY && t.getKind() != TypeKind.DECLARED)
+            return false; // e.g. a wildcard or type variable as type argument of a List
+        String typeName = typeName(t);
+        if (t.getKind().isPrimitive()) {
+            out.append(indent).append(typeName).append(' ').append(var).append(" = ").append(get(t.getKind())).append(";\n");
+            return true;
+        }
+        if (t.getKind() == TypeKind.ARRAY || isList(t)) {
+            TypeMirror element = elementType(t);
+            String n = var + "n", i = var + "i", e = var + "e"; // e.g. p3n, the length of property 3
+            out.append(indent).append("int ").append(n).append(" = Serialization.getLength(in);\n");
+            if (t.getKind() == TypeKind.ARRAY)
+                out.append(indent).append(typeName).append(' ').append(var).append(" = ").append(n).append(" < 0 ? null : ").append(newArray(t, n)).append(";\n");
+            else
+                out.append(indent).append(typeName).append(' ').append(var).append(" = ").append(n).append(" < 0 ? null : new java.util.ArrayList<>(").append(n).append(");\n");
+            if (element.getKind() == TypeKind.BYTE) {
+                out.append(indent).append("if (").append(var).append(" != null)\n");
+                out.append(indent).append("    in.get(").append(var).append(");\n");
+                return true;
+            }
+            out.append(indent).append("for (int ").append(i).append(" = 0; ").append(i).append(" < ").append(n).append("; ").append(i).append("++) {\n");
+            if (!read(element, e, indent + "    ", out, enumValues))
+                return false;
+            out.append(indent).append("    ").append(var).append(t.getKind() == TypeKind.ARRAY ? "[" + i + "] = " + e : ".add(" + e + ")").append(";\n");
+            out.append(indent).append("}\n");
+            return true;
+        }
+        if (t.getKind() != TypeKind.DECLARED)
+            return false;
+        TypeElement element = (TypeElement) ((DeclaredType) t).asElement();
+        if (isA(t, "java.lang.String")) {
+            out.append(indent).append("String ").append(var).append(" = Serialization.getString(in);\n");
+        } else if (element.getKind() == ElementKind.ENUM) {
+            // Named after the flattened name of the enum, as the codecs are, so two enums with the same simple name get distinct constants
+            String values = enumValues.computeIfAbsent(typeName, k -> (k.startsWith(AnnotationValueProcessor.PACKAGE + ".") ? k.substring(AnnotationValueProcessor.PACKAGE.length() + 1) : k)
+                    .replace('.', '_').toUpperCase() + "_VALUES");
+            out.append(indent).append(typeName).append(' ').append(var).append(" = Serialization.getEnum(in, ").append(values).append(");\n");
+        } else if (unboxed(t) != null) {
+            out.append(indent).append(typeName).append(' ').append(var).append(" = in.get() == 0 ? null : ").append(get(unboxed(t).getKind())).append(";\n");
+        } else if (isSerializable(element)) {
+            uses.add(element);
+            out.append(indent).append(typeName).append(' ').append(var).append(" = in.get() == 0 ? null : ").append(codecName(element)).append(".INSTANCE.decode(in);\n");
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    // Expected encoded size of a value of type t; types in progress guards against recursive types
+    private int sizeHint(TypeMirror t, Set<String> inProgress) {
+        if (t.getKind().isPrimitive())
+            return primitiveSize(t.getKind());
+        if (t.getKind() == TypeKind.ARRAY || isList(t))
+            return 4 + maxLen(t) * sizeHint(elementType(t), inProgress);
+        if (t.getKind() != TypeKind.DECLARED)
+            return 1; // can't be serialized, which the codec of the type that declares it reports
+        TypeElement element = (TypeElement) ((DeclaredType) t).asElement();
+        if (isA(t, "java.lang.String"))
+            return 4 + maxLen(t); // one byte per character, as for ASCII text
+        if (element.getKind() == ElementKind.ENUM)
+            return 4;
+        if (unboxed(t) != null)
+            return 1 + primitiveSize(unboxed(t).getKind());
+        String name = element.getQualifiedName().toString();
+        if (!inProgress.add(name))
+            return 1;
+        int size = 1;
+        for (Property p : properties(element))
+            size += sizeHint(p.type(), inProgress);
+        inProgress.remove(name);
+        return size;
+    }
+
+    // Expected length of a String, array or List: @MaxLen(num) if it carries one
+    private static int maxLen(TypeMirror t) {
+        for (AnnotationMirror a : t.getAnnotationMirrors())
+            if (annotationName(a).equals(ValidatorProcessor.MAX_LEN))
+                for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : a.getElementValues().entrySet())
+                    if (e.getKey().getSimpleName().contentEquals("num"))
+                        return (Integer) e.getValue().getValue();
+        return DEFAULT_LENGTH;
+    }
+
+    private static int primitiveSize(TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN: case BYTE: return 1;
+            case SHORT: case CHAR: return 2;
+            case INT: case FLOAT: return 4;
+            default: return 8;
+        }
+    }
+
+    private static String put(TypeKind kind, String value) {
+        switch (kind) {
+            case BOOLEAN: return "out.put((byte) (" + value + " ? 1 : 0));";
+            case BYTE: return "out.put(" + value + ");";
+            case SHORT: return "out.putShort(" + value + ");";
+            case CHAR: return "out.putChar(" + value + ");";
+            case INT: return "out.putInt(" + value + ");";
+            case LONG: return "out.putLong(" + value + ");";
+            case FLOAT: return "out.putFloat(" + value + ");";
+            default: return "out.putDouble(" + value + ");";
+        }
+    }
+
+    private static String get(TypeKind kind) {
+        switch (kind) {
+            case BOOLEAN: return "in.get() != 0";
+            case BYTE: return "in.get()";
+            case SHORT: return "in.getShort()";
+            case CHAR: return "in.getChar()";
+            case INT: return "in.getInt()";
+            case LONG: return "in.getLong()";
+            case FLOAT: return "in.getFloat()";
+            default: return "in.getDouble()";
+        }
+    }
+
+    // Primitive type of a box (e.g. int for Integer), or null
+    private PrimitiveType unboxed(TypeMirror t) {
+        try {
+            return processingEnv.getTypeUtils().unboxedType(t);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private boolean isList(TypeMirror t) {
+        return t.getKind() == TypeKind.DECLARED && ((DeclaredType) t).getTypeArguments().size() == 1
+                && processingEnv.getTypeUtils().isSameType(processingEnv.getTypeUtils().erasure(t), processingEnv.getTypeUtils().erasure(processingEnv.getElementUtils().getTypeElement("java.util.List").asType()));
+    }
+
+    private static TypeMirror elementType(TypeMirror t) {
+        return t.getKind() == TypeKind.ARRAY ? ((ArrayType) t).getComponentType() : ((DeclaredType) t).getTypeArguments().get(0);
+    }
+
+    // Source name of a type, without its type annotations (TypeMirror.toString() includes them)
+    private static String typeName(TypeMirror t) {
+        if (t.getKind().isPrimitive())
+            return t.getKind().name().toLowerCase();
+        if (t.getKind() == TypeKind.ARRAY)
+            return typeName(((ArrayType) t).getComponentType()) + "[]";
+        if (t.getKind() == TypeKind.WILDCARD) {
+            WildcardType w = (WildcardType) t;
+            return w.getExtendsBound() != null ? "? extends " + typeName(w.getExtendsBound())
+                    : w.getSuperBound() != null ? "? super " + typeName(w.getSuperBound()) : "?";
+        }
+        if (t.getKind() != TypeKind.DECLARED)
+            return t.toString(); // a type variable, or an erroneous type
+        DeclaredType d = (DeclaredType) t;
+        String name = ((TypeElement) d.asElement()).getQualifiedName().toString();
+        if (d.getTypeArguments().isEmpty())
+            return name;
+        StringBuilder sb = new StringBuilder(name).append('<');
+        for (int i = 0; i < d.getTypeArguments().size(); i++)
+            sb.append(i > 0 ? ", " : "").append(typeName(d.getTypeArguments().get(i)));
+        return sb.append('>').toString();
+    }
+
+    // Array creation expression with length n, e.g. new String[n][] for String[][]
+    private static String newArray(TypeMirror t, String n) {
+        int dimensions = 0;
+        while (t.getKind() == TypeKind.ARRAY) {
+            t = ((ArrayType) t).getComponentType();
+            dimensions++;
+        }
+        return "new " + (t.getKind() == TypeKind.DECLARED ? ((TypeElement) ((DeclaredType) t).asElement()).getQualifiedName() : typeName(t))
+                + "[" + n + "]" + "[]".repeat(dimensions - 1);
+    }
+
+    // Name of the generated codec, e.g. Example_Serialization_TradeCodec for the nested class Example_Serialization.Trade
+    private static String codecName(TypeElement t) {
+        return t.getQualifiedName().toString().substring(AnnotationValueProcessor.PACKAGE.length() + 1).replace('.', '_') + "Codec";
+    }
+
+    private static boolean isSerializable(TypeElement t) {
+        return hasAnnotation(t.getAnnotationMirrors(), SERIALIZE) && t.getQualifiedName().toString().startsWith(AnnotationValueProcessor.PACKAGE + ".");
+    }
+
+    private boolean isA(TypeMirror t, String typeName) {
+        Types types = processingEnv.getTypeUtils();
+        TypeElement target = processingEnv.getElementUtils().getTypeElement(typeName);
+        return target != null && types.isSameType(types.erasure(t), types.erasure(target.asType()));
+    }
+
+    private static boolean hasAnnotation(List<? extends AnnotationMirror> annotations, String name) {
+        for (AnnotationMirror a : annotations)
+            if (annotationName(a).equals(name))
+                return true;
+        return false;
+    }
+
+    private static String annotationName(AnnotationMirror a) {
+        return ((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    // Generate Codecs, which maps a class to its generated codec
+    private void writeFactory() throws IOException {
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(AnnotationValueProcessor.PACKAGE + ".Codecs", serialized.toArray(new TypeElement[0])).openWriter())) {
+            out.println("package " + AnnotationValueProcessor.PACKAGE + ";");
+            out.println();
+            out.println("// Generated by " + getClass().getSimpleName() + " - do not edit");
+            out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+            out.println("final class Codecs {");
+            out.println();
+            out.println("    private Codecs() { }");
+            out.println();
+            out.println("    // Return the generated codec of a class, or null if it isn't marked @Serialize");
+            out.println("    static BinaryCodec<?> of(Class<?> type) {");
+            for (TypeElement t : serialized) {
+                out.println("        if (type == " + t.getQualifiedName().toString().substring(AnnotationValueProcessor.PACKAGE.length() + 1) + ".class)");
+                out.println("            return " + codecName(t) + ".INSTANCE;");
+            }
+            out.println("        return null;");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.pbe.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// *******
+// Annotation processor that generates a Validator for every class in com.pbe with fields carrying the constraint annotations
+// of Example_TypeAnnotations (@NotZeroLen, @MaxLen, @Unique as type annotations, @EmptyOK on the field).
+// The constraints are read from the field types at compile time, so the generated validator is plain straight-line code:
+// it reads the fields directly, and only loops where a constraint applies to the elements of an array, collection or map.
+// E.g. for String @MaxLen(num=99) [] @NotZeroLen [] w it generates a length check on w, and a loop checking each String[] in w.
+// For batches, the validator checks one constraint at a time over all objects of the batch, and records violations in a BatchViolations bitset.
+// It also generates Validators, which maps a class to its validator (used by Validation at run time).
+// Only top-level classes are handled, and only their non-private fields (the validator lives in the same package).
+// *******
+@SupportedAnnotationTypes("*")
+public class ValidatorProcessor extends AbstractProcessor {
+
+    static final String NOT_ZERO_LEN = AnnotationValueProcessor.PACKAGE + ".NotZeroLen";
+    static final String MAX_LEN = AnnotationValueProcessor.PACKAGE + ".MaxLen";
+    static final String UNIQUE = AnnotationValueProcessor.PACKAGE + ".Unique";
+    static final String EMPTY_OK = AnnotationValueProcessor.PACKAGE + ".EmptyOK";
+
+    private final List<TypeElement> validated = new ArrayList<>();
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (generated || roundEnv.processingOver())
+            return false;
+        boolean inPackage = false;
+        try {
+            for (TypeElement t : ElementFilter.typesIn(roundEnv.getRootElements())) {
+                if (!isInPackage(t))
+                    continue;
+                inPackage = true;
+                if (t.getNestingKind() == NestingKind.TOP_LEVEL && t.getKind().isClass() && writeValidator(t))
+                    validated.add(t);
+            }
+            if (inPackage) {
+                writeFactory();
+                generated = true;
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not generate validators: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private static boolean isInPackage(TypeElement t) {
+        return t.getQualifiedName().toString().equals(AnnotationValueProcessor.PACKAGE + "." + t.getSimpleName());
+    }
+
+    // Generate the validator of a class; return false if none of its fields carries a constraint
+    private boolean writeValidator(TypeElement type) throws IOException {
+        StringBuilder body = new StringBuilder();
+        List<Constraint> constraints = new ArrayList<>();
+        for (VariableElement f : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (f.getModifiers().contains(Modifier.STATIC) || !hasConstraints(f.asType()))
+                continue;
+            if (f.getModifiers().contains(Modifier.PRIVATE)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Constraints on private field are not validated", f);
+                continue;
+            }
+            String name = f.getSimpleName().toString();
+            body.append("        {\n");
+            body.append("            var v0 = o.").append(name).append(";\n");
+            String indent = "            ";
+            if (hasAnnotation(f.getAnnotationMirrors(), EMPTY_OK) && lengthOf(f.asType(), "v0") != null) { // @EmptyOK: skip the checks for an empty value
+                body.append(indent).append("if (v0 != null && ").append(lengthOf(f.asType(), "v0")).append(" > 0) {\n");
+                indent += "    ";
+            }
+            checks(f.asType(), "v0", name, 0, indent, body);
+            collectConstraints(f, f.asType(), List.of(), name, constraints);
+            if (indent.length() > 12)
+                body.append("            }\n");
+            body.append("        }\n");
+        }
+        if (body.length() == 0)
+            return false;
+
+        String typeName = type.getSimpleName() + (type.getTypeParameters().isEmpty() ? "" : wildcards(type.getTypeParameters().size()));
+        String name = type.getSimpleName() + "Validator";
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(AnnotationValueProcessor.PACKAGE + "." + name, type).openWriter())) {
+            out.println("package " + AnnotationValueProcessor.PACKAGE + ";");
+            out.println();
+            out.println("// Generated by " + getClass().getSimpleName() + " from the field constraints of " + type.getQualifiedName() + " - do not edit");
+            out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+            out.println("final class " + name + " implements Validator<" + typeName + "> {");
+            out.println();
+            out.println("    static final " + name + " INSTANCE = new " + name + "();");
+            out.println();
+            out.println("    @Override");
+            out.println("    public int validate(" + typeName + " o, Sink sink) {");
+            out.println("        int violations = 0;");
+            out.print(body);
+            out.println("        return violations;");
+            out.println("    }");
+            out.println();
+            out.println("    private static final String[] CONSTRAINTS = {");
+            for (Constraint c : constraints)
+                out.println("        \"" + c.path() + ": " + label(c.annotation()) + "\",");
+            out.println("    };");
+            out.println();
+            out.println("    @Override");
+            out.println("    public int constraintCount() {");
+            out.println("        return CONSTRAINTS.length;");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String constraint(int index) {");
+            out.println("        return CONSTRAINTS[index];");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void validateBatch(Object[] batch, int count, BatchViolations out) {");
+            StringBuilder loops = new StringBuilder();
+            for (int i = 0; i < constraints.size(); i++)
+                batchLoop(typeName, i, constraints.get(i), loops);
+            out.print(loops);
+            out.println("    }");
+            out.println("}");
+        }
+        return true;
+    }
+
+    // Emit the checks for a value of type t, held in local variable var; path names the value in violation reports
+    private void checks(TypeMirror t, String var, String path, int depth, String indent, StringBuilder out) {
+        boolean elements = elementType(t) != null && hasConstraints(elementType(t));
+        List<String> own = new ArrayList<>();
+        for (AnnotationMirror a : t.getAnnotationMirrors()) {
+            String condition = condition(a, t, var);
+            if (condition != null)
+                own.add("if (" + condition + ") { violations++; sink.violation(\"" + path + "\", \"" + label(a) + "\"); }");
+        }
+        if (own.isEmpty() && !elements)
+            return;
+
+        boolean nullable = !t.getKind().isPrimitive();
+        String inner = nullable ? indent + "    " : indent;
+        if (nullable)
+            out.append(indent).append("if (").append(var).append(" != null) {\n");
+        for (String check : own)
+            out.append(inner).append(check).append('\n');
+        if (elements) {
+            String element = "v" + (depth + 1);
+            out.append(inner).append("for (var ").append(element).append(" : ").append(elementSource(t, var)).append(") {\n");
+            checks(elementType(t), element, path + "[]", depth + 1, inner + "    ", out);
+            out.append(inner).append("}\n");
+        }
+        if (nullable)
+            out.append(indent).append("}\n");
+    }
+
+    // Condition under which a (non null) value of type t, held in var, violates constraint annotation a; null if a isn't a constraint for t
+    private String condition(AnnotationMirror a, TypeMirror t, String var) {
+        String type = annotationName(a);
+        String length = lengthOf(t, var);
+        if (type.equals(NOT_ZERO_LEN) && length != null)
+            return length + " == 0";
+        if (type.equals(MAX_LEN) && length != null)
+            return length + " > " + member(a, "num");
+        if (type.equals(UNIQUE) && (t.getKind() == TypeKind.ARRAY && !((ArrayType) t).getComponentType().getKind().isPrimitive() || isA(t, "java.util.Collection")))
+            return "Validation.hasDuplicates(" + var + ")";
+        return null;
+    }
+
+    // Constraint as reported, e.g. "MaxLen(num=99)"
+    private static String label(AnnotationMirror a) {
+        String type = annotationName(a);
+        String simpleName = type.substring(type.lastIndexOf('.') + 1);
+        return type.equals(MAX_LEN) ? simpleName + "(num=" + member(a, "num") + ")" : simpleName;
+    }
+
+    // Expression iterating over the checked elements of a container
+    private String elementSource(TypeMirror t, String var) {
+        return isA(t, "java.util.Map") ? var + ".values()" : var;
+    }
+
+    // A single constraint found in the type of a field, for the batch validation
+    // containers are the types enclosing the constrained type, from the field's type inwards (empty if the constraint is on the field's own type)
+    private record Constraint(VariableElement field, List<TypeMirror> containers, TypeMirror type, AnnotationMirror annotation, String path) { }
+
+    private void collectConstraints(VariableElement field, TypeMirror t, List<TypeMirror> containers, String path, List<Constraint> out) {
+        for (AnnotationMirror a : t.getAnnotationMirrors())
+            if (condition(a, t, "v") != null)
+                out.add(new Constraint(field, containers, t, a, path));
+        TypeMirror element = elementType(t);
+        if (element != null) {
+            List<TypeMirror> nested = new ArrayList<>(containers);
+            nested.add(t);
+            collectConstraints(field, element, nested, path + "[]", out);
+        }
+    }
+
+    // Emit a loop over the batch for one constraint: the "columnar" form, where one constraint is checked for all objects before the next one
+    private void batchLoop(String typeName, int index, Constraint c, StringBuilder out) {
+        String field = c.field().getSimpleName().toString();
+        int depth = c.containers().size();
+        out.append("        // ").append(c.path()).append(": ").append(label(c.annotation())).append('\n');
+        out.append("        for (int i = 0; i < count; i++) {\n");
+        out.append("            var v0 = ((").append(typeName).append(") batch[i]).").append(field).append(";\n");
+        TypeMirror fieldType = c.field().asType();
+        if (hasAnnotation(c.field().getAnnotationMirrors(), EMPTY_OK) && lengthOf(fieldType, "v0") != null)
+            out.append("            if (v0 == null || ").append(lengthOf(fieldType, "v0")).append(" == 0) continue; // @EmptyOK\n");
+        String condition = condition(c.annotation(), c.type(), "v" + depth);
+        if (!c.type().getKind().isPrimitive())
+            condition = "v" + depth + " != null && " + condition;
+        String check = "if (" + condition + ") { out.set(i, " + index + ");" + (depth > 0 ? " break scan;" : "") + " }";
+        if (depth == 0) {
+            out.append("            ").append(check).append('\n');
+        } else {
+            // Stop looking at the elements of an object once one of them violates the constraint
+            out.append("            scan:\n");
+            String indent = "            ";
+            for (int d = 0; d < depth; d++) {
+                out.append(indent).append("if (v").append(d).append(" != null)\n");
+                indent += "    ";
+                out.append(indent).append("for (var v").append(d + 1).append(" : ").append(elementSource(c.containers().get(d), "v" + d)).append(")\n");
+                indent += "    ";
+            }
+            out.append(indent).append(check).append('\n');
+        }
+        out.append("        }\n");
+    }
+
+    // Does a type, or any type nested in it, carry a constraint?
+    private boolean hasConstraints(TypeMirror t) {
+        for (AnnotationMirror a : t.getAnnotationMirrors()) {
+            String name = annotationName(a);
+            if (name.equals(NOT_ZERO_LEN) || name.equals(MAX_LEN) || name.equals(UNIQUE))
+                return true;
+        }
+        TypeMirror element = elementType(t);
+        return element != null && hasConstraints(element);
+    }
+
+    // Type of the elements that are checked for a container: array components, collection elements or map values
+    private TypeMirror elementType(TypeMirror t) {
+        if (t.getKind() == TypeKind.ARRAY)
+            return ((ArrayType) t).getComponentType();
+        if (t.getKind() != TypeKind.DECLARED)
+            return null;
+        List<? extends TypeMirror> args = ((DeclaredType) t).getTypeArguments();
+        if (isA(t, "java.util.Map") && args.size() == 2)
+            return args.get(1);
+        if (isA(t, "java.lang.Iterable") && args.size() == 1)
+            return args.get(0);
+        return null;
+    }
+
+    // Expression for the length of a value, or null if the type has no length
+    private String lengthOf(TypeMirror t, String var) {
+        if (t.getKind() == TypeKind.ARRAY)
+            return var + ".length";
+        if (isA(t, "java.lang.CharSequence"))
+            return var + ".length()";
+        if (isA(t, "java.util.Collection") || isA(t, "java.util.Map"))
+            return var + ".size()";
+        return null;
+    }
+
+    private boolean isA(TypeMirror t, String typeName) {
+        if (t.getKind() != TypeKind.DECLARED)
+            return false;
+        Types types = processingEnv.getTypeUtils();
+        TypeElement target = processingEnv.getElementUtils().getTypeElement(typeName);
+        return target != null && types.isAssignable(types.erasure(t), types.erasure(target.asType()));
+    }
+
+    private static boolean hasAnnotation(List<? extends AnnotationMirror> annotations, String name) {
+        for (AnnotationMirror a : annotations)
+            if (annotationName(a).equals(name))
+                return true;
+        return false;
+    }
+
+    private static String annotationName(AnnotationMirror a) {
+        return ((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    private static Object member(AnnotationMirror a, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : a.getElementValues().entrySet())
+            if (e.getKey().getSimpleName().contentEquals(name))
+                return e.getValue().getValue();
+        return null;
+    }
+
+    private static String wildcards(int n) {
+        StringBuilder sb = new StringBuilder("<");
+        for (int i = 0; i < n; i++)
+            sb.append(i > 0 ? ", ?" : "?");
+        return sb.append('>').toString();
+    }
+
+    // Generate Validators, which maps a class to its generated validator
+    private void writeFactory() throws IOException {
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(AnnotationValueProcessor.PACKAGE + ".Validators", validated.toArray(new TypeElement[0])).openWriter())) {
+            out.println("package " + AnnotationValueProcessor.PACKAGE + ";");
+            out.println();
+            out.println("// Generated by " + getClass().getSimpleName() + " - do not edit");
+            out.println("@javax.annotation.processing.Generated(\"" + getClass().getName() + "\")");
+            out.println("final class Validators {");
+            out.println();
+            out.println("    private Validators() { }");
+            out.println();
+            out.println("    // Return the generated validator of a class, or null if it has no constrained fields");
+            out.println("    static Validator<?> of(Class<?> type) {");
+            for (TypeElement t : validated) {
+                out.println("        if (type == " + t.getSimpleName() + ".class)");
+                out.println("            return " + t.getSimpleName() + "Validator.INSTANCE;");
+            }
+            out.println("        return null;");
+            out.println("    }");
+            out.println("}");
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.pbe;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// *******
+// Dispatcher for methods tagged with @myMarker or @MySingle(value).
+// Calling a tagged method through Method.invoke() boxes primitive arguments, packs them into a varargs array and checks access on every call.
+// The dispatcher finds the tagged methods once and binds them:
+// - methods without parameters are turned into a Runnable with LambdaMetafactory, so calling them costs about as much as a direct call
+// - every tagged method is also available as a MethodHandle, for methods with parameters (call it with invokeExact and the exact signature)
+// Methods tagged with @MySingle are routed by their int value, through an open-addressing table with int keys (so the key is never boxed).
+// Instance methods are bound to the target object given when the dispatcher is created; without a target, only static methods are bound.
+// *******
+final class AnnotatedMethodDispatcher {
+
+    private final Runnable[] marked; // @myMarker methods without parameters
+    private final MethodHandle[] markedHandles; // all @myMarker methods
+
+    // Open-addressing table for @MySingle(value) methods, with linear probing; the capacity is a power of two
+    private final int[] keys;
+    private final boolean[] used;
+    private final Runnable[] runnables; // null for methods with parameters
+    private final MethodHandle[] handles;
+    private final int mask;
+
+    private AnnotatedMethodDispatcher(List<Runnable> marked, List<MethodHandle> markedHandles, int[] singleKeys, Runnable[] singleRunnables, MethodHandle[] singleHandles) {
+        this.marked = marked.toArray(new Runnable[0]);
+        this.markedHandles = markedHandles.toArray(new MethodHandle[0]);
+
+        int capacity = Integer.highestOneBit(Math.max(2, singleKeys.length * 2) - 1) << 1; // at most half full
+        this.keys = new int[capacity];
+        this.used = new boolean[capacity];
+        this.runnables = new Runnable[capacity];
+        this.handles = new MethodHandle[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < singleKeys.length; i++) {
+            int slot = slot(singleKeys[i]);
+            if (used[slot])
+                throw new IllegalStateException("More than one method tagged with @MySingle(" + singleKeys[i] + ")");
+            used[slot] = true;
+            keys[slot] = singleKeys[i];
+            runnables[slot] = singleRunnables[i];
+            handles[slot] = singleHandles[i];
+        }
+    }
+
+    // Find and bind the tagged methods declared by a class
+    // lookup must have access to the class (e.g. MethodHandles.lookup() from within the same package)
+    // target is the object to bind instance methods to, or null to bind static methods only
+    static AnnotatedMethodDispatcher of(MethodHandles.Lookup lookup, Class<?> c, Object target) {
+        List<Runnable> marked = new ArrayList<>();
+        List<MethodHandle> markedHandles = new ArrayList<>();
+        int[] singleKeys = new int[8];
+        Runnable[] singleRunnables = new Runnable[8];
+        MethodHandle[] singleHandles = new MethodHandle[8];
+        int singles = 0;
+
+        try {
+            for (Method m : c.getDeclaredMethods()) {
+                myMarker marker = m.getAnnotation(myMarker.class);
+                MySingle single = m.getAnnotation(MySingle.class);
+                if (marker == null && single == null)
+                    continue;
+                boolean isStatic = Modifier.isStatic(m.getModifiers());
+                if (!isStatic && target == null)
+                    continue;
+
+                MethodHandle handle = lookup.unreflect(m);
+                Runnable runnable = m.getParameterCount() == 0 ? bindRunnable(lookup, handle, isStatic ? null : target) : null;
+                if (!isStatic)
+                    handle = handle.bindTo(target);
+
+                if (marker != null) {
+                    markedHandles.add(handle);
+                    if (runnable != null)
+                        marked.add(runnable);
+                }
+                if (single != null) {
+                    if (singles == singleKeys.length) {
+                        singleKeys = Arrays.copyOf(singleKeys, singles * 2);
+                        singleRunnables = Arrays.copyOf(singleRunnables, singles * 2);
+                        singleHandles = Arrays.copyOf(singleHandles, singles * 2);
+                    }
+                    singleKeys[singles] = single.value();
+                    singleRunnables[singles] = runnable;
+                    singleHandles[singles] = handle;
+                    singles++;
+                }
+            }
+        } catch (Throwable e) { // unreflect() and the bootstrap of LambdaMetafactory
+            throw new IllegalStateException("Could not bind the tagged methods of " + c.getName(), e);
+        }
+        return new AnnotatedMethodDispatcher(marked, markedHandles, Arrays.copyOf(singleKeys, singles),
+                Arrays.copyOf(singleRunnables, singles), Arrays.copyOf(singleHandles, singles));
+    }
+
+    // Spin a Runnable that calls the method directly; for an instance method, the Runnable captures the target
+    // The return value of the method, if any, is dropped
+    private static Runnable bindRunnable(MethodHandles.Lookup lookup, MethodHandle handle, Object target) throws Throwable {
+        MethodType factoryType = target == null ? MethodType.methodType(Runnable.class) : MethodType.methodType(Runnable.class, handle.type().parameterType(0));
+        CallSite site = LambdaMetafactory.metafactory(lookup, "run", factoryType, MethodType.methodType(void.class), handle, MethodType.methodType(void.class));
+        return target == null ? (Runnable) site.getTarget().invoke() : (Runnable) site.getTarget().invoke(target);
+    }
+
+    // Run all @myMarker methods without parameters
+    void runMarked() {
+        for (Runnable r : marked)
+            r.run();
+    }
+
+    int markedCount() {
+        return markedHandles.length;
+    }
+
+    // Handle for the i-th @myMarker method (with parameters or not)
+    MethodHandle markedHandle(int index) {
+        return markedHandles[index];
+    }
+
+    // Run the @MySingle(value) method without parameters; return false if there is none
+    boolean dispatch(int value) {
+        int slot = find(value);
+        if (slot < 0 || runnables[slot] == null)
+            return false;
+        runnables[slot].run();
+        return true;
+    }
+
+    // Handle for the @MySingle(value) method, or null; call it with invokeExact and the method's own signature
+    MethodHandle handle(int value) {
+        int slot = find(value);
+        return slot < 0 ? null : handles[slot];
+    }
+
+    private int find(int key) {
+        int slot = slot(key);
+        return used[slot] ? slot : -1;
+    }
+
+    // Slot holding a key, or the free slot where it would go
+    private int slot(int key) {
+        int h = key * 0x9E3779B9; // spread the bits, so nearby values don't end up in neighbouring slots
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (used[slot] && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    public static void main(String[] args) {
+        // Bind the methods tagged in the marker and single member examples, and call them through the dispatcher
+        AnnotatedMethodDispatcher markers = of(MethodHandles.lookup(), Example_MarkerAnnotation.class, null);
+        markers.runMarked();
+
+        AnnotatedMethodDispatcher singles = of(MethodHandles.lookup(), Example_SingleMemberAnnotation.class, null);
+        System.out.println("dispatch(666): " + singles.dispatch(666));
+        System.out.println("dispatch(1): " + singles.dispatch(1));
+    }
+}
@@ -0,0 +1,135 @@
+package com.pbe;
+
+import java.lang.annotation.Annotation;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+// *******
+// Java agent that fills the AnnotationRegistry while classes are being loaded, so the first annotation lookup of a class
+// (e.g. the first call of Example_SingleMemberAnnotation.myMethod) finds its metadata ready, instead of paying for reflection and parsing then.
+// The agent registers a ClassFileTransformer that never changes a class: it only hands the class bytes to a background thread, which
+// - reads the annotations from the bytes with ClassFileAnnotationReader, and skips the class if it carries none of the package's annotations
+// - otherwise looks up the Class (waiting for its loading to complete if needed, without initializing it) and calls AnnotationRegistry.preload()
+// The loading thread itself only pays for queueing the bytes; the class bytes passed to a transformer are not modified later, so they are not copied.
+// When the agent is attached to a running JVM (agentmain), the classes loaded before are preloaded too.
+//
+// Usage: package the compiled classes with the manifest in agent/MANIFEST.MF, and start the JVM with the jar as agent:
+//   jar cfm pbe-agent.jar agent/MANIFEST.MF -C out/classes .
+//   java -javaagent:pbe-agent.jar[=package=com.pbe,verbose] -cp out/classes com.pbe.Example_SingleMemberAnnotation
+// Options: package selects the annotations (those declared in the package, default com.pbe); verbose prints each preloaded class.
+// *******
+public final class AnnotationAgent {
+
+    private static final AtomicInteger PRELOADED = new AtomicInteger();
+
+    private AnnotationAgent() { }
+
+    public static void premain(String options, Instrumentation inst) {
+        install(options, inst);
+    }
+
+    public static void agentmain(String options, Instrumentation inst) {
+        Preloader preloader = install(options, inst);
+        for (Class<?> c : inst.getAllLoadedClasses())
+            if (preloader.wants(c))
+                preloader.executor.execute(() -> preloader.preload(c));
+    }
+
+    // Number of classes preloaded so far
+    static int preloadedCount() {
+        return PRELOADED.get();
+    }
+
+    private static Preloader install(String options, Instrumentation inst) {
+        String packageName = "com.pbe";
+        boolean verbose = false;
+        if (options != null)
+            for (String option : options.split(",")) {
+                if (option.startsWith("package="))
+                    packageName = option.substring("package=".length());
+                else if (option.equals("verbose"))
+                    verbose = true;
+            }
+        Preloader preloader = new Preloader(packageName, verbose);
+        inst.addTransformer(preloader);
+        return preloader;
+    }
+
+    private static final class Preloader implements ClassFileTransformer {
+        private final String prefix;
+        private final Predicate<String> annotationFilter;
+        private final boolean verbose;
+        // One low-priority daemon thread: the work is off the loading threads, and shouldn't compete with the application for the CPU either
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "pbe-annotation-preload");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        private final ClassFileAnnotationReader reader = new ClassFileAnnotationReader(); // only used by the executor's thread
+
+        Preloader(String packageName, boolean verbose) {
+            this.prefix = packageName + ".";
+            this.annotationFilter = t -> t.startsWith(prefix) && t.indexOf('.', prefix.length()) < 0;
+            this.verbose = verbose;
+            // Let queued classes finish on a normal exit; a class that isn't preloaded is still resolved on its first use
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain domain, byte[] classfileBuffer) {
+            if (loader != null && className != null && classBeingRedefined == null && !executor.isShutdown())
+                executor.execute(() -> scan(loader, className.replace('/', '.'), classfileBuffer));
+            return null; // the class is never changed
+        }
+
+        private void scan(ClassLoader loader, String className, byte[] bytes) {
+            boolean[] found = { false };
+            try {
+                reader.read(ByteBuffer.wrap(bytes), new ClassFileAnnotationReader.Visitor() {
+                    @Override
+                    public boolean accept(String annotationType) {
+                        found[0] |= annotationFilter.test(annotationType); // the values are never needed here, so never decode them
+                        return false;
+                    }
+                });
+                if (found[0])
+                    preload(Class.forName(className, false, loader)); // waits until the loading thread has defined the class
+            } catch (Throwable e) { // a class that fails to load or parse is simply not preloaded
+                if (verbose)
+                    System.err.println("[pbe-agent] skipped " + className + ": " + e);
+            }
+        }
+
+        // Already loaded classes that may carry the annotations: those of the package, and any class annotated with one of them
+        boolean wants(Class<?> c) {
+            if (c.getName().startsWith(prefix))
+                return true;
+            for (Annotation a : c.getAnnotations())
+                if (annotationFilter.test(a.annotationType().getName()))
+                    return true;
+            return false;
+        }
+
+        void preload(Class<?> c) {
+            AnnotationRegistry.preload(c);
+            PRELOADED.incrementAndGet();
+            if (verbose)
+                System.err.println("[pbe-agent] preloaded " + c.getName());
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// *******
+// Runtime side of the compile-time annotation index, written by AnnotationIndexProcessor (processor module) to META-INF/pbe/annotations.idx.
+// Reflection can only find the annotations of a class that is already loaded, see e.g. Example_ObtainingAllAnnotations.
+// The index lists every element that carries a com.pbe annotation, so "all elements annotated with X" can be answered
+// without loading the annotated classes: only their names and the literal member values are read from the index.
+// Index files on the file system are memory-mapped. Index files inside a jar are read into a buffer once.
+// On load, only the string table offsets and the entry offsets per annotation type are collected; entries are decoded when queried.
+// For queries with conditions on member values, see AnnotationQuery: entries are tested in their encoded form, and only matches are decoded.
+// *******
+final class AnnotationIndex {
+
+    static final String INDEX_RESOURCE = "META-INF/pbe/annotations.idx";
+    static final int MAGIC = 0x50424549; // "PBEI"
+    static final short VERSION = 1;
+
+    // Kind of annotated element
+    enum Kind { TYPE, FIELD, METHOD, CONSTRUCTOR }
+
+    // A single annotation occurrence, e.g. @What(description = "Annotation test method") on Example_ObtainingAllAnnotations.myMethod()
+    // member is "" for the class itself, the field name, or the method name with its parameter types, e.g. "myMethod(java.lang.String,int)"
+    // values holds all member values including defaults. Enum constants, classes and nested annotations are given as strings.
+    record Element(String className, String member, Kind kind, String annotationType, Map<String, Object> values) { }
+
+    private final List<Segment> segments;
+
+    private AnnotationIndex(List<Segment> segments) {
+        this.segments = segments;
+    }
+
+    // Load all index files visible to a class loader (one per directory or jar that was compiled with the processor)
+    static AnnotationIndex load(ClassLoader loader) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        Enumeration<URL> urls = loader.getResources(INDEX_RESOURCE);
+        while (urls.hasMoreElements())
+            segments.add(new Segment(map(urls.nextElement())));
+        return new AnnotationIndex(segments);
+    }
+
+    // Open a single index file
+    static AnnotationIndex open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new AnnotationIndex(Collections.singletonList(new Segment(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()))));
+        }
+    }
+
+    private static ByteBuffer map(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                try (FileChannel ch = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ)) {
+                    return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()); // the mapping stays valid after closing the channel
+                }
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid index location " + url, e);
+            }
+        }
+        try (InputStream in = url.openStream()) {
+            return ByteBuffer.wrap(in.readAllBytes());
+        }
+    }
+
+    // All elements annotated with the given annotation type
+    List<Element> elementsAnnotatedWith(Class<? extends Annotation> annotationType) {
+        return elementsAnnotatedWith(annotationType.getName());
+    }
+
+    // All elements annotated with the annotation type of the given (binary) name, e.g. "com.pbe.What"
+    List<Element> elementsAnnotatedWith(String annotationType) {
+        List<Element> result = new ArrayList<>();
+        for (Segment s : segments)
+            s.collect(annotationType, result);
+        return result;
+    }
+
+    // Query on the elements annotated with a type, e.g. query(MyAnnotation2.class).methods().whereInt("num", n -> n > 50).stream()
+    AnnotationQuery query(Class<? extends Annotation> annotationType) {
+        return new AnnotationQuery(this, annotationType.getName());
+    }
+
+    AnnotationQuery query(String annotationType) {
+        return new AnnotationQuery(this, annotationType);
+    }
+
+    // Lazy stream of the elements annotated with a type, of the given kind (null for any), whose member values satisfy all conditions
+    // Entries are tested on their encoded form, and only decoded into an Element when they pass; this is what AnnotationQuery runs
+    Stream<Element> stream(String annotationType, Kind kind, List<AnnotationQuery.Condition> conditions, boolean parallel) {
+        int total = 0;
+        for (Segment s : segments)
+            total += s.entriesByType.getOrDefault(annotationType, NO_ENTRIES).length;
+        Segment[] owners = new Segment[total];
+        int[] positions = new int[total];
+        int n = 0;
+        for (Segment s : segments)
+            for (int p : s.entriesByType.getOrDefault(annotationType, NO_ENTRIES)) {
+                owners[n] = s;
+                positions[n++] = p;
+            }
+        return StreamSupport.stream(new EntrySpliterator(owners, positions, 0, total, kind, conditions.toArray(new AnnotationQuery.Condition[0])), parallel);
+    }
+
+    private static final int[] NO_ENTRIES = new int[0];
+
+    // Walks a range of entries, possibly from several segments; trySplit() halves the range, so a parallel stream spreads it over the workers
+    private static final class EntrySpliterator implements Spliterator<Element> {
+        private final Segment[] owners;
+        private final int[] positions;
+        private final Kind kind;
+        private final AnnotationQuery.Condition[] conditions;
+        private int index;
+        private final int end;
+
+        EntrySpliterator(Segment[] owners, int[] positions, int index, int end, Kind kind, AnnotationQuery.Condition[] conditions) {
+            this.owners = owners;
+            this.positions = positions;
+            this.index = index;
+            this.end = end;
+            this.kind = kind;
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Element> action) {
+            while (index < end) {
+                Segment s = owners[index];
+                int p = positions[index++];
+                if (s.matches(p, kind, conditions)) {
+                    action.accept(s.decode(p));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<Element> trySplit() {
+            int mid = (index + end) >>> 1;
+            if (mid - index < 16) // not worth splitting
+                return null;
+            EntrySpliterator prefix = new EntrySpliterator(owners, positions, index, mid, kind, conditions);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    // Number of annotation occurrences in the index
+    int size() {
+        int n = 0;
+        for (Segment s : segments)
+            n += s.entryCount;
+        return n;
+    }
+
+    // One index file
+    private static final class Segment {
+        private final ByteBuffer buf;
+        private final int[] stringOffsets; // position of each string's length prefix
+        private final int entryCount;
+        private final Map<String, int[]> entriesByType = new HashMap<>(); // annotation type -> entry positions
+
+        Segment(ByteBuffer buf) throws IOException {
+            this.buf = buf;
+            if (buf.getInt(0) != MAGIC || buf.getShort(4) != VERSION)
+                throw new IOException("Not an annotation index (or unsupported version)");
+
+            int pos = 6;
+            stringOffsets = new int[buf.getInt(pos)];
+            pos += 4;
+            for (int i = 0; i < stringOffsets.length; i++) {
+                stringOffsets[i] = pos;
+                pos += 2 + Short.toUnsignedInt(buf.getShort(pos));
+            }
+
+            entryCount = buf.getInt(pos);
+            pos += 4;
+            Map<Integer, int[]> byTypeIndex = new HashMap<>();
+            Map<Integer, Integer> counts = new HashMap<>();
+            for (int i = 0; i < entryCount; i++) {
+                int type = buf.getInt(pos + 9);
+                int n = counts.merge(type, 1, Integer::sum);
+                int[] positions = byTypeIndex.computeIfAbsent(type, t -> new int[4]);
+                if (n > positions.length)
+                    byTypeIndex.put(type, positions = Arrays.copyOf(positions, positions.length * 2));
+                positions[n - 1] = pos;
+                pos = skipEntry(pos);
+            }
+            for (Map.Entry<Integer, int[]> e : byTypeIndex.entrySet())
+                entriesByType.put(string(e.getKey()), Arrays.copyOf(e.getValue(), counts.get(e.getKey())));
+        }
+
+        // Does the entry at pos have the given kind (if not null), and member values that satisfy all conditions?
+        // Only the values of the members named in the conditions are read, and only string values are decoded
+        boolean matches(int pos, Kind kind, AnnotationQuery.Condition[] conditions) {
+            if (kind != null && buf.get(pos + 8) != kind.ordinal())
+                return false;
+            for (AnnotationQuery.Condition c : conditions) {
+                int name = stringIndex(c.member());
+                int count = Short.toUnsignedInt(buf.getShort(pos + 13));
+                int p = pos + 15;
+                boolean found = false;
+                for (int i = 0; i < count && !found; i++) {
+                    found = buf.getInt(p) == name;
+                    p = found ? p + 4 : skipValue(p + 4);
+                }
+                if (!found || !test(p, c))
+                    return false;
+            }
+            return true;
+        }
+
+        // Test the tagged value at p against a condition; array values never match
+        private boolean test(int p, AnnotationQuery.Condition c) {
+            char tag = (char) buf.get(p++);
+            switch (tag) {
+                case 'Z': case 'B': return c.whole() != null && c.whole().test(buf.get(p));
+                case 'C': return c.whole() != null && c.whole().test(buf.getChar(p));
+                case 'S': return c.whole() != null && c.whole().test(buf.getShort(p));
+                case 'I': return c.whole() != null && c.whole().test(buf.getInt(p));
+                case 'J': return c.whole() != null && c.whole().test(buf.getLong(p));
+                case 'F': return c.decimal() != null && c.decimal().test(buf.getFloat(p));
+                case 'D': return c.decimal() != null && c.decimal().test(buf.getDouble(p));
+                case 's': case 'e': case 'c': case '@': return c.text() != null && c.text().test(string(buf.getInt(p)));
+                default: return false;
+            }
+        }
+
+        // Index of a string in the string table, or -1; looked up once per member name, as queries name the same few members over and over
+        private final Map<String, Integer> stringIndexes = new ConcurrentHashMap<>();
+
+        private int stringIndex(String s) {
+            Integer index = stringIndexes.get(s);
+            if (index == null) {
+                byte[] key = s.getBytes(StandardCharsets.UTF_8);
+                index = -1;
+                for (int i = 0; i < stringOffsets.length && index < 0; i++) {
+                    int p = stringOffsets[i];
+                    if (Short.toUnsignedInt(buf.getShort(p)) == key.length && buf.slice(p + 2, key.length).equals(ByteBuffer.wrap(key)))
+                        index = i;
+                }
+                stringIndexes.put(s, index);
+            }
+            return index;
+        }
+
+        void collect(String annotationType, List<Element> out) {
+            int[] positions = entriesByType.get(annotationType);
+            if (positions != null)
+                for (int p : positions)
+                    out.add(decode(p));
+        }
+
+        private Element decode(int pos) {
+            String className = string(buf.getInt(pos));
+            String member = string(buf.getInt(pos + 4));
+            Kind kind = Kind.values()[buf.get(pos + 8)];
+            String type = string(buf.getInt(pos + 9));
+            int count = Short.toUnsignedInt(buf.getShort(pos + 13));
+            int[] cursor = { pos + 15 };
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = string(buf.getInt(cursor[0]));
+                cursor[0] += 4;
+                values.put(name, readValue(cursor));
+            }
+            return new Element(className, member, kind, type, Collections.unmodifiableMap(values));
+        }
+
+        // Read a tagged value at cursor[0], and advance the cursor past it
+        private Object readValue(int[] cursor) {
+            int p = cursor[0];
+            char tag = (char) buf.get(p++);
+            Object v;
+            switch (tag) {
+                case 'Z': v = buf.get(p) != 0; p += 1; break;
+                case 'B': v = buf.get(p); p += 1; break;
+                case 'C': v = buf.getChar(p); p += 2; break;
+                case 'S': v = buf.getShort(p); p += 2; break;
+                case 'I': v = buf.getInt(p); p += 4; break;
+                case 'J': v = buf.getLong(p); p += 8; break;
+                case 'F': v = buf.getFloat(p); p += 4; break;
+                case 'D': v = buf.getDouble(p); p += 8; break;
+                case 's': case 'e': case 'c': case '@': v = string(buf.getInt(p)); p += 4; break;
+                case '[': {
+                    int n = Short.toUnsignedInt(buf.getShort(p));
+                    cursor[0] = p + 2;
+                    Object[] array = new Object[n];
+                    for (int i = 0; i < n; i++)
+                        array[i] = readValue(cursor);
+                    return array;
+                }
+                default: throw new IllegalStateException("Corrupt annotation index, unknown value tag " + tag);
+            }
+            cursor[0] = p;
+            return v;
+        }
+
+        private int skipEntry(int pos) {
+            int count = Short.toUnsignedInt(buf.getShort(pos + 13));
+            int p = pos + 15;
+            for (int i = 0; i < count; i++)
+                p = skipValue(p + 4);
+            return p;
+        }
+
+        private int skipValue(int p) {
+            switch ((char) buf.get(p++)) {
+                case 'Z': case 'B': return p + 1;
+                case 'C': case 'S': return p + 2;
+                case 'I': case 'F': case 's': case 'e': case 'c': case '@': return p + 4;
+                case 'J': case 'D': return p + 8;
+                case '[': {
+                    int n = Short.toUnsignedInt(buf.getShort(p));
+                    p += 2;
+                    for (int i = 0; i < n; i++)
+                        p = skipValue(p);
+                    return p;
+                }
+                default: throw new IllegalStateException("Corrupt annotation index");
+            }
+        }
+
+        private String string(int index) {
+            int p = stringOffsets[index];
+            int length = Short.toUnsignedInt(buf.getShort(p));
+            byte[] bytes = new byte[length];
+            buf.get(p + 2, bytes); // absolute bulk get, leaves the buffer's position untouched so the segment can be shared between threads
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.pbe;
+
+// *******
+// Switch between the two ways the examples read their annotations:
+// - reflective (the default): at run time, through AnnotationRegistry, which looks them up with reflection once and caches them
+// - generated: through the accessors that ConstantAccessorProcessor generates at compile time, e.g. Example_DefaultValuesAnnotations.myMethod_num(),
+//   which return the values as constants, so nothing is looked up at run time at all
+// Select it with -Dpbe.annotations=generated, or with the first argument of Main, which sets the property before this class is loaded;
+// any other value than reflective or generated reads as reflective here, Main rejects it
+// *******
+final class AnnotationMode {
+
+    static final String PROPERTY = "pbe.annotations"; // a compile-time constant, so reading it doesn't load this class
+
+    static final boolean GENERATED = "generated".equals(System.getProperty(PROPERTY, "reflective"));
+
+    private AnnotationMode() { }
+}
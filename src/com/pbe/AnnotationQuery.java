@@ -0,0 +1,124 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// *******
+// Fluent query on the elements annotated with a type, run as a lazy Stream over an AnnotationIndex.
+// Example_ObtainingAllAnnotations calls getAnnotations() and loops over the result; finding e.g. the methods annotated with
+// @MyAnnotation2 where num > 50 that way means loading every class and checking every annotation by hand. With a query:
+//   index.query(MyAnnotation2.class).methods().whereInt("num", n -> n > 50).stream()
+//   index.query(What.class).classes().whereString("description", d -> d.contains("test")).list()
+// The kind and the where..() conditions are pushed down into the index scan: they are tested on the encoded entries,
+// so an entry that doesn't match is never decoded into an Element. filter() takes any predicate, tested after decoding.
+// A member that is absent, or has a value of another kind (e.g. a whereInt() on a String member, or an array), doesn't match.
+// Call parallel() to split the scan over the common ForkJoinPool, for large indexes.
+// *******
+final class AnnotationQuery {
+
+    // Condition on the value of one member; only the predicate for the member's kind of value is used, the others are null
+    // whole is for integral members (byte, short, char, int, long; booleans as 0 and 1), decimal for float and double members,
+    // text for String members, enum constants (e.g. "java.lang.annotation.RetentionPolicy.RUNTIME") and classes
+    record Condition(String member, LongPredicate whole, DoublePredicate decimal, Predicate<String> text) { }
+
+    private final AnnotationIndex index;
+    private final String annotationType;
+    private AnnotationIndex.Kind kind;
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<Predicate<AnnotationIndex.Element>> filters = new ArrayList<>();
+    private boolean parallel;
+
+    AnnotationQuery(AnnotationIndex index, String annotationType) {
+        this.index = index;
+        this.annotationType = annotationType;
+    }
+
+    // Restrict the query to one kind of element
+    AnnotationQuery classes() {
+        return kind(AnnotationIndex.Kind.TYPE);
+    }
+
+    AnnotationQuery methods() {
+        return kind(AnnotationIndex.Kind.METHOD);
+    }
+
+    AnnotationQuery fields() {
+        return kind(AnnotationIndex.Kind.FIELD);
+    }
+
+    AnnotationQuery constructors() {
+        return kind(AnnotationIndex.Kind.CONSTRUCTOR);
+    }
+
+    AnnotationQuery kind(AnnotationIndex.Kind kind) {
+        this.kind = kind;
+        return this;
+    }
+
+    // Conditions on member values, tested in the index
+    AnnotationQuery whereInt(String member, LongPredicate condition) {
+        conditions.add(new Condition(member, condition, null, null));
+        return this;
+    }
+
+    AnnotationQuery whereDouble(String member, DoublePredicate condition) {
+        conditions.add(new Condition(member, null, condition, null));
+        return this;
+    }
+
+    AnnotationQuery whereString(String member, Predicate<String> condition) {
+        conditions.add(new Condition(member, null, null, condition));
+        return this;
+    }
+
+    // Any other condition, tested on the decoded element
+    AnnotationQuery filter(Predicate<AnnotationIndex.Element> condition) {
+        filters.add(condition);
+        return this;
+    }
+
+    // Run the scan in parallel
+    AnnotationQuery parallel() {
+        parallel = true;
+        return this;
+    }
+
+    // Lazy stream of the matching elements; nothing is read from the index until a terminal operation runs
+    Stream<AnnotationIndex.Element> stream() {
+        Stream<AnnotationIndex.Element> s = index.stream(annotationType, kind, conditions, parallel);
+        for (Predicate<AnnotationIndex.Element> f : filters)
+            s = s.filter(f);
+        return s;
+    }
+
+    List<AnnotationIndex.Element> list() {
+        return stream().collect(Collectors.toList());
+    }
+
+    long count() {
+        return stream().count();
+    }
+
+    public static void main(String[] args) throws IOException {
+        AnnotationIndex index = AnnotationIndex.load(AnnotationQuery.class.getClassLoader());
+
+        // Methods annotated with @MyAnnotation2 where num > 50
+        System.out.println("Methods with @MyAnnotation2(num > 50):");
+        index.query(MyAnnotation2.class).methods().whereInt("num", n -> n > 50).stream()
+                .forEach(e -> System.out.println("    " + e.className() + "." + e.member() + " " + e.values()));
+
+        // Classes with @What whose description contains "test"
+        System.out.println("Classes with @What(description containing \"test\"):");
+        index.query(What.class).classes().whereString("description", d -> d.contains("test")).stream()
+                .forEach(e -> System.out.println("    " + e.className() + " " + e.values()));
+
+        // Any element with a @MyAnno of num < 0, scanned in parallel
+        System.out.println("Elements with @MyAnno(num < 0): " + index.query(MyAnno.class).whereInt("num", n -> n < 0).parallel().count());
+    }
+}
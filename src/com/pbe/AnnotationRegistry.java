@@ -0,0 +1,289 @@
+package com.pbe;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// *******
+// Registry that caches annotation metadata per class.
+// The examples used to create a throwaway object, call getClass().getMethod(...) and then getAnnotation(...) every time they ran.
+// getMethod() copies the Method object on every call and getAnnotation() goes through the reflection caches of the Class.
+// The registry resolves each class once (all public methods and their annotations) and keeps the result in a concurrent map keyed by class.
+// Later lookups only read from maps and arrays that already exist, so they don't allocate.
+// Next to the annotation instances, the registry hands out the value records generated by the processor module (see AnnotationValues).
+// Reading a member from such a record (e.g. MyAnnotationValue.num()) is a plain field load, instead of a call through the annotation's dynamic proxy.
+// The lookups below (of(), the static get/is/forEach methods, and repeated()) are recorded by LookupProfiler while it is started.
+// *******
+final class AnnotationRegistry {
+
+    // One entry per class, created on first use
+    private static final ConcurrentHashMap<Class<?>, ClassMetadata> CLASSES = new ConcurrentHashMap<>();
+
+    // Shared empty parameter list, to be used for methods without arguments
+    static final Class<?>[] NO_PARAMETERS = new Class<?>[0];
+
+    private AnnotationRegistry() { }
+
+    // Return the cached metadata for a class, resolving it on first use
+    static ClassMetadata of(Class<?> c) {
+        long start = LookupProfiler.begin();
+        boolean hit = start == 0 || CLASSES.containsKey(c);
+        ClassMetadata meta = resolve(c);
+        if (start != 0)
+            LookupProfiler.end(start, LookupProfiler.Op.CLASS, c, "", null, hit);
+        return meta;
+    }
+
+    // of() without being recorded, for the lookups below that record themselves
+    private static ClassMetadata resolve(Class<?> c) {
+        ClassMetadata meta = CLASSES.get(c); // plain get first: computeIfAbsent may lock the bin even if the entry is present
+        if (meta == null)
+            meta = CLASSES.computeIfAbsent(c, ClassMetadata::new);
+        return meta;
+    }
+
+    // Resolve a class ahead of its first use, including the value records of its annotations, so the first lookup finds everything ready
+    // Used by AnnotationAgent, which calls it on a background thread as classes are loaded
+    static void preload(Class<?> c) {
+        ClassMetadata meta = resolve(c);
+        meta.annotations.convertValues();
+        for (MethodMetadata[] overloads : meta.methods.values())
+            for (MethodMetadata m : overloads)
+                m.convertValues();
+    }
+
+    // Counterpart of c.getMethod(name, params).getAnnotation(type)
+    // Note that params is passed as an array (not as varargs), so callers can keep it in a constant and avoid an allocation per call
+    static <A extends Annotation> A getMethodAnnotation(Class<?> c, String name, Class<?>[] params, Class<A> type) throws NoSuchMethodException {
+        long start = LookupProfiler.begin();
+        boolean hit = start == 0 || CLASSES.containsKey(c);
+        A a = resolve(c).method(name, params).getAnnotation(type);
+        if (start != 0)
+            LookupProfiler.end(start, LookupProfiler.Op.GET_ANNOTATION, c, name, type, hit);
+        return a;
+    }
+
+    // Counterpart of c.getMethod(name).getAnnotation(type), for methods without arguments
+    static <A extends Annotation> A getMethodAnnotation(Class<?> c, String name, Class<A> type) throws NoSuchMethodException {
+        return getMethodAnnotation(c, name, NO_PARAMETERS, type);
+    }
+
+    // Return the generated value record of an annotation on a method, e.g. getMethodValue(c, "myMethod", params, MyAnnotationValue.class)
+    static <V> V getMethodValue(Class<?> c, String name, Class<?>[] params, Class<V> valueType) throws NoSuchMethodException {
+        long start = LookupProfiler.begin();
+        boolean hit = start == 0 || CLASSES.containsKey(c);
+        V v = resolve(c).method(name, params).getValue(valueType);
+        if (start != 0)
+            LookupProfiler.end(start, LookupProfiler.Op.GET_VALUE, c, name, AnnotationValues.annotationType(valueType), hit);
+        return v;
+    }
+
+    static <V> V getMethodValue(Class<?> c, String name, Class<V> valueType) throws NoSuchMethodException {
+        return getMethodValue(c, name, NO_PARAMETERS, valueType);
+    }
+
+    // Visit the repeated annotations of a type on a method (e.g. each MyAnno on Example_RepeatedAnnotation.myMethod), without creating an array
+    static <A extends Annotation> void forEachMethodAnnotation(Class<?> c, String name, Class<?>[] params, Class<A> type, Consumer<? super A> action) throws NoSuchMethodException {
+        long start = LookupProfiler.begin();
+        boolean hit = start == 0 || CLASSES.containsKey(c);
+        resolve(c).method(name, params).repeatedView(type).forEach(action);
+        if (start != 0)
+            LookupProfiler.end(start, LookupProfiler.Op.FOR_EACH, c, name, type, hit);
+    }
+
+    // Counterpart of c.getMethod(name, params).isAnnotationPresent(type)
+    static boolean isMethodAnnotationPresent(Class<?> c, String name, Class<?>[] params, Class<? extends Annotation> type) throws NoSuchMethodException {
+        long start = LookupProfiler.begin();
+        boolean hit = start == 0 || CLASSES.containsKey(c);
+        boolean present = resolve(c).method(name, params).getAnnotation(type) != null;
+        if (start != 0)
+            LookupProfiler.end(start, LookupProfiler.Op.IS_PRESENT, c, name, type, hit);
+        return present;
+    }
+
+    // Cached metadata for a single class
+    static final class ClassMetadata {
+        private final Class<?> type;
+        private final AnnotatedMetadata annotations;
+        private final Map<String, MethodMetadata[]> methods; // public methods, grouped by name (overloads share one array)
+
+        private ClassMetadata(Class<?> type) {
+            this.type = type;
+            this.annotations = new AnnotatedMetadata(type);
+
+            Map<String, MethodMetadata[]> byName = new HashMap<>();
+            for (Method m : type.getMethods()) {
+                MethodMetadata[] overloads = byName.get(m.getName());
+                overloads = overloads == null ? new MethodMetadata[1] : Arrays.copyOf(overloads, overloads.length + 1);
+                overloads[overloads.length - 1] = new MethodMetadata(m);
+                byName.put(m.getName(), overloads);
+            }
+            this.methods = byName; // never modified after construction, safely published through the ConcurrentHashMap
+        }
+
+        Class<?> type() {
+            return type;
+        }
+
+        // Annotations present on the class itself (including inherited ones)
+        AnnotatedMetadata annotations() {
+            return annotations;
+        }
+
+        // Find a public method by name and parameter types, like Class.getMethod()
+        MethodMetadata method(String name, Class<?>[] params) throws NoSuchMethodException {
+            MethodMetadata[] overloads = methods.get(name);
+            if (overloads != null)
+                for (MethodMetadata m : overloads)
+                    if (m.hasParameterTypes(params))
+                        return m;
+            throw new NoSuchMethodException(type.getName() + "." + name + Arrays.toString(params));
+        }
+    }
+
+    // Cached metadata for a single public method
+    static final class MethodMetadata extends AnnotatedMetadata {
+        private final Method method;
+        private final Class<?>[] parameterTypes;
+
+        private MethodMetadata(Method method) {
+            super(method);
+            this.method = method;
+            this.parameterTypes = method.getParameterTypes(); // getParameterTypes() clones, so keep our own copy
+        }
+
+        Method method() {
+            return method;
+        }
+
+        private boolean hasParameterTypes(Class<?>[] params) {
+            if (params.length != parameterTypes.length)
+                return false;
+            for (int i = 0; i < params.length; i++)
+                if (params[i] != parameterTypes[i])
+                    return false;
+            return true;
+        }
+    }
+
+    // Annotations of a class or method, resolved once and indexed by annotation type
+    static class AnnotatedMetadata {
+        private static final Object NO_VALUE = new Object(); // marks annotations without a generated value record
+
+        private final AnnotatedElement element;
+        private final Annotation[] all;
+        private final Map<Class<? extends Annotation>, Annotation> byType;
+        private final Object[] values; // generated value records, parallel to all; converted on first request
+        private final ConcurrentHashMap<Class<? extends Annotation>, Repeated<?>> repeated = new ConcurrentHashMap<>(); // filled in on first use, per type
+
+        AnnotatedMetadata(AnnotatedElement element) {
+            Annotation[] all = element.getAnnotations();
+            this.element = element;
+            this.all = all;
+            this.byType = new HashMap<>(Math.max(4, all.length * 2));
+            this.values = new Object[all.length];
+            for (Annotation a : all)
+                byType.put(a.annotationType(), a);
+        }
+
+        <A extends Annotation> A getAnnotation(Class<A> type) {
+            return type.cast(byType.get(type));
+        }
+
+        // Return the value record of an annotation, or null if the annotation isn't present
+        // Annotations are only converted when a value is first asked for, and the records are interned, so elements with
+        // identical annotations (e.g. all members at their defaults) share one record instead of each holding a copy
+        // Two threads may convert the same annotation at the same time; both get the same canonical record, so that is harmless
+        // Only the requested annotation is converted: its position is found by the annotation type of the record
+        <V> V getValue(Class<V> valueType) {
+            Class<? extends Annotation> type = AnnotationValues.annotationType(valueType);
+            if (type != null)
+                for (int i = 0; i < all.length; i++)
+                    if (all[i].annotationType() == type)
+                        return valueType.cast(value(i));
+            return null;
+        }
+
+        // Value record of the annotation at index i, converted on first use; NO_VALUE if it has none
+        private Object value(int i) {
+            Object v = values[i];
+            if (v == null) {
+                v = AnnotationValues.of(all[i]);
+                values[i] = v = v != null ? v : NO_VALUE;
+            }
+            return v;
+        }
+
+        // Convert all annotations now, rather than on first request
+        void convertValues() {
+            for (int i = 0; i < all.length; i++)
+                value(i);
+        }
+
+        boolean isAnnotationPresent(Class<? extends Annotation> type) {
+            return byType.containsKey(type);
+        }
+
+        // Number of annotations, and the annotation at a given position
+        // Together they replace getAnnotations(), which returns a fresh copy of the array on every call
+        int annotationCount() {
+            return all.length;
+        }
+
+        Annotation annotationAt(int index) {
+            return all[index];
+        }
+
+        // View on the annotations of a repeatable type, e.g. repeated(MyAnno.class)
+        // The annotations are resolved once with getAnnotationsByType(), so they include those held by a container (MyRepeatedAnnos),
+        // those declared directly, and for classes those inherited from a superclass
+        // getAnnotationsByType() itself returns a new array on every call; the view is created once per type and shared afterwards
+        <A extends Annotation> Repeated<A> repeated(Class<A> type) {
+            long start = LookupProfiler.begin();
+            boolean hit = start == 0 || repeated.containsKey(type);
+            Repeated<A> r = repeatedView(type);
+            if (start != 0) {
+                Method m = element instanceof Method ? (Method) element : null;
+                LookupProfiler.end(start, LookupProfiler.Op.REPEATED, m != null ? m.getDeclaringClass() : (Class<?>) element, m != null ? m.getName() : "", type, hit);
+            }
+            return r;
+        }
+
+        // repeated() without being recorded
+        @SuppressWarnings("unchecked")
+        <A extends Annotation> Repeated<A> repeatedView(Class<A> type) {
+            Repeated<?> r = repeated.get(type);
+            if (r == null)
+                r = repeated.computeIfAbsent(type, t -> new Repeated<>(element.getAnnotationsByType(t)));
+            return (Repeated<A>) r;
+        }
+    }
+
+    // Read-only, indexed view on repeated annotations of a single type
+    // Use size() and get(i) in a plain loop, or forEach() with a callback; neither creates an array
+    static final class Repeated<A extends Annotation> {
+        private final A[] annotations;
+
+        private Repeated(A[] annotations) {
+            this.annotations = annotations;
+        }
+
+        int size() {
+            return annotations.length;
+        }
+
+        A get(int index) {
+            return annotations[index];
+        }
+
+        void forEach(Consumer<? super A> action) {
+            for (A a : annotations)
+                action.accept(a);
+        }
+    }
+}
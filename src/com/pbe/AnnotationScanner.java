@@ -0,0 +1,196 @@
+package com.pbe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// *******
+// Parallel scanner that finds all elements carrying a given set of annotations in a class path (directories and jar files).
+// Example_ObtainingAllAnnotations reads the annotations of one class at a time, through reflection, on a single thread.
+// The scanner reads class files with ClassFileAnnotationReader instead (so nothing is loaded), and splits the work over a ForkJoinPool:
+// - the class files of a directory, and the class entries of a jar, are cut into chunks of CHUNK_SIZE classes
+// - each chunk is scanned by one worker, into its own partial result (each worker thread reuses its own reader)
+// - partial results are merged pairwise as the fork/join tasks complete, so there is no shared collection and no lock
+// *******
+final class AnnotationScanner {
+
+    static final int CHUNK_SIZE = 256;
+
+    // One reader per worker thread, as a reader reuses its buffers and can't be shared
+    private static final ThreadLocal<ClassFileAnnotationReader> READERS = ThreadLocal.withInitial(ClassFileAnnotationReader::new);
+
+    private final ForkJoinPool pool;
+    private final Predicate<String> annotationFilter;
+
+    // annotationFilter selects the annotation types (binary names) to collect
+    AnnotationScanner(ForkJoinPool pool, Predicate<String> annotationFilter) {
+        this.pool = pool;
+        this.annotationFilter = annotationFilter;
+    }
+
+    // Scanner for the annotations declared in a package, e.g. forPackage("com.pbe") for myMarker, MySingle, MyAnnotation, What, MyAnno, ..
+    static AnnotationScanner forPackage(String packageName) {
+        String prefix = packageName + ".";
+        return new AnnotationScanner(ForkJoinPool.commonPool(), t -> t.startsWith(prefix) && t.indexOf('.', prefix.length()) < 0);
+    }
+
+    // The entries of the class path of the running JVM
+    static List<Path> classPath() {
+        List<Path> paths = new ArrayList<>();
+        for (String s : System.getProperty("java.class.path").split(File.pathSeparator))
+            if (!s.isEmpty())
+                paths.add(Paths.get(s));
+        return paths;
+    }
+
+    // Scan all directories and jars; the result maps each annotation type to the elements carrying it
+    Map<String, List<AnnotationIndex.Element>> scan(List<Path> classPath) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        for (Path p : classPath) {
+            if (Files.isDirectory(p)) {
+                List<Path> files;
+                try (Stream<Path> walk = Files.walk(p)) {
+                    files = walk.filter(f -> f.toString().endsWith(".class")).collect(Collectors.toList());
+                }
+                for (int i = 0; i < files.size(); i += CHUNK_SIZE)
+                    chunks.add(new FileChunk(files.subList(i, Math.min(files.size(), i + CHUNK_SIZE))));
+            } else if (Files.isRegularFile(p)) {
+                MappedJar jar = MappedJar.open(p);
+                for (int i = 0; i < jar.classCount(); i += CHUNK_SIZE)
+                    chunks.add(new JarChunk(jar, i, Math.min(jar.classCount(), i + CHUNK_SIZE)));
+            }
+        }
+
+        try {
+            return pool.invoke(new ScanTask(chunks, 0, chunks.size())).byType;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Part of the class path, small enough to be scanned by a single worker
+    private interface Chunk {
+        void scan(ClassFileAnnotationReader reader, ClassFileAnnotationReader.Visitor visitor) throws IOException;
+    }
+
+    private static final class FileChunk implements Chunk {
+        private final List<Path> files;
+
+        FileChunk(List<Path> files) {
+            this.files = files;
+        }
+
+        public void scan(ClassFileAnnotationReader reader, ClassFileAnnotationReader.Visitor visitor) throws IOException {
+            for (Path f : files)
+                reader.read(f, visitor);
+        }
+    }
+
+    private static final class JarChunk implements Chunk {
+        private final MappedJar jar;
+        private final int from, to;
+
+        JarChunk(MappedJar jar, int from, int to) {
+            this.jar = jar;
+            this.from = from;
+            this.to = to;
+        }
+
+        public void scan(ClassFileAnnotationReader reader, ClassFileAnnotationReader.Visitor visitor) throws IOException {
+            jar.forEachClass(from, to, (name, bytes) -> reader.read(bytes, visitor));
+        }
+    }
+
+    // Result of scanning some chunks; only ever touched by the thread that owns the task that created it
+    private final class Partial implements ClassFileAnnotationReader.Visitor {
+        final Map<String, List<AnnotationIndex.Element>> byType = new HashMap<>();
+        int size;
+
+        @Override
+        public boolean accept(String annotationType) {
+            return annotationFilter.test(annotationType);
+        }
+
+        @Override
+        public void visitAnnotation(AnnotationIndex.Element annotation, String container, boolean runtimeVisible) {
+            byType.computeIfAbsent(annotation.annotationType(), t -> new ArrayList<>()).add(annotation);
+            size++;
+        }
+
+        // Merge the smaller of two results into the larger one
+        Partial merge(Partial other) {
+            Partial big = size >= other.size ? this : other;
+            Partial small = big == this ? other : this;
+            for (Map.Entry<String, List<AnnotationIndex.Element>> e : small.byType.entrySet()) {
+                List<AnnotationIndex.Element> list = big.byType.get(e.getKey());
+                if (list == null)
+                    big.byType.put(e.getKey(), e.getValue());
+                else
+                    list.addAll(e.getValue());
+            }
+            big.size += small.size;
+            return big;
+        }
+    }
+
+    // Splits the chunks in halves until a single chunk is left, then scans it
+    // (RecursiveTask is Serializable, but a task is never serialized)
+    @SuppressWarnings("serial")
+    private final class ScanTask extends RecursiveTask<Partial> {
+        private final List<Chunk> chunks;
+        private final int from, to;
+
+        ScanTask(List<Chunk> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                ScanTask left = new ScanTask(chunks, from, mid);
+                left.fork();
+                Partial right = new ScanTask(chunks, mid, to).compute();
+                return left.join().merge(right);
+            }
+            Partial result = new Partial();
+            if (from < to) {
+                try {
+                    chunks.get(from).scan(READERS.get(), result);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return result;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Scan the class path of this JVM for the annotations declared in com.pbe, and show where they are used
+        List<Path> classPath = args.length > 0 ? Stream.of(args).map(Paths::get).collect(Collectors.toList()) : classPath();
+        long start = System.nanoTime();
+        Map<String, List<AnnotationIndex.Element>> found = forPackage("com.pbe").scan(classPath);
+        long micros = (System.nanoTime() - start) / 1000;
+
+        for (Map.Entry<String, List<AnnotationIndex.Element>> e : found.entrySet()) {
+            System.out.println(e.getKey() + ":");
+            for (AnnotationIndex.Element element : e.getValue())
+                System.out.println("    " + element.className() + (element.member().isEmpty() ? "" : "." + element.member()) + " " + element.values());
+        }
+        System.out.println("Scanned in " + micros + " us on " + ForkJoinPool.commonPool().getParallelism() + " workers");
+    }
+}
@@ -0,0 +1,229 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+// *******
+// Build-time snapshot of the annotations of a project, for a fast start.
+// The build step (main) reads all compiled classes with ClassFileAnnotationReader and writes every annotation of the package
+// to META-INF/pbe/annotations.snapshot, as an AnnotationStore: declaration annotations, and type annotations with their target,
+// including those that reflection can't see at all (CLASS retention, such as @Whatthen on the type parameter of Example_TypeAnnotations,
+// and @EmptyOK and @Recommended on its members).
+// The members of each annotation are resolved as in AnnotationIndex: a class file only stores the members set explicitly, so the
+// defaults are read from the annotation types' own class files (on the same class path) and filled in for the members left out.
+// At run time, load() maps the snapshot in one go; queries read the mapped columns, so nothing is parsed and nothing is reflected.
+// This also suits ahead-of-time setups:
+// - with an AppCDS archive (-XX:SharedArchiveFile), the classes come from the archive and the snapshot from the page cache,
+//   and no annotation proxy classes are generated on the way to the first request
+// - in a GraalVM native image no reflection configuration is needed for the annotations; the snapshot is included as a resource
+//   by META-INF/native-image/com.pbe/native-image.properties (in a native image, the resource is read into a buffer instead of mapped)
+//
+// Usage: after compiling, e.g. to out/classes (build.sh does this)
+//   java -cp out/classes com.pbe.AnnotationSnapshot out/classes
+// The build step then checks that the snapshot agrees with the compile-time index on Example_DefaultValues(2), and exits with status 1 if not.
+// *******
+final class AnnotationSnapshot {
+
+    static final String SNAPSHOT_RESOURCE = "META-INF/pbe/annotations.snapshot";
+
+    private AnnotationSnapshot() { }
+
+    // Build step: read the annotations of the given package from all classes of a class path into a store
+    static AnnotationStore build(List<Path> classPath, String packageName) throws IOException {
+        String prefix = packageName + ".";
+        Predicate<String> filter = t -> t.startsWith(prefix) && t.indexOf('.', prefix.length()) < 0;
+        // An annotation type may be read after the classes using it, so the annotations are collected first and completed at the end
+        List<AnnotationIndex.Element> annotations = new ArrayList<>();
+        List<ClassFileAnnotationReader.TypeTarget> targets = new ArrayList<>(); // parallel to annotations; null for a declaration annotation
+        Map<String, Map<String, Object>> defaults = new HashMap<>();
+        ClassFileAnnotationReader reader = new ClassFileAnnotationReader();
+        ClassFileAnnotationReader.Visitor visitor = new ClassFileAnnotationReader.Visitor() {
+            @Override
+            public boolean accept(String annotationType) {
+                return filter.test(annotationType);
+            }
+
+            @Override
+            public void visitAnnotation(AnnotationIndex.Element annotation, String container, boolean runtimeVisible) {
+                annotations.add(annotation);
+                targets.add(null);
+            }
+
+            @Override
+            public void visitTypeAnnotation(AnnotationIndex.Element annotation, ClassFileAnnotationReader.TypeTarget target, boolean runtimeVisible) {
+                annotations.add(annotation);
+                targets.add(target);
+            }
+
+            @Override
+            public boolean acceptDefaults(String annotationType) {
+                return filter.test(annotationType);
+            }
+
+            @Override
+            public void visitDefault(String annotationType, String member, Object value) {
+                defaults.computeIfAbsent(annotationType, t -> new LinkedHashMap<>()).put(member, value);
+            }
+        };
+        for (Path p : classPath)
+            reader.scan(p, visitor);
+
+        AnnotationStore.Builder builder = AnnotationStore.builder();
+        for (int i = 0; i < annotations.size(); i++) {
+            AnnotationIndex.Element a = withDefaults(annotations.get(i), defaults.get(annotations.get(i).annotationType()));
+            if (targets.get(i) == null)
+                builder.add(a);
+            else
+                builder.add(a, targets.get(i));
+        }
+        return builder.build();
+    }
+
+    // The annotation with the default values filled in for the members it doesn't set
+    private static AnnotationIndex.Element withDefaults(AnnotationIndex.Element a, Map<String, Object> defaults) {
+        if (defaults == null || a.values().keySet().containsAll(defaults.keySet()))
+            return a;
+        Map<String, Object> values = new LinkedHashMap<>(a.values());
+        defaults.forEach(values::putIfAbsent);
+        return new AnnotationIndex.Element(a.className(), a.member(), a.kind(), a.annotationType(), Collections.unmodifiableMap(values));
+    }
+
+    // Check that the snapshot holds the same declaration annotations of a class, with the same member values, as the compile-time index
+    static boolean agreesWithIndex(AnnotationStore snapshot, AnnotationIndex index, String className) {
+        int occurrences = 0, elements = 0;
+        Set<String> types = new HashSet<>();
+        for (AnnotationStore.Cursor a = snapshot.queryClass(className); a.next(); ) {
+            if (a.isTypeAnnotation())
+                continue;
+            occurrences++;
+            types.add(a.annotationType());
+            boolean found = false;
+            for (AnnotationIndex.Element e : index.elementsAnnotatedWith(a.annotationType()))
+                if (e.className().equals(className) && e.member().equals(a.member()) && e.values().size() == a.valueCount()
+                        && e.values().entrySet().stream().allMatch(v -> hasValue(snapshot, a, v.getKey(), v.getValue())))
+                    found = true;
+            if (!found)
+                return false;
+        }
+        for (String type : types)
+            for (AnnotationIndex.Element e : index.elementsAnnotatedWith(type))
+                if (e.className().equals(className))
+                    elements++;
+        return occurrences == elements;
+    }
+
+    // Whether the current occurrence of a cursor has a member value, as given by AnnotationIndex
+    private static boolean hasValue(AnnotationStore snapshot, AnnotationStore.Cursor a, String member, Object value) {
+        int name = snapshot.stringId(member);
+        if (!a.has(name))
+            return false;
+        if (value instanceof String)
+            return value.equals(a.stringValue(name));
+        if (value instanceof Object[])
+            return Arrays.deepToString((Object[]) value).equals(a.stringValue(name));
+        if (value instanceof Boolean)
+            return a.longValue(name, -1) == ((Boolean) value ? 1 : 0);
+        if (value instanceof Character)
+            return a.longValue(name, -1) == (Character) value;
+        if (value instanceof Float || value instanceof Double)
+            return Double.compare(a.doubleValue(name, Double.NaN), ((Number) value).doubleValue()) == 0;
+        return a.longValue(name, -1) == ((Number) value).longValue();
+    }
+
+    // Load the snapshot from the class path: mapped if it is a file, read into a direct buffer if it is inside a jar or a native image
+    static AnnotationStore load(ClassLoader loader) throws IOException {
+        URL url = loader.getResource(SNAPSHOT_RESOURCE);
+        if (url == null)
+            throw new IOException("No " + SNAPSHOT_RESOURCE + " on the class path; run AnnotationSnapshot after compiling");
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return AnnotationStore.open(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid snapshot location " + url, e);
+            }
+        }
+        try (InputStream in = url.openStream()) {
+            byte[] bytes = in.readAllBytes();
+            return AnnotationStore.wrap(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip());
+        }
+    }
+
+    // Name of a type annotation target type (JVMS 4.7.20), for display
+    static String targetName(int targetType) {
+        switch (targetType) {
+            case 0x00: return "class type parameter";
+            case 0x01: return "method type parameter";
+            case 0x10: return "supertype";
+            case 0x11: return "class type parameter bound";
+            case 0x12: return "method type parameter bound";
+            case 0x13: return "field type";
+            case 0x14: return "return type";
+            case 0x15: return "receiver type";
+            case 0x16: return "parameter type";
+            case 0x17: return "throws";
+            case 0x40: return "local variable";
+            case 0x41: return "resource variable";
+            case 0x42: return "exception parameter";
+            case 0x43: return "instanceof";
+            case 0x44: return "new";
+            case 0x45: case 0x46: return "method reference";
+            case 0x47: return "cast";
+            case 0x48: case 0x49: case 0x4A: case 0x4B: return "type argument";
+            default: return "target 0x" + Integer.toHexString(targetType);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Build step: args are the class path entries to read; the snapshot is written into the first one (a classes directory)
+        List<Path> classPath = new ArrayList<>();
+        for (String a : args.length > 0 ? args : new String[] { AnnotationScanner.classPath().get(0).toString() })
+            classPath.add(Paths.get(a));
+        AnnotationStore built = build(classPath, "com.pbe");
+        Path file = classPath.get(0).resolve(SNAPSHOT_RESOURCE);
+        Files.createDirectories(file.getParent());
+        built.save(file);
+        System.out.println("Wrote " + built.size() + " annotations (" + built.byteSize() + " bytes) to " + file);
+
+        // Check: the snapshot resolves the members like the compile-time index does, defaults included (e.g. 666 for @MyAnnotation() on myMethod)
+        AnnotationIndex compiled = AnnotationIndex.load(AnnotationSnapshot.class.getClassLoader());
+        for (String c : new String[] { "com.pbe.Example_DefaultValues", "com.pbe.Example_DefaultValues2" }) {
+            if (!agreesWithIndex(built, compiled, c)) {
+                System.err.println("The snapshot doesn't agree with the annotation index on " + c);
+                System.exit(1);
+            }
+        }
+
+        // Run time: map the snapshot and list the annotations of Example_TypeAnnotations and SomeClass, without reflection
+        AnnotationStore snapshot = load(AnnotationSnapshot.class.getClassLoader());
+        for (String c : new String[] { "com.pbe.Example_TypeAnnotations", "com.pbe.Example_TypeAnnotations$SomeClass" }) {
+            System.out.println(c + ":");
+            for (AnnotationStore.Cursor a = snapshot.queryClass(c); a.next(); ) {
+                String type = a.annotationType().substring("com.pbe.".length());
+                String where = a.member().isEmpty() ? "class" : a.member();
+                if (a.isTypeAnnotation()) {
+                    ClassFileAnnotationReader.TypeTarget t = a.target();
+                    String index = t.targetType() == 0x10 && t.index() == 0xFFFF ? " (extends)" : t.index() >= 0 ? " " + t.index() : "";
+                    System.out.println("    @" + type + " on " + where + ", " + targetName(t.targetType()) + index
+                            + (t.typePath().isEmpty() ? "" : ", path " + t.typePath()));
+                } else
+                    System.out.println("    @" + type + " on " + where);
+            }
+        }
+    }
+}
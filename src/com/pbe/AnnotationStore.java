@@ -0,0 +1,548 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// *******
+// Store for a very large number of annotation occurrences (e.g. every @What and @MyAnnotation2 of a monorepo), kept outside the Java heap.
+// AnnotationIndex.Element holds an occurrence as a handful of objects (strings, a map, boxed values); millions of them fill the heap
+// and make every garbage collection walk them. The store keeps them in a single direct or memory-mapped ByteBuffer instead:
+// - every string (class, member, annotation type, member name, string value) is stored once, in a sorted string table
+// - occurrences are stored as columns of ints (class, member, annotation type, first value) and bytes (kind),
+//   sorted by annotation type, so all occurrences of one type are a contiguous range
+// - member values are stored as columns too: member name, tag (as in AnnotationIndex) and a long payload
+//   (the value itself for primitives, the string id for strings, enum constants and classes)
+// Arrays and nested annotations are stored as their text form in the string table, e.g. "[1, 2]".
+// Type annotations (ClassFileAnnotationReader.Visitor.visitTypeAnnotation) can be stored too, with their target: the target type,
+// its index and the type path. Declaration annotations have no target (targetType() returns NO_TARGET).
+// Next to the order by type, the store keeps the order of the occurrences by class, so the annotations of one class can be queried too.
+// Queries go through a Cursor, which reads the columns in place and creates no object per occurrence;
+// strings are only decoded when asked for. A store can be saved to a file, and reopened later by mapping the file.
+//
+// File layout (all positions are absolute):
+//   header:      MAGIC, VERSION, string count, occurrence count, value count, and the position of each section
+//   strings:     int[strings + 1] offsets into the string bytes, then the UTF-8 bytes of all strings
+//   occurrences: long-aligned; int[n] class, int[n] member, int[n] type, int[n + 1] first value, int[n] target index, int[n] type path,
+//                int[n] occurrences ordered by class, byte[n] kind, byte[n] target type
+//   values:      long-aligned; long[m] payload, int[m] name, byte[m] tag
+// *******
+final class AnnotationStore {
+
+    static final int MAGIC = 0x50424553; // "PBES"
+    static final short VERSION = 2;
+    static final int NO_TARGET = -1; // target type of a declaration annotation
+    private static final int HEADER_SIZE = 40;
+
+    private final ByteBuffer buf;
+    private final int stringCount, occurrenceCount, valueCount;
+    private final int stringOffsets, stringBytes;
+    private final int classes, members, types, firstValues, targetIndexes, typePaths, byClass, kinds, targets;
+    private final int payloads, names, tags;
+
+    private AnnotationStore(ByteBuffer buf) throws IOException {
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getShort(4) != VERSION)
+            throw new IOException("Not an annotation store (or unsupported version)");
+        this.buf = buf;
+        stringCount = buf.getInt(8);
+        occurrenceCount = buf.getInt(12);
+        valueCount = buf.getInt(16);
+        stringOffsets = buf.getInt(20);
+        stringBytes = stringOffsets + 4 * (stringCount + 1);
+        classes = buf.getInt(24);
+        members = classes + 4 * occurrenceCount;
+        types = members + 4 * occurrenceCount;
+        firstValues = types + 4 * occurrenceCount;
+        targetIndexes = firstValues + 4 * (occurrenceCount + 1);
+        typePaths = targetIndexes + 4 * occurrenceCount;
+        byClass = typePaths + 4 * occurrenceCount;
+        kinds = byClass + 4 * occurrenceCount;
+        targets = kinds + occurrenceCount;
+        payloads = buf.getInt(28);
+        names = payloads + 8 * valueCount;
+        tags = names + 4 * valueCount;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    // Reopen a saved store; the file is mapped, not read, so opening takes the same time whatever its size
+    static AnnotationStore open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new AnnotationStore(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    // Store in a buffer holding the bytes of a saved store, e.g. read from a resource in a jar
+    static AnnotationStore wrap(ByteBuffer bytes) throws IOException {
+        return new AnnotationStore(bytes);
+    }
+
+    // Write the store to a file
+    void save(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer all = buf.duplicate().clear(); // own position and limit, so the store can be saved while other threads query it
+            while (all.hasRemaining())
+                ch.write(all);
+        }
+    }
+
+    // Number of annotation occurrences, of distinct strings, and of bytes used
+    int size() {
+        return occurrenceCount;
+    }
+
+    int stringCount() {
+        return stringCount;
+    }
+
+    int byteSize() {
+        return buf.capacity();
+    }
+
+    // Id of a string in the string table, or -1 if the store doesn't contain it
+    // Resolve member names and compared values once with this, and pass the ids to the Cursor in a loop
+    int stringId(String s) {
+        byte[] key = s.getBytes(StandardCharsets.UTF_8);
+        int low = 0, high = stringCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(mid, key);
+            if (c < 0)
+                low = mid + 1;
+            else if (c > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    // Decode a string of the string table
+    String string(int id) {
+        int start = buf.getInt(stringOffsets + 4 * id);
+        byte[] bytes = new byte[buf.getInt(stringOffsets + 4 * (id + 1)) - start];
+        buf.get(stringBytes + start, bytes); // absolute bulk get, leaves the buffer's position untouched
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Compare string id with key, by unsigned bytes (the order the string table is sorted in)
+    private int compare(int id, byte[] key) {
+        int start = stringBytes + buf.getInt(stringOffsets + 4 * id);
+        int length = buf.getInt(stringOffsets + 4 * (id + 1)) - buf.getInt(stringOffsets + 4 * id);
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = Byte.toUnsignedInt(buf.get(start + i)) - Byte.toUnsignedInt(key[i]);
+            if (c != 0)
+                return c;
+        }
+        return length - key.length;
+    }
+
+    // Cursor over all occurrences
+    Cursor query() {
+        return new Cursor(0, occurrenceCount, -1);
+    }
+
+    // Cursor over the occurrences of one annotation type, given by its binary name, e.g. "com.pbe.What"
+    Cursor query(String annotationType) {
+        int type = stringId(annotationType);
+        if (type < 0)
+            return new Cursor(0, 0, -1);
+        return new Cursor(firstAtLeast(types, -1, type), firstAtLeast(types, -1, type + 1), -1);
+    }
+
+    // Cursor over the annotations of one class (declaration and type annotations), given by its binary name, e.g. "com.pbe.Example_TypeAnnotations$SomeClass"
+    Cursor queryClass(String className) {
+        int c = stringId(className);
+        if (c < 0)
+            return new Cursor(0, 0, -1);
+        return new Cursor(firstAtLeast(classes, byClass, c), firstAtLeast(classes, byClass, c + 1), byClass);
+    }
+
+    // First index in an order at which the column holds an id >= id; the order is the occurrences themselves (-1), or the by-class order
+    private int firstAtLeast(int column, int order, int id) {
+        int low = 0, high = occurrenceCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int occurrence = order < 0 ? mid : buf.getInt(order + 4 * mid);
+            if (buf.getInt(column + 4 * occurrence) < id)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // *******
+    // Iterator-style access to the occurrences of a query. Call next() to move to the following occurrence, then read its columns.
+    // Conditions added with where() are checked on the columns, so occurrences that don't match are skipped without decoding anything.
+    // A cursor is meant for one thread; the store itself can be queried by many threads at once.
+    // *******
+    final class Cursor {
+        private final int end;
+        private final int order; // position of the by-class order, or -1 to go through the occurrences as stored
+        private int index; // position in the order
+        private int current; // the occurrence at that position
+        private int[] whereNames = new int[0];
+        private long[] whereValues = new long[0];
+        private boolean[] whereStrings = new boolean[0]; // whether a condition is on a string id, or on a primitive value
+        private boolean none; // a condition refers to a string that isn't in the store, so nothing can match
+
+        private Cursor(int from, int end, int order) {
+            this.index = from - 1;
+            this.end = end;
+            this.order = order;
+        }
+
+        // Only return occurrences where the member has the given primitive value (booleans as 0 and 1, floats by their bits)
+        Cursor where(String member, long value) {
+            return where(stringId(member), value, false);
+        }
+
+        // Only return occurrences where the member has the given string (or enum constant or class name) value
+        Cursor where(String member, String value) {
+            int id = stringId(value);
+            if (id < 0)
+                none = true;
+            return where(stringId(member), id, true);
+        }
+
+        private Cursor where(int name, long value, boolean string) {
+            if (name < 0)
+                none = true;
+            int n = whereNames.length;
+            whereNames = Arrays.copyOf(whereNames, n + 1);
+            whereValues = Arrays.copyOf(whereValues, n + 1);
+            whereStrings = Arrays.copyOf(whereStrings, n + 1);
+            whereNames[n] = name;
+            whereValues[n] = value;
+            whereStrings[n] = string;
+            return this;
+        }
+
+        // Move to the next matching occurrence; return false when there is none left
+        boolean next() {
+            if (none)
+                return false;
+            while (++index < end) {
+                current = order < 0 ? index : buf.getInt(order + 4 * index);
+                if (matches())
+                    return true;
+            }
+            index = end;
+            return false;
+        }
+
+        // The tag is checked too: a string id and a primitive value with the same payload are not equal
+        private boolean matches() {
+            for (int i = 0; i < whereNames.length; i++) {
+                int v = valueRow(whereNames[i]);
+                if (v < 0 || isString(buf.get(tags + v)) != whereStrings[i] || buf.getLong(payloads + 8 * v) != whereValues[i])
+                    return false;
+            }
+            return true;
+        }
+
+        // Position of the current occurrence in the store
+        int position() {
+            return current;
+        }
+
+        // String ids of the class, member and annotation type of the current occurrence
+        int classId() {
+            return buf.getInt(classes + 4 * current);
+        }
+
+        int memberId() {
+            return buf.getInt(members + 4 * current);
+        }
+
+        int typeId() {
+            return buf.getInt(types + 4 * current);
+        }
+
+        AnnotationIndex.Kind kind() {
+            return AnnotationIndex.Kind.values()[buf.get(kinds + current)];
+        }
+
+        // Target of a type annotation, see ClassFileAnnotationReader.TypeTarget; NO_TARGET for a declaration annotation
+        int targetType() {
+            return buf.get(targets + current) == (byte) NO_TARGET ? NO_TARGET : Byte.toUnsignedInt(buf.get(targets + current));
+        }
+
+        boolean isTypeAnnotation() {
+            return targetType() != NO_TARGET;
+        }
+
+        int targetIndex() {
+            return buf.getInt(targetIndexes + 4 * current);
+        }
+
+        int typePathId() {
+            return buf.getInt(typePaths + 4 * current);
+        }
+
+        ClassFileAnnotationReader.TypeTarget target() {
+            return isTypeAnnotation() ? new ClassFileAnnotationReader.TypeTarget(targetType(), targetIndex(), string(typePathId())) : null;
+        }
+
+        // Decoded names, for display; these create strings
+        String className() {
+            return string(classId());
+        }
+
+        String member() {
+            return string(memberId());
+        }
+
+        String annotationType() {
+            return string(typeId());
+        }
+
+        // Number of member values stored for the current occurrence
+        // (whether defaults are included depends on the source: AnnotationIndex elements and AnnotationSnapshot include them,
+        // elements read straight from class files, e.g. by AnnotationScanner, only hold the values that were set explicitly)
+        int valueCount() {
+            return firstValue(current + 1) - firstValue(current);
+        }
+
+        // Member values by member name id (see stringId()), with a fallback when the occurrence has no such member
+        boolean has(int name) {
+            return valueRow(name) >= 0;
+        }
+
+        int intValue(int name, int otherwise) {
+            int v = valueRow(name);
+            return v < 0 ? otherwise : (int) buf.getLong(payloads + 8 * v);
+        }
+
+        long longValue(int name, long otherwise) {
+            int v = valueRow(name);
+            return v < 0 ? otherwise : buf.getLong(payloads + 8 * v);
+        }
+
+        double doubleValue(int name, double otherwise) {
+            int v = valueRow(name);
+            if (v < 0)
+                return otherwise;
+            long bits = buf.getLong(payloads + 8 * v);
+            return buf.get(tags + v) == 'F' ? Float.intBitsToFloat((int) bits) : Double.longBitsToDouble(bits);
+        }
+
+        // String id of a string, enum, class, array or annotation value; -1 if there is no such member
+        int stringValueId(int name) {
+            int v = valueRow(name);
+            return v < 0 || !isString(buf.get(tags + v)) ? -1 : (int) buf.getLong(payloads + 8 * v);
+        }
+
+        String stringValue(int name) {
+            int id = stringValueId(name);
+            return id < 0 ? null : string(id);
+        }
+
+        // Row of the value of member name of the current occurrence, or -1; an occurrence has few values, so a linear scan is fastest
+        private int valueRow(int name) {
+            for (int v = firstValue(current), last = firstValue(current + 1); v < last; v++)
+                if (buf.getInt(names + 4 * v) == name)
+                    return v;
+            return -1;
+        }
+
+        private int firstValue(int occurrence) {
+            return buf.getInt(firstValues + 4 * occurrence);
+        }
+    }
+
+    private static boolean isString(byte tag) {
+        return tag == 's' || tag == '[';
+    }
+
+    // *******
+    // Collects occurrences on the heap, then lays them out in one direct buffer. Only the builder holds Java objects per occurrence;
+    // once build() returns, the builder can be dropped and the store holds no reference to them.
+    // *******
+    static final class Builder {
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<int[]> occurrences = new ArrayList<>(); // class, member, type, kind, first value, value count, target type, index, path
+        private int[] valueNames = new int[64];
+        private byte[] valueTags = new byte[64];
+        private long[] valuePayloads = new long[64];
+        private int valueCount;
+
+        private Builder() { }
+
+        Builder addAll(Collection<AnnotationIndex.Element> elements) {
+            for (AnnotationIndex.Element e : elements)
+                add(e);
+            return this;
+        }
+
+        // Add a declaration annotation
+        Builder add(AnnotationIndex.Element e) {
+            return add(e, null);
+        }
+
+        // Add a type annotation with its target, or a declaration annotation if target is null
+        Builder add(AnnotationIndex.Element e, ClassFileAnnotationReader.TypeTarget target) {
+            int first = valueCount;
+            for (Map.Entry<String, Object> v : e.values().entrySet())
+                addValue(id(v.getKey()), v.getValue());
+            occurrences.add(new int[] { id(e.className()), id(e.member()), id(e.annotationType()), e.kind().ordinal(), first, valueCount - first,
+                    target != null ? target.targetType() : NO_TARGET, target != null ? target.index() : -1, id(target != null ? target.typePath() : "") });
+            return this;
+        }
+
+        private void addValue(int name, Object value) {
+            if (valueCount == valueNames.length) {
+                valueNames = Arrays.copyOf(valueNames, valueCount * 2);
+                valueTags = Arrays.copyOf(valueTags, valueCount * 2);
+                valuePayloads = Arrays.copyOf(valuePayloads, valueCount * 2);
+            }
+            char tag;
+            long payload;
+            if (value instanceof Boolean) { tag = 'Z'; payload = (Boolean) value ? 1 : 0; }
+            else if (value instanceof Byte) { tag = 'B'; payload = (Byte) value; }
+            else if (value instanceof Character) { tag = 'C'; payload = (Character) value; }
+            else if (value instanceof Short) { tag = 'S'; payload = (Short) value; }
+            else if (value instanceof Integer) { tag = 'I'; payload = (Integer) value; }
+            else if (value instanceof Long) { tag = 'J'; payload = (Long) value; }
+            else if (value instanceof Float) { tag = 'F'; payload = Float.floatToIntBits((Float) value); }
+            else if (value instanceof Double) { tag = 'D'; payload = Double.doubleToLongBits((Double) value); }
+            else if (value instanceof Object[]) { tag = '['; payload = id(Arrays.deepToString((Object[]) value)); }
+            else { tag = 's'; payload = id(String.valueOf(value)); } // strings, enum constants, classes and nested annotations
+            valueNames[valueCount] = name;
+            valueTags[valueCount] = (byte) tag;
+            valuePayloads[valueCount] = payload;
+            valueCount++;
+        }
+
+        private int id(String s) {
+            return strings.computeIfAbsent(s, k -> strings.size());
+        }
+
+        // Lay out the store in a direct buffer
+        AnnotationStore build() {
+            // Sort the string table, and renumber every string id to its sorted position
+            String[] sorted = new String[strings.size()];
+            byte[][] utf8 = new byte[sorted.length][];
+            for (Map.Entry<String, Integer> e : strings.entrySet())
+                sorted[e.getValue()] = e.getKey();
+            Integer[] order = new Integer[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                order[i] = i;
+                utf8[i] = sorted[i].getBytes(StandardCharsets.UTF_8);
+            }
+            Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(utf8[a], utf8[b]));
+            int[] renumber = new int[sorted.length];
+            for (int i = 0; i < order.length; i++)
+                renumber[order[i]] = i;
+
+            // Sort the occurrences by type, then class and member, on the new ids
+            int[][] rows = occurrences.toArray(new int[0][]);
+            for (int[] r : rows) {
+                for (int c = 0; c < 3; c++)
+                    r[c] = renumber[r[c]];
+                r[8] = renumber[r[8]];
+            }
+            Arrays.sort(rows, (a, b) -> a[2] != b[2] ? Integer.compare(a[2], b[2]) : a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+
+            int n = rows.length;
+            long bytes = 0;
+            for (byte[] s : utf8)
+                bytes += s.length;
+            int stringOffsets = HEADER_SIZE;
+            long occurrencesPos = align(stringOffsets + 4L * (order.length + 1) + bytes);
+            long valuesPos = align(occurrencesPos + 28L * n + 4 + 2L * n);
+            long size = valuesPos + 13L * valueCount;
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalStateException("Annotation store too large for a single buffer: " + size + " bytes");
+
+            ByteBuffer buf = ByteBuffer.allocateDirect((int) size);
+            buf.putInt(0, MAGIC).putShort(4, VERSION)
+                    .putInt(8, order.length).putInt(12, n).putInt(16, valueCount)
+                    .putInt(20, stringOffsets).putInt(24, (int) occurrencesPos).putInt(28, (int) valuesPos);
+
+            int offset = 0, stringBytes = stringOffsets + 4 * (order.length + 1);
+            for (int i = 0; i < order.length; i++) {
+                buf.putInt(stringOffsets + 4 * i, offset);
+                buf.put(stringBytes + offset, utf8[order[i]]);
+                offset += utf8[order[i]].length;
+            }
+            buf.putInt(stringOffsets + 4 * order.length, offset);
+
+            // Occurrences, copying their values in the new order so each occurrence's values stay contiguous
+            int classes = (int) occurrencesPos, members = classes + 4 * n, types = members + 4 * n, firstValues = types + 4 * n;
+            int targetIndexes = firstValues + 4 * (n + 1), typePaths = targetIndexes + 4 * n, byClass = typePaths + 4 * n, kinds = byClass + 4 * n, targets = kinds + n;
+            int payloads = (int) valuesPos, names = payloads + 8 * valueCount, tags = names + 4 * valueCount;
+            int v = 0;
+            for (int i = 0; i < n; i++) {
+                int[] r = rows[i];
+                buf.putInt(classes + 4 * i, r[0]).putInt(members + 4 * i, r[1]).putInt(types + 4 * i, r[2]).put(kinds + i, (byte) r[3]);
+                buf.put(targets + i, (byte) r[6]).putInt(targetIndexes + 4 * i, r[7]).putInt(typePaths + 4 * i, r[8]);
+                buf.putInt(firstValues + 4 * i, v);
+                for (int j = r[4], last = r[4] + r[5]; j < last; j++, v++) {
+                    boolean string = isString(valueTags[j]);
+                    buf.putLong(payloads + 8 * v, string ? renumber[(int) valuePayloads[j]] : valuePayloads[j]);
+                    buf.putInt(names + 4 * v, renumber[valueNames[j]]);
+                    buf.put(tags + v, valueTags[j]);
+                }
+            }
+            buf.putInt(firstValues + 4 * n, v);
+
+            // The occurrences in class order (then member), for queryClass()
+            Integer[] classOrder = new Integer[n];
+            for (int i = 0; i < n; i++)
+                classOrder[i] = i;
+            Arrays.sort(classOrder, (a, b) -> rows[a][0] != rows[b][0] ? Integer.compare(rows[a][0], rows[b][0]) : Integer.compare(rows[a][1], rows[b][1]));
+            for (int i = 0; i < n; i++)
+                buf.putInt(byClass + 4 * i, classOrder[i]);
+
+            try {
+                return new AnnotationStore(buf);
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // can't happen, the header was just written
+            }
+        }
+
+        private static long align(long position) {
+            return (position + 7) & ~7L;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Scan the class path for the annotations of com.pbe, store the occurrences off-heap, save the store and reopen it
+        Map<String, List<AnnotationIndex.Element>> found = AnnotationScanner.forPackage("com.pbe").scan(AnnotationScanner.classPath());
+        Builder builder = builder();
+        for (List<AnnotationIndex.Element> elements : found.values())
+            builder.addAll(elements);
+        AnnotationStore built = builder.build();
+
+        Path file = Files.createTempFile("annotations", ".store");
+        built.save(file);
+        AnnotationStore store = open(file);
+        System.out.println(store.size() + " occurrences, " + store.stringCount() + " strings, " + store.byteSize() + " bytes");
+
+        // Every @What, with its description
+        int description = store.stringId("description");
+        for (Cursor c = store.query("com.pbe.What"); c.next(); )
+            System.out.println("@What on " + c.className() + " " + c.member() + ": " + c.stringValue(description));
+
+        // Every @MyAnnotation2 with num == 99
+        int userinput = store.stringId("userinput");
+        for (Cursor c = store.query("com.pbe.MyAnnotation2").where("num", 99); c.next(); )
+            System.out.println("@MyAnnotation2(num=99) on " + c.className() + " " + c.member() + ": " + c.stringValue(userinput));
+        Files.delete(file);
+    }
+}
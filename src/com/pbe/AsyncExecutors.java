@@ -0,0 +1,71 @@
+package com.pbe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// *******
+// Named executors for @Async and @Batched methods (see AsyncMethod and BatchedMethod): @Async(executor = "io") runs on the executor
+// registered as "io", and the empty name selects the default executor.
+// The default executor starts a virtual thread per task when the JVM has them (Java 21 and later): a blocked I/O call then only parks
+// its virtual thread, so thousands of calls can wait at once. Before Java 21 it falls back to a cached pool of daemon threads,
+// which also runs every task at once, but with a platform thread (and its stack) for each task that is in progress.
+// Executors are looked up when a method is wrapped, so register them before.
+// *******
+final class AsyncExecutors {
+
+    private static final ConcurrentHashMap<String, Executor> EXECUTORS = new ConcurrentHashMap<>();
+    private static final boolean VIRTUAL;
+    private static final Executor DEFAULT;
+
+    static {
+        ExecutorService virtual = null;
+        try { // Executors.newVirtualThreadPerTaskExecutor(), looked up so this compiles and runs on Java 17
+            MethodHandle factory = MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class));
+            virtual = (ExecutorService) factory.invokeExact();
+        } catch (Throwable e) { // missing before Java 21, or a preview feature that isn't enabled (Java 19 and 20)
+        }
+        VIRTUAL = virtual != null;
+        DEFAULT = virtual != null ? virtual : Executors.newCachedThreadPool(daemonThreads("pbe-async"));
+    }
+
+    private AsyncExecutors() { }
+
+    // Register an executor under a name, replacing the one registered before
+    static void register(String name, Executor executor) {
+        if (name.isEmpty())
+            throw new IllegalArgumentException("The empty name is reserved for the default executor");
+        EXECUTORS.put(name, executor);
+    }
+
+    // Executor registered under a name, or the default executor for ""
+    static Executor get(String name) {
+        if (name.isEmpty())
+            return DEFAULT;
+        Executor executor = EXECUTORS.get(name);
+        if (executor == null)
+            throw new IllegalArgumentException("No executor registered as \"" + name + "\"");
+        return executor;
+    }
+
+    // Whether the default executor uses virtual threads
+    static boolean usesVirtualThreads() {
+        return VIRTUAL;
+    }
+
+    // Thread factory for daemon threads named prefix-1, prefix-2, ..., which don't keep the JVM alive
+    static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
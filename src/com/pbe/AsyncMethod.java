@@ -0,0 +1,77 @@
+package com.pbe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// *******
+// Wrapper for methods annotated with @Async, in the same way as CachedMethod and InstrumentedMethod: the method's MethodHandle is turned
+// into a handle with the same parameters that returns a CompletableFuture of the result at once, and runs the method on the executor
+// named in the annotation (see AsyncExecutors; by default a virtual thread per call where the JVM has them):
+//   CompletableFuture<?> user = (CompletableFuture<?>) lookupUser.invokeExact(42);
+// The future completes with the result (null for a void method), or exceptionally with what the method threw.
+// The arguments are boxed into an array to hand them to the other thread; next to the cost of starting a task, that is negligible.
+// *******
+final class AsyncMethod {
+
+    private static final MethodHandle SUBMIT;
+
+    static {
+        try {
+            SUBMIT = MethodHandles.lookup().findStatic(AsyncMethod.class, "submit", MethodType.methodType(CompletableFuture.class, Executor.class, MethodHandle.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private AsyncMethod() { }
+
+    // Handle of a method annotated with @Async, taking the method's arguments and returning a CompletableFuture
+    // lookup must have access to the method (e.g. MethodHandles.lookup() from within the same package)
+    static MethodHandle of(MethodHandles.Lookup lookup, Method m) throws IllegalAccessException {
+        Async config = m.getAnnotation(Async.class);
+        if (config == null)
+            throw new IllegalArgumentException(m + " is not annotated with @Async");
+        return async(lookup.unreflect(m), AsyncExecutors.get(config.executor()));
+    }
+
+    // Handles of all methods of a class annotated with @Async, by method name (overloads are not told apart)
+    static Map<String, MethodHandle> forClass(MethodHandles.Lookup lookup, Class<?> c) throws IllegalAccessException {
+        Map<String, MethodHandle> handles = new LinkedHashMap<>();
+        for (Method m : c.getDeclaredMethods())
+            if (m.isAnnotationPresent(Async.class))
+                handles.put(m.getName(), of(lookup, m));
+        return handles;
+    }
+
+    // (args) -> submit(executor, target, new Object[] { args })
+    static MethodHandle async(MethodHandle target, Executor executor) {
+        MethodType type = target.type();
+        int n = type.parameterCount();
+        MethodHandle spread = target.asSpreader(Object[].class, n).asType(MethodType.methodType(Object.class, Object[].class)); // a void result becomes null
+        return MethodHandles.insertArguments(SUBMIT, 0, executor, spread)
+                .asCollector(Object[].class, n)
+                .asType(type.changeReturnType(CompletableFuture.class));
+    }
+
+    private static CompletableFuture<Object> submit(Executor executor, MethodHandle spread, Object[] arguments) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(spread.invokeExact(arguments));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) { // e.g. RejectedExecutionException from an executor that is shut down
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,85 @@
+package com.pbe;
+
+import java.util.Arrays;
+
+// *******
+// Result of validating a batch of objects (see Validation.validateBatch): a bitset with one bit per object and constraint.
+// Bit (object * constraintCount + constraint) is set when the object violates the constraint.
+// Violations are not turned into objects or exceptions, so validating a large batch only touches this array of longs.
+// An instance can be reused for the next batch, which avoids allocating it again.
+// *******
+final class BatchViolations {
+
+    private long[] words = new long[0];
+    private int count, constraints;
+
+    // Clear the bitset, for a batch of count objects checked against a number of constraints
+    void reset(int count, int constraints) {
+        int needed = (int) (((long) count * constraints + 63) >>> 6);
+        if (words.length < needed)
+            words = new long[needed];
+        else
+            Arrays.fill(words, 0, needed, 0L);
+        this.count = count;
+        this.constraints = constraints;
+    }
+
+    // Record that an object violates a constraint
+    void set(int object, int constraint) {
+        int bit = object * constraints + constraint;
+        words[bit >>> 6] |= 1L << bit;
+    }
+
+    boolean violates(int object, int constraint) {
+        int bit = object * constraints + constraint;
+        return (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    // Does an object satisfy all constraints?
+    boolean isValid(int object) {
+        for (int c = 0; c < constraints; c++)
+            if (violates(object, c))
+                return false;
+        return true;
+    }
+
+    // Index of the first invalid object at or after from, or -1 if there is none
+    int nextInvalid(int from) {
+        if (constraints == 0 || from >= count)
+            return -1;
+        int end = (int) (((long) count * constraints + 63) >>> 6);
+        for (int w = (from * constraints) >>> 6; w < end; w++) {
+            long word = words[w];
+            if (w == (from * constraints) >>> 6)
+                word &= -1L << (from * constraints); // ignore the bits of the objects before from
+            if (word != 0)
+                return (w * 64 + Long.numberOfTrailingZeros(word)) / constraints;
+        }
+        return -1;
+    }
+
+    // Number of invalid objects in the batch
+    int invalidCount() {
+        int n = 0;
+        for (int i = nextInvalid(0); i >= 0; i = nextInvalid(i + 1))
+            n++;
+        return n;
+    }
+
+    // Total number of violations in the batch
+    int violationCount() {
+        int n = 0;
+        int end = (int) (((long) count * constraints + 63) >>> 6);
+        for (int w = 0; w < end; w++)
+            n += Long.bitCount(words[w]);
+        return n;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int constraintCount() {
+        return constraints;
+    }
+}
@@ -0,0 +1,190 @@
+package com.pbe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// *******
+// Wrapper for methods annotated with @Batched: calls made at about the same time, from any number of threads, are combined
+// into one call of the bulk method named in the annotation, which takes an array per parameter, e.g. for
+//   @Batched(maxSize = 50, maxDelayMicros = 2000, bulk = "storeAll") static int store(String key, int value)
+//   static int[] storeAll(String[] keys, int[] values)
+// The handle has the method's parameters and returns a CompletableFuture, which completes with the result of the call at the same
+// index in the bulk method's result array (null for void methods), or exceptionally with what the bulk method threw:
+//   CompletableFuture<?> stored = (CompletableFuture<?>) store.handle().invokeExact("key", 1);
+// Calls are queued in a ConcurrentLinkedQueue, which is lock-free: a caller only does a compare-and-set to append its call,
+// and an increment of the number of pending calls, so the callers never block each other.
+// A batch is run on the executor of the annotation (see AsyncExecutors) as soon as maxSize calls are pending,
+// or else maxDelayMicros after the first pending call, by a shared timer thread.
+// Only static methods can be batched: calls on different receivers can't be combined.
+// *******
+final class BatchedMethod {
+
+    private static final MethodHandle SUBMIT;
+
+    // One timer for all batched methods; it only hands the batches over to their executors
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(AsyncExecutors.daemonThreads("pbe-batch-timer"));
+
+    static {
+        try {
+            SUBMIT = MethodHandles.lookup().findVirtual(BatchedMethod.class, "submit", MethodType.methodType(CompletableFuture.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private record Call(Object[] arguments, CompletableFuture<Object> result) { }
+
+    private final Method method;
+    private final int maxSize;
+    private final long maxDelayNanos;
+    private final Executor executor;
+    private final MethodHandle bulk;             // (Object[] arrays)Object, the bulk method spread over its array arguments
+    private final Class<?>[] parameterTypes;
+    private final MethodHandle[] setters;        // (Object array, int, Object)void per parameter, stores (and unboxes) one argument
+    private final MethodHandle resultGetter;     // (Object array, int)Object, reads (and boxes) one result; null for a void method
+    private final MethodHandle handle;
+
+    private final ConcurrentLinkedQueue<Call> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger(); // calls queued and not yet taken by a batch
+    private final AtomicBoolean timerSet = new AtomicBoolean();
+    private final LongAdder calls = new LongAdder(), batches = new LongAdder();
+
+    private BatchedMethod(Method method, Batched config, MethodHandle bulk) {
+        this.method = method;
+        this.maxSize = config.maxSize();
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(config.maxDelayMicros());
+        this.executor = AsyncExecutors.get(config.executor());
+        this.parameterTypes = method.getParameterTypes();
+        this.bulk = bulk.asSpreader(Object[].class, parameterTypes.length).asType(MethodType.methodType(Object.class, Object[].class));
+        this.setters = new MethodHandle[parameterTypes.length];
+        for (int i = 0; i < setters.length; i++)
+            setters[i] = MethodHandles.arrayElementSetter(bulk.type().parameterType(i)).asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+        this.resultGetter = method.getReturnType() == void.class ? null
+                : MethodHandles.arrayElementGetter(bulk.type().returnType()).asType(MethodType.methodType(Object.class, Object.class, int.class));
+        this.handle = SUBMIT.bindTo(this).asCollector(Object[].class, parameterTypes.length)
+                .asType(MethodType.methodType(CompletableFuture.class, parameterTypes));
+    }
+
+    // Wrap a static method annotated with @Batched, together with its bulk method
+    // lookup must have access to both methods (e.g. MethodHandles.lookup() from within the same package)
+    static BatchedMethod of(MethodHandles.Lookup lookup, Method m) throws IllegalAccessException {
+        Batched config = m.getAnnotation(Batched.class);
+        if (config == null)
+            throw new IllegalArgumentException(m + " is not annotated with @Batched");
+        if (!Modifier.isStatic(m.getModifiers()))
+            throw new IllegalArgumentException("@Batched method " + m + " must be static");
+        if (config.maxSize() < 1 || config.maxDelayMicros() < 0)
+            throw new IllegalArgumentException("@Batched method " + m + " needs a maxSize of at least 1 and a maxDelayMicros of at least 0");
+
+        // The bulk method takes an array of each parameter type, and returns an array of the result type (or nothing)
+        Class<?>[] params = m.getParameterTypes();
+        Class<?>[] arrays = new Class<?>[params.length];
+        for (int i = 0; i < params.length; i++)
+            arrays[i] = params[i].arrayType();
+        Method bulk;
+        try {
+            bulk = m.getDeclaringClass().getDeclaredMethod(config.bulk(), arrays);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("No bulk method " + config.bulk() + " taking an array of each parameter of " + m, e);
+        }
+        Class<?> result = m.getReturnType() == void.class ? void.class : m.getReturnType().arrayType();
+        if (!Modifier.isStatic(bulk.getModifiers()) || bulk.getReturnType() != result)
+            throw new IllegalArgumentException("Bulk method " + bulk + " must be static and return " + result.getSimpleName());
+        return new BatchedMethod(m, config, lookup.unreflect(bulk));
+    }
+
+    // Wrap all methods of a class annotated with @Batched, by method name (overloads are not told apart)
+    static Map<String, BatchedMethod> forClass(MethodHandles.Lookup lookup, Class<?> c) throws IllegalAccessException {
+        Map<String, BatchedMethod> methods = new LinkedHashMap<>();
+        for (Method m : c.getDeclaredMethods())
+            if (m.isAnnotationPresent(Batched.class))
+                methods.put(m.getName(), of(lookup, m));
+        return methods;
+    }
+
+    // Handle taking the method's arguments, and returning a CompletableFuture of the result
+    MethodHandle handle() {
+        return handle;
+    }
+
+    Method method() {
+        return method;
+    }
+
+    // Number of calls so far, and of bulk calls they were combined into
+    long calls() {
+        return calls.sum();
+    }
+
+    long batches() {
+        return batches.sum();
+    }
+
+    private CompletableFuture<Object> submit(Object[] arguments) {
+        Call call = new Call(arguments, new CompletableFuture<>());
+        queue.offer(call);
+        calls.increment();
+        int n = pending.incrementAndGet();
+        if (n % maxSize == 0) // a full batch is waiting
+            executor.execute(this::runBatch);
+        else
+            setTimer();
+        return call.result();
+    }
+
+    // Make sure a batch runs within maxDelayMicros; a call that finds the timer set is queued before the timer's batch takes calls
+    private void setTimer() {
+        if (!timerSet.get() && timerSet.compareAndSet(false, true))
+            TIMER.schedule(() -> {
+                timerSet.set(false);
+                executor.execute(this::runBatch);
+            }, maxDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Take up to maxSize calls from the queue, and make one call of the bulk method for them
+    private void runBatch() {
+        Call[] batch = new Call[maxSize];
+        int count = 0;
+        Call call;
+        while (count < maxSize && (call = queue.poll()) != null) {
+            batch[count++] = call;
+            pending.decrementAndGet();
+        }
+        if (pending.get() > 0) // calls left over (or queued meanwhile) get a batch of their own
+            setTimer();
+        if (count == 0)
+            return;
+        batches.increment();
+        try {
+            Object[] arrays = new Object[parameterTypes.length];
+            for (int p = 0; p < arrays.length; p++) {
+                arrays[p] = Array.newInstance(parameterTypes[p], count);
+                for (int i = 0; i < count; i++)
+                    setters[p].invokeExact(arrays[p], i, batch[i].arguments()[p]);
+            }
+            Object results = bulk.invokeExact(arrays);
+            if (resultGetter != null && (results == null || Array.getLength(results) != count))
+                throw new IllegalStateException("Bulk method of " + method.getName() + " returned " + (results == null ? "null" : Array.getLength(results) + " results") + " for " + count + " calls");
+            for (int i = 0; i < count; i++)
+                batch[i].result().complete(resultGetter == null ? null : resultGetter.invokeExact(results, i));
+        } catch (Throwable t) {
+            for (int i = 0; i < count; i++)
+                batch[i].result().completeExceptionally(t);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.pbe;
+
+import java.nio.ByteBuffer;
+
+// *******
+// Binary encoder and decoder of the classes and records marked @Serialize (see Example_Serialization).
+// The encoding is compact and carries no schema: the values of the fields are written one after the other, in declaration order,
+// in the byte order of the buffer (big-endian unless changed), so both sides must use the same version of the class.
+// - primitives: their size in bytes (a boolean takes one byte)
+// - boxed primitives and @Serialize objects: a byte 0 for null, or 1 followed by the value
+// - enums: the ordinal as an int, -1 for null
+// - Strings: the length in UTF-8 bytes as an int (-1 for null), then the bytes
+// - arrays and Lists: the number of elements as an int (-1 for null), then the elements
+//
+// Implementations are generated at compile time by SerializerProcessor (processor module), one per @Serialize type,
+// as straight-line code that reads and assigns the fields directly. Use Serialization to obtain the codec of a class.
+// *******
+interface BinaryCodec<T> {
+
+    // Expected size of an encoded object, to preallocate buffers: exact for fixed-size fields,
+    // and based on @MaxLen for Strings, arrays and Lists (a guess of 16 elements when they carry none)
+    int sizeHint();
+
+    // Write an object at the position of out, and move the position past it
+    // Throws BufferOverflowException if out is too small; the position is then somewhere inside the partly written object
+    void encode(T object, ByteBuffer out);
+
+    // Read an object at the position of in, and move the position past it
+    // Throws BufferUnderflowException if in ends before the object does, and IllegalArgumentException on a negative or too large length,
+    // or an unknown enum ordinal
+    T decode(ByteBuffer in);
+}
@@ -0,0 +1,205 @@
+package com.pbe;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+// *******
+// Concurrent cache with a maximum size, an optional time to live, and one of the eviction policies of @Cached:
+// - LRU:        evict the entry that was used least recently
+// - LFU:        evict the entry that was used least often
+// - W_TINY_LFU: evict the least recently used entry, but only admit a new entry if it is used more often than the one it would replace;
+//               how often a key is used is estimated with a small count-min sketch, which also remembers keys that are not (or no longer) cached
+// Lookups never take a lock: they are a ConcurrentHashMap get, plus a plain write of the access time (or a count) on the entry.
+// Eviction is approximate, as in Redis: instead of keeping all entries in policy order, it samples SAMPLES entries and evicts the worst of them.
+// Inserting (on a miss) takes a lock, but a miss means the cached method is being run anyway.
+// The "W" of W-TinyLFU (a small LRU window in front of the main cache, for bursts of new keys) is left out; frequency-based admission is the part that matters here.
+// Hits, misses (expired entries included) and evictions are counted with LongAdders, which don't contend between threads.
+// *******
+final class BoundedCache<K, V> {
+
+    static final int SAMPLES = 8;
+
+    // Counters of a cache at one point in time
+    record Stats(long hits, long misses, long evictions, int size) {
+        double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final long expires; // System.nanoTime() after which the entry is stale, or Long.MAX_VALUE
+        long lastAccess; // written without synchronization: a stale read only makes an eviction choice slightly less accurate
+        int uses;
+        int slot; // position in slots
+
+        Node(K key, V value, long expires) {
+            this.key = key;
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Cached.Policy policy;
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    private final Node<K, V>[] slots; // all entries in no particular order, to sample from; guarded by the lock of this cache
+    private int size;
+    private final FrequencySketch sketch; // W_TINY_LFU only
+
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    BoundedCache(int maxSize, long ttlMillis, Cached.Policy policy) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis > 0 ? ttlMillis * 1_000_000 : 0;
+        this.policy = policy;
+        this.map = new ConcurrentHashMap<>(Math.min(maxSize, 1 << 16));
+        this.slots = (Node<K, V>[]) new Node<?, ?>[maxSize];
+        this.sketch = policy == Cached.Policy.W_TINY_LFU ? new FrequencySketch(maxSize) : null;
+    }
+
+    // Cache configured by a @Cached annotation
+    static <K, V> BoundedCache<K, V> of(Cached config) {
+        return new BoundedCache<>(config.maxSize(), config.ttlMillis(), config.policy());
+    }
+
+    // Return the cached value for key, or null on a miss (an absent or expired entry)
+    V get(K key) {
+        if (sketch != null)
+            sketch.increment(key.hashCode());
+        Node<K, V> n = map.get(key);
+        if (n == null || n.expires != Long.MAX_VALUE && System.nanoTime() - n.expires > 0) {
+            misses.increment();
+            return null;
+        }
+        n.lastAccess = System.nanoTime();
+        n.uses++;
+        hits.increment();
+        return n.value;
+    }
+
+    // Cache a value, evicting an entry if the cache is full; the value may be rejected by W_TINY_LFU admission
+    synchronized void put(K key, V value) {
+        Node<K, V> n = new Node<>(key, value, ttlNanos > 0 ? System.nanoTime() + ttlNanos : Long.MAX_VALUE);
+        n.lastAccess = System.nanoTime();
+        n.uses = 1;
+        Node<K, V> old = map.get(key);
+        if (old != null) { // replace an entry (e.g. an expired one) in its slot
+            n.slot = old.slot;
+            slots[n.slot] = n;
+            map.put(key, n);
+            return;
+        }
+        if (size == maxSize) {
+            Node<K, V> victim = sample();
+            if (sketch != null && sketch.frequency(key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+                evictions.increment(); // the new entry is not worth the space of the victim, so it's the one that goes
+                return;
+            }
+            remove(victim);
+            evictions.increment();
+        }
+        n.slot = size;
+        slots[size++] = n;
+        map.put(key, n);
+    }
+
+    // Worst of a few randomly chosen entries according to the policy; expired entries go first
+    private Node<K, V> sample() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now = System.nanoTime();
+        Node<K, V> worst = null;
+        for (int i = 0; i < Math.min(SAMPLES, size); i++) {
+            Node<K, V> n = slots[random.nextInt(size)];
+            if (n.expires != Long.MAX_VALUE && now - n.expires > 0)
+                return n;
+            if (worst == null || (policy == Cached.Policy.LFU ? n.uses < worst.uses : n.lastAccess - worst.lastAccess < 0))
+                worst = n;
+        }
+        return worst;
+    }
+
+    private void remove(Node<K, V> n) {
+        map.remove(n.key, n);
+        Node<K, V> last = slots[--size];
+        slots[n.slot] = last;
+        last.slot = n.slot;
+        slots[size] = null;
+    }
+
+    synchronized void clear() {
+        map.clear();
+        Arrays.fill(slots, 0, size, null);
+        size = 0;
+    }
+
+    Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), map.size());
+    }
+
+    // *******
+    // Count-min sketch of how often keys are used: 4 rows of 4-bit counters, packed 16 to a long.
+    // A key's frequency is the smallest of its 4 counters (each row uses a different hash), so collisions can only make it higher.
+    // After 10 * maxSize increments all counters are halved, so the sketch follows changes in what is popular.
+    // Increments are not atomic: under contention a few are lost, which doesn't matter for an estimate.
+    // *******
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maxSize) {
+            int length = Integer.highestOneBit(Math.max(4, maxSize) - 1) << 1; // power of two, at least maxSize longs of 16 counters
+            table = new long[length];
+            mask = length - 1;
+            sampleSize = 10 * Math.max(maxSize, 16);
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int index = index(hash, row);
+                int shift = counterShift(hash, row);
+                if ((table[index] >>> shift & 0xf) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize)
+                halve();
+        }
+
+        int frequency(int hash) {
+            int min = 15;
+            for (int row = 0; row < 4; row++)
+                min = Math.min(min, (int) (table[index(hash, row)] >>> counterShift(hash, row) & 0xf));
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            return (int) (h >>> 32) & mask;
+        }
+
+        // Which of the 16 counters in the long is used: 4 bits of the hash, different bits for each row
+        private static int counterShift(int hash, int row) {
+            return (hash >>> (row << 3) & 0xf) << 2;
+        }
+
+        private void halve() {
+            additions = 0;
+            for (int i = 0; i < table.length; i++)
+                table[i] = table[i] >>> 1 & 0x7777777777777777L; // halve each 4-bit counter
+        }
+    }
+}
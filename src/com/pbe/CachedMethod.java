@@ -0,0 +1,221 @@
+package com.pbe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// *******
+// Interceptor for methods annotated with @Cached: wraps the method's MethodHandle with a BoundedCache, configured by the annotation.
+// The wrapped handle has the same type as the method (with the receiver as first parameter for an instance method),
+// so it is called with invokeExact and the exact signature, like the handles of AnnotatedMethodDispatcher:
+//   int sum = (int) cached.handle().invokeExact("1234", 10);
+// The cache key is built by a handle too, from the arguments as they are: up to 2 reference and 2 primitive arguments
+// go into the fields of a Key (ints, chars and booleans widened to long, floats and doubles by their bits), so primitive arguments are never boxed.
+// Methods with more arguments of one kind fall back to a key holding all arguments in an Object[], which does box primitives.
+// The result of the method is cached as an Object, so a primitive result is boxed once, when it is stored.
+// The cached method should be a pure function of its arguments (and receiver): same arguments, same result, no side effects.
+// *******
+final class CachedMethod {
+
+    private static final Object NULL = new Object(); // cached in place of a null result
+
+    private static final MethodHandle KEY, KEY_OF_ARRAY, FLOAT_BITS, DOUBLE_BITS, LOOKUP, STORE, IS_HIT, UNWRAP;
+
+    static {
+        try {
+            MethodHandles.Lookup l = MethodHandles.lookup();
+            KEY = l.findConstructor(Key.class, MethodType.methodType(void.class, Object.class, Object.class, long.class, long.class));
+            KEY_OF_ARRAY = l.findStatic(Key.class, "of", MethodType.methodType(Key.class, Object[].class));
+            FLOAT_BITS = l.findStatic(CachedMethod.class, "floatBits", MethodType.methodType(long.class, float.class));
+            DOUBLE_BITS = l.findStatic(Double.class, "doubleToLongBits", MethodType.methodType(long.class, double.class));
+            LOOKUP = l.findStatic(CachedMethod.class, "lookup", MethodType.methodType(Object.class, BoundedCache.class, Key.class));
+            STORE = l.findStatic(CachedMethod.class, "store", MethodType.methodType(Object.class, BoundedCache.class, Key.class, Object.class));
+            IS_HIT = l.findStatic(Objects.class, "nonNull", MethodType.methodType(boolean.class, Object.class));
+            UNWRAP = l.findStatic(CachedMethod.class, "unwrap", MethodType.methodType(Object.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Method method;
+    private final BoundedCache<Key, Object> cache;
+    private final MethodHandle handle;
+
+    private CachedMethod(Method method, BoundedCache<Key, Object> cache, MethodHandle handle) {
+        this.method = method;
+        this.cache = cache;
+        this.handle = handle;
+    }
+
+    // Wrap a method annotated with @Cached
+    // lookup must have access to the method (e.g. MethodHandles.lookup() from within the same package)
+    static CachedMethod of(MethodHandles.Lookup lookup, Method m) throws IllegalAccessException {
+        Cached config = m.getAnnotation(Cached.class); // read once, when the method is wrapped
+        if (config == null)
+            throw new IllegalArgumentException(m + " is not annotated with @Cached");
+        if (m.getReturnType() == void.class)
+            throw new IllegalArgumentException("@Cached method " + m + " has no result to cache");
+        BoundedCache<Key, Object> cache = BoundedCache.of(config);
+        return new CachedMethod(m, cache, cached(lookup.unreflect(m), cache));
+    }
+
+    // Wrap all methods of a class annotated with @Cached, keyed by member name as in AnnotationIndex, e.g. "digitSum(java.lang.String,int)"
+    static Map<String, CachedMethod> forClass(MethodHandles.Lookup lookup, Class<?> c) throws IllegalAccessException {
+        Map<String, CachedMethod> methods = new LinkedHashMap<>();
+        for (Method m : c.getDeclaredMethods())
+            if (m.isAnnotationPresent(Cached.class))
+                methods.put(memberName(m), of(lookup, m));
+        return methods;
+    }
+
+    private static String memberName(Method m) {
+        StringBuilder sb = new StringBuilder(m.getName()).append('(');
+        Class<?>[] params = m.getParameterTypes();
+        for (int i = 0; i < params.length; i++)
+            sb.append(i > 0 ? "," : "").append(params[i].getTypeName());
+        return sb.append(')').toString();
+    }
+
+    // The method, with the cache in front of it
+    MethodHandle handle() {
+        return handle;
+    }
+
+    Method method() {
+        return method;
+    }
+
+    BoundedCache.Stats stats() {
+        return cache.stats();
+    }
+
+    void invalidateAll() {
+        cache.clear();
+    }
+
+    // Build the handle (args) -> { Key k = key(args); Object v = cache.get(k); return v != null ? unwrap(v) : store(k, target(args)); }
+    private static MethodHandle cached(MethodHandle target, BoundedCache<Key, Object> cache) {
+        MethodType type = target.type();
+        List<Class<?>> params = type.parameterList();
+        List<Class<?>> keyAndParams = new ArrayList<>(params);
+        keyAndParams.add(0, Key.class);
+
+        // (Key, args) -> store(key, target(args))
+        MethodHandle compute = MethodHandles.collectArguments(STORE.bindTo(cache), 1, target.asType(type.changeReturnType(Object.class)));
+        // (Object cached, Key, args) -> cached != null ? unwrap(cached) : compute(key, args)
+        MethodHandle select = MethodHandles.guardWithTest(
+                MethodHandles.dropArguments(IS_HIT, 1, keyAndParams),
+                MethodHandles.dropArguments(UNWRAP, 1, keyAndParams),
+                MethodHandles.dropArguments(compute, 0, Object.class));
+        // (Key, args) -> select(cache.get(key), key, args)
+        MethodHandle withLookup = MethodHandles.foldArguments(select, LOOKUP.bindTo(cache));
+        // (args) -> withLookup(key(args), args)
+        MethodHandle withKey = MethodHandles.foldArguments(withLookup, keyBuilder(type.changeReturnType(Key.class)));
+        return withKey.asType(type);
+    }
+
+    // Handle of the given type (args)Key, which puts the arguments in the fields of a Key without boxing them
+    private static MethodHandle keyBuilder(MethodType type) {
+        List<Integer> refs = new ArrayList<>(), prims = new ArrayList<>();
+        for (int i = 0; i < type.parameterCount(); i++)
+            (type.parameterType(i).isPrimitive() ? prims : refs).add(i);
+        if (refs.size() > 2 || prims.size() > 2)
+            return KEY_OF_ARRAY.asCollector(Object[].class, type.parameterCount()).asType(type);
+
+        // Fill the unused fields with constants, last field first so the positions of the others don't shift
+        MethodHandle k = KEY;
+        for (int slot = 1; slot >= prims.size(); slot--)
+            k = MethodHandles.insertArguments(k, 2 + slot, 0L);
+        for (int slot = 1; slot >= refs.size(); slot--)
+            k = MethodHandles.insertArguments(k, slot, (Object) null);
+
+        // k now takes (refs.., prims.. as long); turn floats and doubles into their bits, and widen the other primitives
+        List<Class<?>> order = new ArrayList<>();
+        int[] reorder = new int[refs.size() + prims.size()];
+        int n = 0;
+        for (int i : refs) {
+            order.add(type.parameterType(i));
+            reorder[n++] = i;
+        }
+        for (int i : prims) {
+            Class<?> p = type.parameterType(i);
+            if (p == float.class || p == double.class)
+                k = MethodHandles.filterArguments(k, n, p == float.class ? FLOAT_BITS : DOUBLE_BITS);
+            order.add(p);
+            reorder[n++] = i;
+        }
+        k = MethodHandles.explicitCastArguments(k, MethodType.methodType(Key.class, order)); // int, char, .. to long; boolean to 0 or 1
+        return MethodHandles.permuteArguments(k, type, reorder);
+    }
+
+    // Helpers called from the handles
+
+    private static long floatBits(float f) {
+        return Float.floatToIntBits(f);
+    }
+
+    private static Object lookup(BoundedCache<Key, Object> cache, Key key) {
+        return cache.get(key);
+    }
+
+    private static Object store(BoundedCache<Key, Object> cache, Key key, Object value) {
+        cache.put(key, value == null ? NULL : value);
+        return value;
+    }
+
+    private static Object unwrap(Object cached) {
+        return cached == NULL ? null : cached;
+    }
+
+    // *******
+    // Cache key of a call: the reference arguments in r0 and r1, the primitive arguments (as long bits) in p0 and p1
+    // For a method with more than 2 arguments of one kind, all arguments are in an array, in r0
+    // *******
+    static final class Key {
+        private final Object r0, r1;
+        private final long p0, p1;
+        private final int hash;
+
+        Key(Object r0, Object r1, long p0, long p1) {
+            this.r0 = r0;
+            this.r1 = r1;
+            this.p0 = p0;
+            this.p1 = p1;
+            this.hash = ((Objects.hashCode(r0) * 31 + Objects.hashCode(r1)) * 31 + Long.hashCode(p0)) * 31 + Long.hashCode(p1);
+        }
+
+        static Key of(Object[] arguments) {
+            return new Key(new ArgumentArray(arguments), null, 0, 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && hash == k.hash && p0 == k.p0 && p1 == k.p1 && Objects.equals(r0, k.r0) && Objects.equals(r1, k.r1);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // Array of arguments compared by content
+    private record ArgumentArray(Object[] arguments) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ArgumentArray a && Arrays.equals(arguments, a.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(arguments);
+        }
+    }
+}
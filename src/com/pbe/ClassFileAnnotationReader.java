@@ -0,0 +1,415 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// *******
+// Streaming reader for the annotations stored in .class files.
+// Reflection (Class.forName, getAnnotations(), ..) loads and initializes a class before its annotations can be read, which runs static initializers and fills metaspace.
+// This reader parses the class file bytes directly instead, and reports the annotations found in:
+// - RuntimeVisibleAnnotations / RuntimeInvisibleAnnotations, on the class, its fields and its methods
+// - RuntimeVisibleTypeAnnotations / RuntimeInvisibleTypeAnnotations, including those in the Code attribute (casts, new, local variables)
+// - AnnotationDefault, on the members of an annotation type: the default values, which the annotations using them don't store
+// Note that annotations without @Retention(RUNTIME) (such as Whatthen, EmptyOK and Recommended in Example_TypeAnnotations) end up in the Invisible attributes:
+// reflection never sees them, but this reader does.
+//
+// The constant pool is skipped lazily: the first pass only records the offset of each entry, strings are decoded when an annotation refers to them.
+// The reader works on a ByteBuffer, which can be a slice of a memory-mapped file (see MappedJar), so class bytes are never copied onto the heap.
+// A reader keeps its buffers between classes to avoid garbage, which means a single reader must not be shared between threads.
+// *******
+final class ClassFileAnnotationReader {
+
+    // Receives the annotations found by the reader
+    // Annotation types and class names are given as binary names (e.g. com.pbe.MyAnno).
+    // Members are named as in AnnotationIndex: "" for the class, the field name, or e.g. "myMethod(java.lang.String,int)".
+    interface Visitor {
+        // Return false to skip an annotation type; its member values are then never decoded
+        default boolean accept(String annotationType) {
+            return true;
+        }
+
+        // Called for each declaration annotation
+        // container is the binary name of the container annotation (e.g. com.pbe.MyRepeatedAnnos) for an annotation that was repeated, or null
+        default void visitAnnotation(AnnotationIndex.Element annotation, String container, boolean runtimeVisible) { }
+
+        // Called for each type annotation
+        default void visitTypeAnnotation(AnnotationIndex.Element annotation, TypeTarget target, boolean runtimeVisible) { }
+
+        // Return true to get the default values of an annotation type when its own class file is read; off unless asked for
+        default boolean acceptDefaults(String annotationType) {
+            return false;
+        }
+
+        // Called for each member with a default value (the AnnotationDefault attributes of an annotation type's class file)
+        // member is the plain member name, e.g. "num"
+        default void visitDefault(String annotationType, String member, Object value) { }
+    }
+
+    // Location of a type annotation (JVMS 4.7.20)
+    // targetType is the target_type constant, e.g. 0x13 for a field type or 0x14 for a method return type.
+    // index is the first index from target_info (type parameter, parameter, supertype or exception index), or -1 if it has none.
+    // For a supertype, index 65535 means the superclass (the extends clause), as in Example_TypeAnnotations.SomeClass.
+    // typePath describes the position inside a compound type: '[' array element, '.' nested type, '*' wildcard bound, "n;" type argument n.
+    // E.g. for String @MaxLen(num=99) [] @NotZeroLen [] w, @MaxLen has path "" and @NotZeroLen has path "[".
+    record TypeTarget(int targetType, int index, String typePath) { }
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private ByteBuffer buf;
+    private int[] cpOffsets = new int[256]; // offset of each constant pool entry (of its tag byte)
+    private String[] cpStrings = new String[256]; // decoded UTF8 entries, filled in lazily
+    private byte[] chars = new byte[256];
+
+    private String className;
+    private String member;
+    private String methodName; // plain name of the current method, for AnnotationDefault
+    private AnnotationIndex.Kind kind;
+
+    // Read the annotations of a single class file
+    // The buffer's position and limit delimit the class file, and are left unchanged
+    void read(ByteBuffer classFile, Visitor visitor) {
+        buf = classFile.slice(); // new buffers are big-endian, as required for class files
+        if (buf.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not a class file");
+
+        int pos = readConstantPool();
+        className = binaryName(classNameAt(u2(pos + 2)));
+        pos += 6; // access_flags, this_class, super_class
+        pos += 2 + 2 * u2(pos); // interfaces
+
+        int fields = u2(pos);
+        pos += 2;
+        for (int i = 0; i < fields; i++) {
+            kind = AnnotationIndex.Kind.FIELD;
+            member = utf8(u2(pos + 2));
+            pos = readAttributes(pos + 6, visitor);
+        }
+
+        int methods = u2(pos);
+        pos += 2;
+        for (int i = 0; i < methods; i++) {
+            String name = utf8(u2(pos + 2));
+            kind = name.equals("<init>") ? AnnotationIndex.Kind.CONSTRUCTOR : AnnotationIndex.Kind.METHOD;
+            member = memberName(name, utf8(u2(pos + 4)));
+            methodName = name;
+            pos = readAttributes(pos + 6, visitor);
+        }
+
+        kind = AnnotationIndex.Kind.TYPE;
+        member = "";
+        readAttributes(pos, visitor);
+        buf = null;
+    }
+
+    // Read a single .class file, memory-mapped
+    void read(Path classFile, Visitor visitor) throws IOException {
+        try (FileChannel ch = FileChannel.open(classFile, StandardOpenOption.READ)) {
+            read(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), visitor);
+        }
+    }
+
+    // Read all classes in a directory tree, a jar file or a single class file
+    void scan(Path location, Visitor visitor) throws IOException {
+        if (Files.isDirectory(location)) {
+            try (Stream<Path> files = Files.walk(location)) {
+                for (Path p : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".class"))::iterator)
+                    read(p, visitor);
+            }
+        } else if (location.toString().endsWith(".class")) {
+            read(location, visitor);
+        } else {
+            MappedJar.forEachClass(location, (name, bytes) -> read(bytes, visitor));
+        }
+    }
+
+    // Record the offset of every constant pool entry, without decoding any of them; return the offset just past the pool
+    private int readConstantPool() {
+        int count = u2(8);
+        if (cpOffsets.length < count) {
+            cpOffsets = new int[count];
+            cpStrings = new String[count];
+        } else {
+            Arrays.fill(cpStrings, 0, count, null);
+        }
+        int pos = 10;
+        for (int i = 1; i < count; i++) {
+            cpOffsets[i] = pos;
+            switch (buf.get(pos)) {
+                case 1: pos += 3 + u2(pos + 1); break; // Utf8
+                case 3: case 4: pos += 5; break; // Integer, Float
+                case 5: case 6: pos += 9; i++; break; // Long, Double take two slots
+                case 7: case 8: case 16: case 19: case 20: pos += 3; break; // Class, String, MethodType, Module, Package
+                case 9: case 10: case 11: case 12: case 17: case 18: pos += 5; break; // refs, NameAndType, Dynamic, InvokeDynamic
+                case 15: pos += 4; break; // MethodHandle
+                default: throw new IllegalArgumentException("Unknown constant pool tag " + buf.get(pos) + " at " + pos);
+            }
+        }
+        return pos;
+    }
+
+    // Read an attribute table, handling the annotation attributes (and the Code attribute, which holds type annotations on casts etc.)
+    private int readAttributes(int pos, Visitor visitor) {
+        int count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            String name = utf8(u2(pos));
+            int length = buf.getInt(pos + 2);
+            int body = pos + 6;
+            switch (name) {
+                case "RuntimeVisibleAnnotations": readAnnotations(body, visitor, true); break;
+                case "RuntimeInvisibleAnnotations": readAnnotations(body, visitor, false); break;
+                case "RuntimeVisibleTypeAnnotations": readTypeAnnotations(body, visitor, true); break;
+                case "RuntimeInvisibleTypeAnnotations": readTypeAnnotations(body, visitor, false); break;
+                case "AnnotationDefault": {
+                    if (visitor.acceptDefaults(className))
+                        visitor.visitDefault(className, methodName, readValue(new int[] { body }));
+                    break;
+                }
+                case "Code": {
+                    int p = body + 8 + buf.getInt(body + 4); // max_stack, max_locals, code_length, code
+                    p += 2 + 8 * u2(p); // exception table
+                    readAttributes(p, visitor);
+                    break;
+                }
+                default: break;
+            }
+            pos = body + length;
+        }
+        return pos;
+    }
+
+    private void readAnnotations(int pos, Visitor visitor, boolean visible) {
+        int count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            String type = binaryName(descriptorName(utf8(u2(pos))));
+            if (!visitor.accept(type)) {
+                pos = skipAnnotation(pos);
+                continue;
+            }
+            int[] cursor = { pos };
+            AnnotationIndex.Element a = readAnnotation(cursor);
+            pos = cursor[0];
+            visitor.visitAnnotation(a, null, visible);
+
+            // A container annotation (e.g. MyRepeatedAnnos) holds the repeated annotations in its value member
+            // The class file doesn't record that it is a container, so any annotation with a single value member of nested annotations is treated as one
+            if (a.values().size() == 1 && a.values().get("value") instanceof Object[]) {
+                for (Object nested : (Object[]) a.values().get("value"))
+                    if (nested instanceof AnnotationIndex.Element && visitor.accept(((AnnotationIndex.Element) nested).annotationType()))
+                        visitor.visitAnnotation((AnnotationIndex.Element) nested, type, visible);
+            }
+        }
+    }
+
+    private void readTypeAnnotations(int pos, Visitor visitor, boolean visible) {
+        int count = u2(pos);
+        pos += 2;
+        for (int i = 0; i < count; i++) {
+            int targetType = buf.get(pos++) & 0xFF;
+            int index = -1;
+            switch (targetType) {
+                case 0x00: case 0x01: case 0x16: index = buf.get(pos) & 0xFF; pos += 1; break; // type parameter, formal parameter
+                case 0x10: case 0x17: index = u2(pos); pos += 2; break; // supertype, throws
+                case 0x11: case 0x12: index = buf.get(pos) & 0xFF; pos += 2; break; // type parameter bound
+                case 0x13: case 0x14: case 0x15: break; // field, return type, receiver
+                case 0x40: case 0x41: pos += 2 + 6 * u2(pos); break; // local variables
+                case 0x42: index = u2(pos); pos += 2; break; // catch
+                case 0x43: case 0x44: case 0x45: case 0x46: pos += 2; break; // instanceof, new, method references
+                case 0x47: case 0x48: case 0x49: case 0x4A: case 0x4B: index = buf.get(pos + 2) & 0xFF; pos += 3; break; // casts, type arguments
+                default: throw new IllegalArgumentException("Unknown type annotation target " + targetType);
+            }
+
+            int pathLength = buf.get(pos++) & 0xFF;
+            StringBuilder path = new StringBuilder(pathLength * 2);
+            for (int j = 0; j < pathLength; j++, pos += 2) {
+                switch (buf.get(pos)) {
+                    case 0: path.append('['); break;
+                    case 1: path.append('.'); break;
+                    case 2: path.append('*'); break;
+                    default: path.append(buf.get(pos + 1) & 0xFF).append(';'); break;
+                }
+            }
+
+            String type = binaryName(descriptorName(utf8(u2(pos))));
+            if (!visitor.accept(type)) {
+                pos = skipAnnotation(pos);
+                continue;
+            }
+            int[] cursor = { pos };
+            AnnotationIndex.Element a = readAnnotation(cursor);
+            pos = cursor[0];
+            visitor.visitTypeAnnotation(a, new TypeTarget(targetType, index, path.toString()), visible);
+        }
+    }
+
+    // Decode an annotation structure at cursor[0] (type_index, num_element_value_pairs, element_value_pairs)
+    private AnnotationIndex.Element readAnnotation(int[] cursor) {
+        int pos = cursor[0];
+        String type = binaryName(descriptorName(utf8(u2(pos))));
+        int pairs = u2(pos + 2);
+        cursor[0] = pos + 4;
+        Map<String, Object> values = pairs == 0 ? Collections.emptyMap() : new LinkedHashMap<>();
+        for (int i = 0; i < pairs; i++) {
+            String name = utf8(u2(cursor[0]));
+            cursor[0] += 2;
+            values.put(name, readValue(cursor));
+        }
+        return new AnnotationIndex.Element(className, member, kind, type, pairs == 0 ? values : Collections.unmodifiableMap(values));
+    }
+
+    // Decode an element_value at cursor[0]
+    // Note that only members set explicitly are stored with an annotation; default values live in the annotation type's own class file
+    // (see Visitor.visitDefault)
+    private Object readValue(int[] cursor) {
+        int pos = cursor[0];
+        char tag = (char) buf.get(pos);
+        switch (tag) {
+            case 'B': cursor[0] = pos + 3; return (byte) buf.getInt(cpOffsets[u2(pos + 1)] + 1);
+            case 'C': cursor[0] = pos + 3; return (char) buf.getInt(cpOffsets[u2(pos + 1)] + 1);
+            case 'S': cursor[0] = pos + 3; return (short) buf.getInt(cpOffsets[u2(pos + 1)] + 1);
+            case 'Z': cursor[0] = pos + 3; return buf.getInt(cpOffsets[u2(pos + 1)] + 1) != 0;
+            case 'I': cursor[0] = pos + 3; return buf.getInt(cpOffsets[u2(pos + 1)] + 1);
+            case 'F': cursor[0] = pos + 3; return buf.getFloat(cpOffsets[u2(pos + 1)] + 1);
+            case 'J': cursor[0] = pos + 3; return buf.getLong(cpOffsets[u2(pos + 1)] + 1);
+            case 'D': cursor[0] = pos + 3; return buf.getDouble(cpOffsets[u2(pos + 1)] + 1);
+            case 's': cursor[0] = pos + 3; return utf8(u2(pos + 1));
+            case 'e': cursor[0] = pos + 5; return binaryName(descriptorName(utf8(u2(pos + 1)))) + "." + utf8(u2(pos + 3));
+            case 'c': cursor[0] = pos + 3; return typeName(utf8(u2(pos + 1)), new int[] { 0 });
+            case '@': cursor[0] = pos + 1; return readAnnotation(cursor);
+            case '[': {
+                int n = u2(pos + 1);
+                cursor[0] = pos + 3;
+                Object[] array = new Object[n];
+                for (int i = 0; i < n; i++)
+                    array[i] = readValue(cursor);
+                return array;
+            }
+            default: throw new IllegalArgumentException("Unknown element value tag " + tag);
+        }
+    }
+
+    private int skipAnnotation(int pos) {
+        int pairs = u2(pos + 2);
+        pos += 4;
+        for (int i = 0; i < pairs; i++)
+            pos = skipValue(pos + 2);
+        return pos;
+    }
+
+    private int skipValue(int pos) {
+        switch ((char) buf.get(pos)) {
+            case 'e': return pos + 5;
+            case '@': return skipAnnotation(pos + 1);
+            case '[': {
+                int n = u2(pos + 1);
+                pos += 3;
+                for (int i = 0; i < n; i++)
+                    pos = skipValue(pos);
+                return pos;
+            }
+            default: return pos + 3;
+        }
+    }
+
+    private int u2(int pos) {
+        return Short.toUnsignedInt(buf.getShort(pos));
+    }
+
+    private String classNameAt(int classIndex) {
+        return utf8(u2(cpOffsets[classIndex] + 1));
+    }
+
+    // Decode a CONSTANT_Utf8 entry on first use
+    private String utf8(int index) {
+        String s = cpStrings[index];
+        if (s == null) {
+            int p = cpOffsets[index];
+            int length = u2(p + 1);
+            if (chars.length < length)
+                chars = new byte[Math.max(length, chars.length * 2)];
+            buf.get(p + 3, chars, 0, length);
+            s = decodeModifiedUtf8(chars, length);
+            cpStrings[index] = s;
+        }
+        return s;
+    }
+
+    // Class files use "modified UTF-8", which differs from UTF-8 only in the encoding of \0 and supplementary characters
+    private static String decodeModifiedUtf8(byte[] bytes, int length) {
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++)
+            ascii = bytes[i] >= 0;
+        if (ascii)
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+
+        char[] out = new char[length];
+        int n = 0;
+        for (int i = 0; i < length; ) {
+            int b = bytes[i++] & 0xFF;
+            if (b < 0x80)
+                out[n++] = (char) b;
+            else if ((b & 0xE0) == 0xC0)
+                out[n++] = (char) (((b & 0x1F) << 6) | (bytes[i++] & 0x3F));
+            else
+                out[n++] = (char) (((b & 0x0F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F));
+        }
+        return new String(out, 0, n);
+    }
+
+    // "com/pbe/MyAnno" -> "com.pbe.MyAnno"
+    private static String binaryName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    // "Lcom/pbe/MyAnno;" -> "com/pbe/MyAnno"
+    private static String descriptorName(String descriptor) {
+        return descriptor.substring(1, descriptor.length() - 1);
+    }
+
+    // "myMethod" + "(Ljava/lang/String;I)V" -> "myMethod(java.lang.String,int)"
+    static String memberName(String name, String descriptor) {
+        StringBuilder sb = new StringBuilder(name).append('(');
+        int[] pos = { 1 };
+        while (descriptor.charAt(pos[0]) != ')') {
+            if (pos[0] > 1)
+                sb.append(',');
+            sb.append(typeName(descriptor, pos));
+        }
+        return sb.append(')').toString();
+    }
+
+    // Convert the field descriptor at pos[0] to a Java type name, and advance past it
+    private static String typeName(String descriptor, int[] pos) {
+        char c = descriptor.charAt(pos[0]++);
+        switch (c) {
+            case 'B': return "byte";
+            case 'C': return "char";
+            case 'D': return "double";
+            case 'F': return "float";
+            case 'I': return "int";
+            case 'J': return "long";
+            case 'S': return "short";
+            case 'Z': return "boolean";
+            case 'V': return "void";
+            case '[': return typeName(descriptor, pos) + "[]";
+            case 'L': {
+                int end = descriptor.indexOf(';', pos[0]);
+                String name = binaryName(descriptor.substring(pos[0], end));
+                pos[0] = end + 1;
+                return name;
+            }
+            default: throw new IllegalArgumentException("Invalid descriptor " + descriptor);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.pbe;
+
+// *******
+// Dependency injection container for the classes annotated with @Component (see Example_DependencyInjection).
+// The wiring graph is built at compile time by ComponentProcessor, and generated as code in Components: which class or interface
+// is bound to which component, and a constructor call per component, with its dependencies taken from the container by index.
+// So creating a container scans nothing and calls no reflection: it only creates an empty holder per component.
+// Each component is a singleton within its container, created on first use (components that are never asked for are never created).
+// The holders are double-checked: once a component exists, getting it is one volatile read and takes no lock;
+// only the first calls, while the component is being created, synchronize on its holder, so it is created exactly once.
+// *******
+final class Container {
+
+    // Index of the component bound to a class, looked up once per class
+    private static final ClassValue<Integer> INDEX = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return Components.indexOf(type); // generated
+        }
+    };
+
+    private final Holder[] holders = new Holder[Components.COUNT];
+
+    Container() {
+        for (int i = 0; i < holders.length; i++)
+            holders[i] = new Holder(i);
+    }
+
+    // The component bound to a class or interface, created (together with its dependencies) if it wasn't yet
+    <T> T get(Class<T> type) {
+        int index = INDEX.get(type);
+        if (index < 0)
+            throw new IllegalArgumentException("No @Component bound to " + type.getName());
+        return type.cast(holders[index].get(this));
+    }
+
+    // The component at an index of Components; used by the generated code to pass dependencies
+    Object get(int index) {
+        return holders[index].get(this);
+    }
+
+    // Number of components created so far
+    int created() {
+        int n = 0;
+        for (Holder h : holders)
+            if (h.instance != null)
+                n++;
+        return n;
+    }
+
+    private static final class Holder {
+        private final int index;
+        private volatile Object instance;
+
+        Holder(int index) {
+            this.index = index;
+        }
+
+        Object get(Container container) {
+            Object o = instance; // read the volatile field once
+            if (o == null) {
+                synchronized (this) {
+                    o = instance;
+                    if (o == null) // still not created: no other thread got here first
+                        instance = o = Components.create(index, container); // the constructor runs before the write is published
+                }
+            }
+            return o;
+        }
+    }
+}
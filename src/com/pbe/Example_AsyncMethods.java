@@ -0,0 +1,117 @@
+package com.pbe;
+
+import java.lang.annotation.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Declaring two annotations that set how a method is executed, with members like those of MyAnnotation2
+// @Async runs the method on another thread: executor is the name of an executor registered with AsyncExecutors ("" for the default one)
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface Async {
+    String executor() default "";
+}
+
+// @Batched combines concurrent calls of the method into one call of the bulk method named by bulk, which takes an array per parameter
+// maxSize is the largest number of calls in one batch, maxDelayMicros how long the first call of a batch may wait for others
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface Batched {
+    String bulk(); // String member, without a default value
+    int maxSize() default 64;
+    long maxDelayMicros() default 1000;
+    String executor() default ""; // executor running the bulk calls
+}
+
+// *******
+// Example of declaring the execution of methods through annotations, for methods that mostly wait on I/O
+// AsyncMethod turns each @Async method into a MethodHandle that returns a CompletableFuture, and runs the method on an executor
+// BatchedMethod turns a @Batched method like store(String, int), with the same parameters as Example_DefaultValues2.myMethod(String, int),
+// into a handle whose concurrent calls are served by a single call of storeAll()
+// *******
+public class Example_AsyncMethods {
+
+    // Simulates a round trip to a remote service, which takes about 2 ms whatever the amount of data
+    static void roundTrip() {
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Async // runs on the default executor, a virtual thread per call on Java 21
+    static String lookupUser(int id) {
+        roundTrip();
+        return "user" + id;
+    }
+
+    @Async(executor = "audit") // runs on the executor registered as "audit" in main()
+    static void audit(String event) {
+        System.out.println("Audit on " + Thread.currentThread().getName() + ": " + event);
+    }
+
+    @Batched(bulk = "storeAll", maxSize = 50, maxDelayMicros = 2000)
+    static int store(String key, int value) { // a single write, one round trip per call; through the handle it is never called
+        roundTrip();
+        return key.length() + value;
+    }
+
+    // The bulk write: one round trip for all the calls in the batch
+    static int[] storeAll(String[] keys, int[] values) {
+        roundTrip();
+        int[] results = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            results[i] = keys[i].length() + values[i];
+        return results;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        ExecutorService auditor = Executors.newSingleThreadExecutor(AsyncExecutors.daemonThreads("audit"));
+        AsyncExecutors.register("audit", auditor); // before the methods are wrapped
+
+        // 200 lookups at once, each waiting 2 ms: together they take about as long as one
+        MethodHandle lookupUser = AsyncMethod.forClass(MethodHandles.lookup(), Example_AsyncMethods.class).get("lookupUser");
+        MethodHandle audit = AsyncMethod.forClass(MethodHandles.lookup(), Example_AsyncMethods.class).get("audit");
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> users = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            users.add((CompletableFuture<?>) lookupUser.invokeExact(i)); // invokeExact, with the exact signature (int)CompletableFuture
+        CompletableFuture.allOf(users.toArray(new CompletableFuture<?>[0])).join();
+        System.out.printf("200 lookups in %.1f ms (%s), last one %s%n", (System.nanoTime() - start) / 1e6,
+                AsyncExecutors.usesVirtualThreads() ? "virtual threads" : "platform threads", users.get(199).join());
+        ((CompletableFuture<?>) audit.invokeExact("lookups done")).join();
+
+        // 16 threads storing 100 values each: without batching that would be 1600 round trips
+        BatchedMethod store = BatchedMethod.forClass(MethodHandles.lookup(), Example_AsyncMethods.class).get("store");
+        start = System.nanoTime();
+        List<CompletableFuture<?>> stored = new ArrayList<>();
+        Thread[] threads = new Thread[16];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        CompletableFuture<?> f = (CompletableFuture<?>) store.handle().invokeExact("key" + thread, i);
+                        synchronized (stored) {
+                            stored.add(f);
+                        }
+                    } catch (Throwable e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[0])).join();
+        System.out.printf("%d calls of store() in %d bulk calls of storeAll(), %.1f ms%n", store.calls(), store.batches(), (System.nanoTime() - start) / 1e6);
+        auditor.shutdown();
+    }
+}
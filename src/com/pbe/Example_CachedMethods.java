@@ -0,0 +1,61 @@
+package com.pbe;
+
+import java.lang.annotation.*;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+
+// Declaring an annotation with members that all have a default value, like MyAnnotation
+// @Cached marks a method whose results can be cached: maxSize is the maximum number of cached results,
+// ttlMillis how long a result stays valid (0 for as long as it is cached), and policy decides which result to drop when the cache is full
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface Cached {
+    int maxSize() default 1000;
+    long ttlMillis() default 0;
+    Policy policy() default Policy.LRU;
+
+    enum Policy { LRU, LFU, W_TINY_LFU }
+}
+
+// *******
+// Example of caching the results of methods through an annotation
+// The methods are pure functions, like Example_TypeAnnotations.f3(): their result only depends on their arguments
+// CachedMethod wraps each @Cached method with a cache, and hands it out as a MethodHandle with the same signature
+// *******
+public class Example_CachedMethods {
+
+    @Cached(maxSize = 100) // all other members keep their default value
+    static int digitSum(String input, int radix) { // note that the String and int arguments together form the cache key, without boxing the int
+        int sum = 0;
+        for (int i = 0; i < input.length(); i++)
+            sum += Character.digit(input.charAt(i), radix);
+        return sum;
+    }
+
+    @Cached(maxSize = 4, policy = Cached.Policy.W_TINY_LFU) // a small cache, so the frequently used arguments have to compete for a place
+    static double slowSquareRoot(double x) {
+        double r = x;
+        for (int i = 0; i < 1000; i++)
+            r = (r + x / r) / 2;
+        return r;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        Map<String, CachedMethod> cached = CachedMethod.forClass(MethodHandles.lookup(), Example_CachedMethods.class);
+        CachedMethod digitSum = cached.get("digitSum(java.lang.String,int)");
+        CachedMethod squareRoot = cached.get("slowSquareRoot(double)");
+
+        // Call through the handles, with invokeExact and the exact signature of the methods
+        for (int i = 0; i < 1000; i++) {
+            int sum = (int) digitSum.handle().invokeExact("1234" + i % 10, 10);
+            double root = (double) squareRoot.handle().invokeExact((double) (i % 3 == 0 ? i : i % 2)); // 0.0 and 1.0 are used often, multiples of 3 only once
+        }
+        System.out.println("digitSum(\"12345\", 10) = " + (int) digitSum.handle().invokeExact("12345", 10));
+
+        // The counters show how well each cache is sized
+        for (Map.Entry<String, CachedMethod> e : cached.entrySet()) {
+            BoundedCache.Stats s = e.getValue().stats();
+            System.out.printf("%s: %d hits, %d misses, %d evictions, %d cached, hit rate %.1f%%%n", e.getKey(), s.hits(), s.misses(), s.evictions(), s.size(), 100 * s.hitRate());
+        }
+    }
+}
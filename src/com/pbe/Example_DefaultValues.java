@@ -1,7 +1,6 @@
 package com.pbe;
 
 import java.lang.annotation.*;
-import java.lang.reflect.*;
 
 // Declaring an annotation
 // @ tells compiler that an annotation type is being declared
@@ -21,26 +20,29 @@ public class Example_DefaultValues {
 
     @MyAnnotation() // applying annotation MyAnnotation to myMethod()
     public static void myMethod() {
-
-        // Create new class object
-        Example_DefaultValues ob = new Example_DefaultValues();
+        if (AnnotationMode.GENERATED) {
+            // The default values are filled in at compile time: myMethod_num() is a static method returning 666,
+            // which the JIT inlines, so the value costs no more than writing 666 here
+            System.out.println(Example_DefaultValuesAnnotations.myMethod_userinput() + " " + Example_DefaultValuesAnnotations.myMethod_num());
+            return;
+        }
 
         // Obtain annotation for this method and display the member's values
         try {
             // First step to using reflection is to obtain a Class object that represents the class whose annotations needs to be obtained
-            // Return the Class object that represents the invoking object, with use of getClass()
-            Class<?> c = ob.getClass();
+            // A class literal is used for this, so there is no need to create an object first and call getClass() on it
+            Class<?> c = Example_DefaultValues.class;
 
             // Now the Class object is maintained, it's methods can be used
             // to obtain information about the various items declared by the class, including its annotations
             // To obtain annotations associated with a specific item declared within a class, we must first obtain an object that represents that item.
-            // Here, getMethod() is used to obtain myMethod() (note it's name is passed as argument)
-            // myMethod() is returned as Method object that represents the method
-            Method m = c.getMethod("myMethod");
-
-            // Next, the annotation can be retrieved from the Method by using getAnnotation()
+            // With plain reflection this would be: c.getMethod("myMethod").getAnnotation(MyAnnotation.class)
+            // getMethod() returns a new copy of the Method object on every call though, so the lookup is done through AnnotationRegistry instead
+            // The registry resolves the methods and annotations of the class once, and answers later lookups from its cache
             // Note that getAnnotation() can be used to obtain annotations not only from a Method, but also from a Class, Field or Constructor associated with an object
-            MyAnnotation myanno = m.getAnnotation(MyAnnotation.class);
+            // Rather than the annotation itself, the registry hands out the MyAnnotationValue record that is generated for it at compile time
+            // Reading a member from the record is a plain field read, while reading it from the annotation goes through a dynamic proxy
+            MyAnnotationValue myanno = AnnotationRegistry.getMethodValue(c, "myMethod", MyAnnotationValue.class);
 
             // Now the annotation member values can be displayed
             System.out.println(myanno.userinput() + " " + myanno.num());
@@ -1,7 +1,6 @@
 package com.pbe;
 
 import java.lang.annotation.*;
-import java.lang.reflect.*;
 
 // Declaring an annotation
 // @ tells compiler that an annotation type is being declared
@@ -19,23 +18,27 @@ import java.lang.reflect.*;
 // *******
 public class Example_DefaultValues2 {
 
+    // Parameter types of myMethod()
+    private static final Class<?>[] PARAMS = { String.class, int.class };
+
     @MyAnnotation2(userinput = "Input parameters", num = 99) // applying annotation MyAnnotation to myMethod(), with provision of parameters
     public static void myMethod(String str, int i) { // note that the method specifies two parameters, taking a String and int value that can be passed as additional arguments
 
-        // Create new class object
-        Example_DefaultValues2 ob = new Example_DefaultValues2();
+        if (AnnotationMode.GENERATED) { // the values as constants, from the accessors generated at compile time
+            System.out.println(Example_DefaultValues2Annotations.myMethod_userinput() + " " + Example_DefaultValues2Annotations.myMethod_num());
+            return;
+        }
 
         // Obtain annotation for this method and display the member's values
         try {
-            // Return the Class object that represents the invoking object, with use of getClass()
-            Class<?> c = ob.getClass();
+            // Use the class literal to obtain the Class object, instead of creating a new object and calling getClass()
+            Class<?> c = Example_DefaultValues2.class;
 
-            // Use getMethod() to obtain myMethod() (note it's name is passed as argument)
+            // Retrieve the annotation of myMethod() through AnnotationRegistry, rather than with getMethod() and getAnnotation() on each call
             // The parameter types are specified ! with String.class and int.class
-            Method m = c.getMethod("myMethod", String.class, int.class);
-
-            // Retrieve annotation from the Method by using getAnnotation()
-            MyAnnotation2 myanno = m.getAnnotation(MyAnnotation2.class);
+            // They are kept in the PARAMS constant, so no new array needs to be created on every call
+            // The annotation is handed out as its generated value record, MyAnnotation2Value
+            MyAnnotation2Value myanno = AnnotationRegistry.getMethodValue(c, "myMethod", PARAMS, MyAnnotation2Value.class);
 
             // Now the annotation member values can be displayed
             System.out.println(myanno.userinput() + " " + myanno.num());
@@ -0,0 +1,120 @@
+package com.pbe;
+
+import java.lang.annotation.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Declaring the annotations of the dependency injection container (see Container)
+// @Component marks a class whose single instance the container creates and hands out, under its class and the interfaces it implements
+// The annotation is read at compile time by ComponentProcessor; RUNTIME retention is only needed by reflective containers
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@interface Component { }
+
+// @Inject marks the constructor the container calls, when a component has more than one
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.CONSTRUCTOR)
+@interface Inject { }
+
+// *******
+// Example of wiring components with annotations: each component gets the components it needs through its constructor.
+// The wiring graph is checked and generated at compile time (have a look at the generated Components class):
+// a missing component, or a cycle like Repository -> UserService -> Repository, would not compile.
+// Asking the container for a Controller creates the Controller and everything it depends on, in dependency order, each once.
+// *******
+public class Example_DependencyInjection {
+
+    interface Clock {
+        long now();
+    }
+
+    @Component
+    static class SystemClock implements Clock { // bound to Clock as well, so it can be injected as a Clock
+        public long now() {
+            return System.currentTimeMillis();
+        }
+    }
+
+    @Component
+    static class Repository {
+        private final List<String> users = new ArrayList<>();
+
+        Repository(Clock clock) { // the only constructor, so it needs no @Inject
+            users.add("admin (created at " + (clock.now() > 0 ? "start-up" : "?") + ")");
+        }
+
+        synchronized void add(String user) {
+            users.add(user);
+        }
+
+        synchronized List<String> all() {
+            return new ArrayList<>(users);
+        }
+    }
+
+    @Component
+    static class AuditLog {
+        private final Clock clock;
+
+        AuditLog(Clock clock) {
+            this.clock = clock;
+        }
+
+        void log(String event) {
+            System.out.println("audit: " + event + (clock.now() > 0 ? "" : " (clock not set)"));
+        }
+    }
+
+    @Component
+    static class UserService {
+        private final Repository repository;
+        private final AuditLog audit;
+
+        @Inject // the constructor the container calls
+        UserService(Repository repository, AuditLog audit) {
+            this.repository = repository;
+            this.audit = audit;
+        }
+
+        UserService(Repository repository) { // not used by the container
+            this(repository, null);
+        }
+
+        void register(String user) {
+            repository.add(user);
+            audit.log("registered " + user);
+        }
+    }
+
+    @Component
+    static class Controller {
+        final UserService users;
+        final Repository repository;
+
+        Controller(UserService users, Repository repository) {
+            this.users = users;
+            this.repository = repository;
+        }
+    }
+
+    @Component
+    static class Unused { // never asked for, so never created
+        Unused() {
+            System.out.println("Unused created");
+        }
+    }
+
+    public static void main(String[] args) {
+        Container container = new Container(); // no scanning, nothing created yet
+        System.out.println("Components created: " + container.created());
+
+        Controller controller = container.get(Controller.class); // creates Clock, Repository, AuditLog, UserService and Controller
+        controller.users.register("pieter");
+        System.out.println("Users: " + controller.repository.all());
+        System.out.println("Components created: " + container.created() + " of " + Components.COUNT);
+
+        // Every component is created once, and shared
+        System.out.println("Same repository: " + (container.get(Repository.class) == controller.repository));
+        System.out.println("Clock bound to: " + container.get(Clock.class).getClass().getSimpleName());
+    }
+}
@@ -0,0 +1,60 @@
+package com.pbe;
+
+import java.lang.annotation.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+
+// Declaring two annotations that mark a method for measurement, the same way @myMarker marks myMethod()
+// Both have a single member with a default value, so they can be used as a marker: @Counted, or with a metric name: @Counted(name = "parses")
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface Counted {
+    String name() default ""; // "" means ClassName.methodName
+}
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface Timed {
+    String name() default "";
+}
+
+// *******
+// Example of instrumenting methods through annotations
+// InstrumentedMethod turns each annotated method into a MethodHandle that counts and/or times its calls, and Metrics holds the results
+// *******
+public class Example_InstrumentedMethods {
+
+    @Counted // counted under the name Example_InstrumentedMethods.parse
+    @Timed(name = "parse.latency")
+    static int parse(String input) {
+        return Integer.parseInt(input.trim());
+    }
+
+    @Counted(name = "greetings")
+    static void greet(String name) {
+        if (name.isEmpty())
+            throw new IllegalArgumentException("No name");
+    }
+
+    public static void main(String[] args) throws Throwable {
+        Map<String, MethodHandle> methods = InstrumentedMethod.forClass(MethodHandles.lookup(), Example_InstrumentedMethods.class);
+        MethodHandle parse = methods.get("parse");
+        MethodHandle greet = methods.get("greet");
+
+        // Call through the handles, with invokeExact and the exact signature of the methods
+        int sum = 0;
+        for (int i = 0; i < 100_000; i++)
+            sum += (int) parse.invokeExact(" " + i % 1000 + " ");
+        greet.invokeExact("world");
+        try {
+            greet.invokeExact(""); // calls that throw are counted (and timed) too
+        } catch (IllegalArgumentException e) {
+            System.out.println("greet failed: " + e.getMessage());
+        }
+        System.out.println("sum = " + sum);
+
+        // Take a snapshot of all metrics and export it
+        System.out.print(Metrics.export(Metrics.snapshot()));
+    }
+}
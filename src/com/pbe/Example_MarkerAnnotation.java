@@ -2,7 +2,6 @@ package com.pbe;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.lang.reflect.Method;
 
 @Retention(RetentionPolicy.RUNTIME)
 @interface myMarker { } // creating the (completely empty) myMarker annotation that will be used as a marker
@@ -15,12 +14,18 @@ public class Example_MarkerAnnotation {
 
     @myMarker // annotating the method with myMarker - note this annotation is not followed with parentheses (it can, but not needed)
     public static void myMethod() {
-        Example_MarkerAnnotation ob = new Example_MarkerAnnotation(); // create new class object
+        if (AnnotationMode.GENERATED) {
+            // The accessor generated at compile time only exists if the annotation is present, and always returns true
+            if (Example_MarkerAnnotationAnnotations.myMethod_myMarker())
+                System.out.println("myMarker is present");
+            return;
+        }
         try {
-            Method m = ob.getClass().getMethod("myMethod"); // retrieve myMethod from the class object and save it as a Method object
+            // retrieve the cached metadata of myMethod from the registry, instead of calling getMethod() on a new class object each time
+            AnnotationRegistry.MethodMetadata m = AnnotationRegistry.of(Example_MarkerAnnotation.class).method("myMethod", AnnotationRegistry.NO_PARAMETERS);
 
             // Determine if the annotation is present
-            if(m.isAnnotationPresent(myMarker.class)) // check if the annotation 'myMarker' is present in the Method object, with isAnnotationPresent()
+            if(m.isAnnotationPresent(myMarker.class)) // check if the annotation 'myMarker' is present on the method, with isAnnotationPresent()
                 System.out.println("myMarker is present");
 
         } catch (NoSuchMethodException e) {
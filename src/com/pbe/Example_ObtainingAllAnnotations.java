@@ -1,7 +1,6 @@
 package com.pbe;
 
 import java.lang.annotation.*;
-import java.lang.reflect.*;
 
 
 @Retention(RetentionPolicy.RUNTIME)
@@ -23,24 +22,34 @@ public class Example_ObtainingAllAnnotations {
     @What(description = "Annotation test method")
     @MyAnnotation2(userinput = "Testing method", num = 100)
     public static void myMethod() {
-        Example_ObtainingAllAnnotations ob = new Example_ObtainingAllAnnotations();
+        if (AnnotationMode.GENERATED) {
+            // The generated accessors return the annotations as the strings Annotation.toString() would give, collected at compile time
+            System.out.println("All annotations for this class: ");
+            for (String a : Example_ObtainingAllAnnotationsAnnotations.class_annotations())
+                System.out.println(a);
+            System.out.println();
+            System.out.println("All annotations for myMethod(): ");
+            for (String a : Example_ObtainingAllAnnotationsAnnotations.myMethod_annotations())
+                System.out.println(a);
+            return;
+        }
+        // The annotations of the class and its methods are resolved once by the registry, which keeps them in an indexed form
+        // This replaces ob.getClass().getAnnotations(), which returns a fresh copy of the array on every call
+        AnnotationRegistry.ClassMetadata c = AnnotationRegistry.of(Example_ObtainingAllAnnotations.class);
 
         try {
-            Annotation annos[] = ob.getClass().getAnnotations(); // returns an array of Annotation objects
-
             // Display all annotations for Example_ObtainingAllAnnotations class
             System.out.println("All annotations for this class: ");
-            for (Annotation x : annos)
-                System.out.println(x);
+            for (int i = 0; i < c.annotations().annotationCount(); i++)
+                System.out.println(c.annotations().annotationAt(i));
 
             System.out.println();
 
             // Display all annotations for myMethod()
-            Method m = ob.getClass().getMethod("myMethod"); // obtain an object that represents the method with use of getMethod() and reference to the method name
-            annos = m.getAnnotations(); // obtain all annotations from the method - both lines could also be replaced with single line ->> Annotation annos2[] = ob.getClass().getMethod("myMethod").getAnnotations(); // obtain all annotations from the method
+            AnnotationRegistry.MethodMetadata m = c.method("myMethod", AnnotationRegistry.NO_PARAMETERS); // obtain the cached metadata of the method, by reference to the method name (and its parameter types)
             System.out.println("All annotations for myMethod(): ");
-            for (Annotation x : annos)
-                System.out.println(x);
+            for (int i = 0; i < m.annotationCount(); i++)
+                System.out.println(m.annotationAt(i));
         } catch (NoSuchMethodException e) {
             System.out.println("No method found");
         }
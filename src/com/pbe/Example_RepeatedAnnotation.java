@@ -4,7 +4,6 @@ import java.lang.annotation.Annotation;
 import java.lang.annotation.Repeatable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.lang.reflect.Method;
 
 @Retention(RetentionPolicy.RUNTIME)
 @Repeatable(MyRepeatedAnnos.class) // annotated with @Repeatable to make MyAnno repeatable and which specifies its container annotation, named MyRepeatedAnnos
@@ -21,27 +20,39 @@ import java.lang.reflect.Method;
 
 public class Example_RepeatedAnnotation {
 
+    // Parameter types of myMethod()
+    private static final Class<?>[] PARAMS = { String.class, int.class };
+
     // Repeat MyAnno on myMethod()
     @MyAnno(str = "First annotation", num = -1)
     @MyAnno(str = "Second annotation", num = 10)
 
     public static void myMethod(String str, int i) {
-        Example_RepeatedAnnotation ob = new Example_RepeatedAnnotation();
+        if (AnnotationMode.GENERATED) {
+            // The container, and the repeated annotations in it by index, as generated at compile time
+            System.out.println(Example_RepeatedAnnotationAnnotations.myMethod_annotations()[0]);
+            for (int j = 0; j < Example_RepeatedAnnotationAnnotations.myMethod_MyAnno_count(); j++)
+                System.out.println(Example_RepeatedAnnotationAnnotations.myMethod_MyAnno_str(j) + " " + Example_RepeatedAnnotationAnnotations.myMethod_MyAnno_num(j));
+            return;
+        }
         try {
-            Class<?> c = ob.getClass();
-
-            // Obtain myMethod() annotations
-            Method m = c.getMethod("myMethod", String.class, int.class);
-
+            // Obtain myMethod() annotations, from the registry's cache
             // Display repeated MyAnnno annotations
-            Annotation anno = m.getAnnotation(MyRepeatedAnnos.class); // access repeated annotation by calling getAnnotation() and passing in the class of the container annotation
+            Annotation anno = AnnotationRegistry.getMethodAnnotation(Example_RepeatedAnnotation.class, "myMethod", PARAMS, MyRepeatedAnnos.class); // access repeated annotation by calling getAnnotation() and passing in the class of the container annotation
             System.out.println(anno);
+
+            // Display each MyAnno annotation individually
+            // getAnnotationsByType(MyAnno.class) would return them as a new array on each call, the registry offers a shared view instead
+            // (AnnotationRegistry.forEachMethodAnnotation() visits the same view with a callback)
+            AnnotationRegistry.Repeated<MyAnno> annos = AnnotationRegistry.of(Example_RepeatedAnnotation.class).method("myMethod", PARAMS).repeated(MyAnno.class);
+            for (int j = 0; j < annos.size(); j++)
+                System.out.println(annos.get(j).str() + " " + annos.get(j).num());
         } catch (NoSuchMethodException e) {
             System.out.println("No method found");
         }
     }
 
     public static void main(String[] args) {
-        myMethod("test", 10); // output will be the repeated annotations, seperate by a comma, not returned individually
+        myMethod("test", 10); // output will be the container annotation holding both repeated annotations, followed by each of them on its own line
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.pbe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.annotation.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+// Marker annotation for a class or record whose fields are encoded by a codec generated at compile time (see Serialization)
+@Target(ElementType.TYPE)
+@interface Serialize { }
+
+// Marker annotation for a field that isn't encoded, e.g. a value derived from the other fields; it is left at its default when decoding
+@Target(ElementType.FIELD)
+@interface NotSerialized { }
+
+// *******
+// Demonstration of binary serialization through annotations
+// Trade and Party are data classes marked @Serialize: SerializerProcessor generates a codec for each at compile time,
+// which writes the fields straight into a ByteBuffer and reads them back, without reflection.
+// The type annotation @MaxLen of Example_TypeAnnotations gives the expected length of a String or array, to size the buffers.
+// The classes also implement java.io.Serializable, only to compare with Java serialization.
+// *******
+public class Example_Serialization {
+
+    enum Side { BUY, SELL }
+
+    @Serialize
+    static class Trade implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        long id;
+        @MaxLen(num = 12) String symbol; // @MaxLen annotates the type String, as in Example_TypeAnnotations
+        Side side;
+        int quantity;
+        double price;
+        boolean open;
+        Integer venue; // may be null
+        String @MaxLen(num = 4) [] tags; // here @MaxLen annotates the array, so up to 4 tags are expected
+        long[] fills;
+        List<String> notes;
+        Party counterparty; // another @Serialize type, encoded by its own codec
+        @NotSerialized double notional; // price * quantity, derived from the other fields so not worth encoding
+    }
+
+    @Serialize
+    record Party(@MaxLen(num = 8) String code, int rating) implements Serializable { }
+
+    static Trade sampleTrade() {
+        Trade t = new Trade();
+        t.id = 4_815_162_342L;
+        t.symbol = "ACME";
+        t.side = Side.BUY;
+        t.quantity = 300;
+        t.price = 12.75;
+        t.open = true;
+        t.venue = null;
+        t.tags = new String[] { "algo", "dark" };
+        t.fills = new long[] { 100, 200 };
+        t.notes = List.of("partial fill", "ok");
+        t.counterparty = new Party("BRKR-7", 3);
+        t.notional = t.price * t.quantity;
+        return t;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Trade trade = sampleTrade();
+
+        // Encode into a new array, and decode it again
+        byte[] bytes = Serialization.toBytes(trade);
+        Trade copy = Serialization.fromBytes(Trade.class, bytes);
+        System.out.println("Encoded in " + bytes.length + " bytes (size hint " + Serialization.forClass(Trade.class).sizeHint() + ")");
+        System.out.println("Decoded: " + copy.id + " " + copy.symbol + " " + copy.side + " " + copy.quantity + " @ " + copy.price + ", open " + copy.open
+                + ", venue " + copy.venue + ", tags " + Arrays.toString(copy.tags) + ", fills " + Arrays.toString(copy.fills) + ", notes " + copy.notes
+                + ", " + copy.counterparty + ", notional " + copy.notional + " (not serialized)");
+
+        // Fastest use: get the codec once, and encode into a buffer that is reused for every object
+        BinaryCodec<Trade> codec = Serialization.forClass(Trade.class);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 10; i++) {
+            trade.id = i;
+            codec.encode(trade, buffer);
+        }
+        buffer.flip();
+        long sum = 0;
+        while (buffer.hasRemaining())
+            sum += codec.decode(buffer).id;
+        System.out.println("10 trades in one buffer of " + buffer.limit() + " bytes, sum of ids " + sum);
+
+        // Java serialization of the same object, for comparison
+        ByteArrayOutputStream javaBytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(javaBytes)) {
+            out.writeObject(trade);
+        }
+        System.out.println("Java serialization: " + javaBytes.size() + " bytes");
+    }
+}
@@ -2,7 +2,6 @@ package com.pbe;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.lang.reflect.Method;
 
 @Retention(RetentionPolicy.RUNTIME)
 @interface MySingle {
@@ -18,12 +17,15 @@ public class Example_SingleMemberAnnotation {
 
     @MySingle(666)
     public static void myMethod() {
-
-        Example_SingleMemberAnnotation ob = new Example_SingleMemberAnnotation(); // create class object
+        if (AnnotationMode.GENERATED) { // the value read at compile time, returned as the constant 666
+            System.out.println(Example_SingleMemberAnnotationAnnotations.myMethod_value());
+            return;
+        }
 
         try {
-            Method m = ob.getClass().getMethod("myMethod");  // retrieve myMethod from the class object and save it as a Method object
-            MySingle anno = m.getAnnotation(MySingle.class); // retrieve annotation from Method object
+            // retrieve the annotation of myMethod through the registry, which caches the Method object and its annotations after the first call
+            // the registry returns the generated MySingleValue record, so value() is a plain field read
+            MySingleValue anno = AnnotationRegistry.getMethodValue(Example_SingleMemberAnnotation.class, "myMethod", MySingleValue.class);
             System.out.println(anno.value()); // displays the single value
         }catch (NoSuchMethodException e) {
             System.out.println("No method found");
@@ -4,15 +4,20 @@ import java.lang.annotation.*;
 import java.lang.reflect.*;
 
 // Several marker annotations that can be applied to a type
+// With RUNTIME retention, they can be read through getAnnotatedType(), getAnnotatedReturnType(), ... (see TypeAnnotationGraph)
+@Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE_USE)
 @interface TypeAnno { }
 
+@Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE_USE)
 @interface NotZeroLen { }
 
+@Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE_USE)
 @interface Unique { }
 
+@Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE_USE)
 @interface MaxLen {
     int num();
@@ -99,6 +104,38 @@ public class Example_TypeAnnotations<@Whatthen(notes = "generic data type") T> {
 
     public static void main(String[] args) {
         myMethod(10);
+
+        // The constraints on w are enforced by a validator that is generated at compile time (see Validation)
+        // Here the second array in w is empty, which violates @NotZeroLen
+        Example_TypeAnnotations<Integer> ob = new Example_TypeAnnotations<>();
+        ob.w = new String[][] { { "a", "b" }, { } };
+        System.out.println("Valid: " + Validation.isValid(ob) + " " + Validation.validate(ob));
+
+        // SomeClass inherits w, and with it the constraints on it
+        Example_TypeAnnotations<Integer>.SomeClass sub = ob.new SomeClass();
+        sub.w = new String[][] { { } };
+        System.out.println("Valid (SomeClass): " + Validation.isValid(sub) + " " + Validation.validate(sub));
+
+        // A batch of objects is validated one constraint at a time, into a bitset with a bit per object and constraint
+        Example_TypeAnnotations<Integer> ob3 = new Example_TypeAnnotations<>();
+        ob3.w = new String[][] { { "c" } };
+        BatchViolations violations = Validation.validateBatch(Example_TypeAnnotations.class, new Object[] { ob, ob3 });
+        for (int i = violations.nextInvalid(0); i >= 0; i = violations.nextInvalid(i + 1))
+            System.out.println("Object " + i + " in the batch is invalid");
+
+        // The annotated types of the members, walked once and cached by TypeAnnotationGraph
+        try {
+            TypeAnnotationGraph graph = TypeAnnotationGraph.of(Example_TypeAnnotations.class);
+            TypeAnnotationGraph.Tree w = graph.field("w");
+            System.out.print("Type of w:\n" + w);
+            System.out.println("At array depth 0: " + w.getAnnotation(w.atArrayDepth(0), MaxLen.class).num() + ", at depth 1: " + w.getAnnotation(w.atArrayDepth(1), NotZeroLen.class));
+            System.out.println("Receiver of f(): " + graph.method("f", new Class<?>[] { int.class }).receiverType().getAnnotation("", TypeAnno.class));
+            System.out.println("Return type of f2(): " + graph.method("f2", new Class<?>[] { int.class, int.class }).returnType().getAnnotation("", TypeAnno.class));
+            System.out.println("Throws clause of f4(): " + graph.method("f4", AnnotationRegistry.NO_PARAMETERS).exceptionType(0).getAnnotation("", TypeAnno.class));
+            System.out.print("Superclass of SomeClass:\n" + TypeAnnotationGraph.of(Example_TypeAnnotations.SomeClass.class).superclass());
+        } catch (NoSuchFieldException | NoSuchMethodException e) {
+            System.out.println("No member found");
+        }
     }
 
     // Annotating with inheritance clause
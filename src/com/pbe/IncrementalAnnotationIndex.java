@@ -0,0 +1,347 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// *******
+// Annotation index of a class path that is kept up to date incrementally, for a development loop or hot redeploy.
+// Example_ObtainingAllAnnotations reads all annotations of a class again each time; a full AnnotationScanner pass reads every class.
+// This index remembers, per class file, its size, modification time and content hashes, together with the annotations found in it.
+// On update() it only looks at the files whose size or modification time changed, and only parses those whose content hash changed
+// (a rebuild that writes identical bytes costs a hash, not a parse). The quick hash is a CRC32C; when it matches, a SHA-256 digest
+// confirms it, so an edit whose CRC happens to collide with the old one is still seen. The annotations of a re-parsed class are compared with the previous ones,
+// per element and annotation, and the differences are published to the listeners as Changes:
+// - ADDED / REMOVED: an annotation appeared on, or disappeared from, an element (or a whole class was added or deleted)
+// - CHANGED: the annotation is still there, but some of its member values differ (see Change.changedMembers())
+// A jar is treated as a whole: when it changes, each of its classes is hashed again, and only the changed ones are parsed.
+// Use update(Path) when the changed class file is already known (e.g. from a file watcher), so nothing else is even looked at.
+// *******
+final class IncrementalAnnotationIndex {
+
+    // A difference between two versions of the index
+    record Change(Type type, AnnotationIndex.Element before, AnnotationIndex.Element after) {
+        enum Type { ADDED, REMOVED, CHANGED }
+
+        // Element of the change (the new one, unless it was removed)
+        AnnotationIndex.Element element() {
+            return after != null ? after : before;
+        }
+
+        // Names of the members whose value differs between before and after (all members for ADDED and REMOVED)
+        Set<String> changedMembers() {
+            if (before == null || after == null)
+                return element().values().keySet();
+            Set<String> names = new LinkedHashSet<>(before.values().keySet());
+            names.addAll(after.values().keySet());
+            names.removeIf(n -> Objects.deepEquals(before.values().get(n), after.values().get(n)));
+            return names;
+        }
+    }
+
+    // Receives the changes of each update, as one batch; not called when an update finds no change
+    interface Listener {
+        void changed(List<Change> changes);
+    }
+
+    // What the index remembers of a class file (or jar entry)
+    private record ClassState(long size, long modified, long hash, byte[] digest, List<AnnotationIndex.Element> elements) { }
+
+    private final List<Path> roots;
+    private final Predicate<String> annotationFilter;
+    private final ClassFileAnnotationReader reader = new ClassFileAnnotationReader(); // only used while holding the lock of this index
+    private final Map<String, ClassState> classes = new ConcurrentHashMap<>(); // key: absolute, normalized class file path, or jar path + "!/" + entry name
+    private final Map<Path, long[]> jars = new HashMap<>(); // size and modification time of each jar when it was last read
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private int parsed; // classes parsed by the last update, for statistics
+
+    // annotationFilter selects the annotation types (binary names) to index
+    IncrementalAnnotationIndex(List<Path> roots, Predicate<String> annotationFilter) {
+        this.roots = roots.stream().map(IncrementalAnnotationIndex::normalized).collect(Collectors.toUnmodifiableList());
+        this.annotationFilter = annotationFilter;
+    }
+
+    // Index of the annotations declared in a package, e.g. forPackage("com.pbe", AnnotationScanner.classPath())
+    static IncrementalAnnotationIndex forPackage(String packageName, List<Path> roots) {
+        String prefix = packageName + ".";
+        return new IncrementalAnnotationIndex(roots, t -> t.startsWith(prefix) && t.indexOf('.', prefix.length()) < 0);
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Bring the index up to date with all roots, publish the changes and return them
+    // The first update reads everything; later updates only parse the classes that changed
+    synchronized List<Change> update() throws IOException {
+        parsed = 0;
+        List<Change> changes = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Path root : roots) {
+            if (Files.isDirectory(root)) {
+                List<Path> files;
+                try (Stream<Path> walk = Files.walk(root)) {
+                    files = walk.filter(f -> f.toString().endsWith(".class")).collect(Collectors.toList());
+                }
+                for (Path f : files) {
+                    String key = normalized(f).toString();
+                    seen.add(key);
+                    updateFile(key, f, changes);
+                }
+            } else if (Files.isRegularFile(root)) {
+                updateJar(root, seen, changes);
+            }
+        }
+        // Classes that are gone: all their annotations are removed
+        for (Map.Entry<String, ClassState> e : classes.entrySet())
+            if (!seen.contains(e.getKey()))
+                for (AnnotationIndex.Element removed : e.getValue().elements())
+                    changes.add(new Change(Change.Type.REMOVED, removed, null));
+        classes.keySet().retainAll(seen);
+        publish(changes);
+        return changes;
+    }
+
+    // Update the index for a single class file that is known to have changed (or to be added or deleted), and publish the changes
+    synchronized List<Change> update(Path classFile) throws IOException {
+        parsed = 0;
+        List<Change> changes = new ArrayList<>();
+        String key = normalized(classFile).toString(); // the same class file, however the path is written
+        if (Files.exists(classFile)) {
+            updateFile(key, classFile, changes);
+        } else {
+            ClassState old = classes.remove(key);
+            if (old != null)
+                for (AnnotationIndex.Element removed : old.elements())
+                    changes.add(new Change(Change.Type.REMOVED, removed, null));
+        }
+        publish(changes);
+        return changes;
+    }
+
+    private void updateFile(String key, Path file, List<Change> changes) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+        ClassState old = classes.get(key);
+        if (old != null && old.size() == attributes.size() && old.modified() == modified)
+            return; // untouched since the last update
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            updateClass(key, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), attributes.size(), modified, changes);
+        }
+    }
+
+    private void updateJar(Path jar, Set<String> seen, List<Change> changes) throws IOException {
+        long size = Files.size(jar), modified = Files.getLastModifiedTime(jar).toMillis();
+        long[] stamp = jars.get(jar);
+        String prefix = normalized(jar) + "!/";
+        if (stamp != null && stamp[0] == size && stamp[1] == modified) { // unchanged jar: keep all of its classes
+            for (String key : classes.keySet())
+                if (key.startsWith(prefix))
+                    seen.add(key);
+            return;
+        }
+        jars.put(jar, new long[] { size, modified });
+        MappedJar.forEachClass(jar, (name, bytes) -> {
+            String key = prefix + name;
+            seen.add(key);
+            updateClass(key, bytes, 0, 0, changes);
+        });
+    }
+
+    private static Path normalized(Path p) {
+        return p.toAbsolutePath().normalize();
+    }
+
+    // Hash the bytes of a class; if they changed, parse them and record the differences with the previous annotations
+    private void updateClass(String key, ByteBuffer bytes, long size, long modified, List<Change> changes) {
+        long hash = hash(bytes);
+        ClassState old = classes.get(key);
+        byte[] digest = null;
+        if (old != null && old.hash() == hash) {
+            digest = digest(bytes); // only needed to confirm a matching CRC
+            if (Arrays.equals(digest, old.digest())) {
+                classes.put(key, new ClassState(size, modified, hash, old.digest(), old.elements())); // touched, but the same content
+                return;
+            }
+        }
+        List<AnnotationIndex.Element> elements = new ArrayList<>();
+        reader.read(bytes, new ClassFileAnnotationReader.Visitor() {
+            @Override
+            public boolean accept(String annotationType) {
+                return annotationFilter.test(annotationType);
+            }
+
+            @Override
+            public void visitAnnotation(AnnotationIndex.Element annotation, String container, boolean runtimeVisible) {
+                elements.add(annotation);
+            }
+        });
+        parsed++;
+        classes.put(key, new ClassState(size, modified, hash, digest != null ? digest : digest(bytes),
+                elements.isEmpty() ? List.of() : Collections.unmodifiableList(elements)));
+        diff(old != null ? old.elements() : List.of(), elements, changes);
+    }
+
+    // Content hash: CRC32C (computed with a CPU instruction on most platforms) combined with the length
+    private static long hash(ByteBuffer bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes.duplicate());
+        return crc.getValue() << 32 ^ bytes.remaining();
+    }
+
+    // Collision-resistant content hash, to confirm that bytes with the same CRC are the same
+    private static byte[] digest(ByteBuffer bytes) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(bytes.duplicate());
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) { // every JDK has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Compare the annotations of two versions of a class, matching annotations by element, annotation type and occurrence
+    // (a repeated annotation occurs more than once on the same element)
+    private static void diff(List<AnnotationIndex.Element> before, List<AnnotationIndex.Element> after, List<Change> changes) {
+        Map<String, AnnotationIndex.Element> old = keyed(before);
+        for (Map.Entry<String, AnnotationIndex.Element> e : keyed(after).entrySet()) {
+            AnnotationIndex.Element previous = old.remove(e.getKey());
+            if (previous == null)
+                changes.add(new Change(Change.Type.ADDED, null, e.getValue()));
+            else if (!sameValues(previous, e.getValue()))
+                changes.add(new Change(Change.Type.CHANGED, previous, e.getValue()));
+        }
+        for (AnnotationIndex.Element removed : old.values())
+            changes.add(new Change(Change.Type.REMOVED, removed, null));
+    }
+
+    private static Map<String, AnnotationIndex.Element> keyed(List<AnnotationIndex.Element> elements) {
+        Map<String, AnnotationIndex.Element> keyed = new LinkedHashMap<>();
+        for (AnnotationIndex.Element e : elements) {
+            String base = e.className() + "|" + e.member() + "|" + e.annotationType() + "#";
+            int occurrence = 0;
+            while (keyed.containsKey(base + occurrence))
+                occurrence++;
+            keyed.put(base + occurrence, e);
+        }
+        return keyed;
+    }
+
+    // Element.equals() compares array values by reference, so compare the values one by one
+    private static boolean sameValues(AnnotationIndex.Element a, AnnotationIndex.Element b) {
+        if (!a.values().keySet().equals(b.values().keySet()))
+            return false;
+        for (Map.Entry<String, Object> e : a.values().entrySet())
+            if (!Objects.deepEquals(e.getValue(), b.values().get(e.getKey())))
+                return false;
+        return true;
+    }
+
+    private void publish(List<Change> changes) {
+        if (changes.isEmpty())
+            return;
+        List<Change> published = Collections.unmodifiableList(changes);
+        for (Listener l : listeners)
+            l.changed(published);
+    }
+
+    // All elements currently annotated with the annotation type of the given binary name, e.g. "com.pbe.What"
+    List<AnnotationIndex.Element> elementsAnnotatedWith(String annotationType) {
+        List<AnnotationIndex.Element> result = new ArrayList<>();
+        for (ClassState s : classes.values())
+            for (AnnotationIndex.Element e : s.elements())
+                if (e.annotationType().equals(annotationType))
+                    result.add(e);
+        return result;
+    }
+
+    // Number of classes known to the index, and the number of classes parsed by the last update
+    int classCount() {
+        return classes.size();
+    }
+
+    synchronized int lastParsed() {
+        return parsed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Index a copy of the compiled classes of com.pbe, then change the copy and update the index
+        Path source;
+        try {
+            source = Path.of(IncrementalAnnotationIndex.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid class location", e);
+        }
+        Path copy = Files.createTempDirectory("classes");
+        try (Stream<Path> walk = Files.walk(source)) {
+            for (Path p : (Iterable<Path>) walk::iterator)
+                Files.copy(p, copy.resolve(source.relativize(p).toString()), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        IncrementalAnnotationIndex index = forPackage("com.pbe", List.of(copy));
+        long start = System.nanoTime();
+        index.update();
+        System.out.println("Initial update: " + index.classCount() + " classes, " + index.lastParsed() + " parsed, " + (System.nanoTime() - start) / 1000 + " us");
+
+        index.addListener(changes -> {
+            for (Change c : changes)
+                System.out.println("    " + c.type() + " @" + c.element().annotationType() + " on " + c.element().className() + " " + c.element().member() + " " + c.changedMembers());
+        });
+
+        start = System.nanoTime();
+        index.update();
+        System.out.println("Update without changes: " + index.lastParsed() + " parsed, " + (System.nanoTime() - start) / 1000 + " us");
+
+        // Rewrite a class file with the same content: it is hashed again, but not parsed
+        Path marker = copy.resolve("com/pbe/Example_MarkerAnnotation.class");
+        Files.write(marker, Files.readAllBytes(marker));
+        start = System.nanoTime();
+        index.update(marker);
+        System.out.println("Same content rewritten: " + index.lastParsed() + " parsed, " + (System.nanoTime() - start) / 1000 + " us");
+
+        // Delete a class, then bring it back
+        Path all = copy.resolve("com/pbe/Example_ObtainingAllAnnotations.class");
+        byte[] bytes = Files.readAllBytes(all);
+        Files.delete(all);
+        System.out.println("Deleted Example_ObtainingAllAnnotations:");
+        index.update(all);
+        Files.write(all, bytes);
+        start = System.nanoTime();
+        System.out.println("Restored Example_ObtainingAllAnnotations:");
+        index.update(all);
+        System.out.println("Single class update: " + index.lastParsed() + " parsed, " + (System.nanoTime() - start) / 1000 + " us");
+
+        try (Stream<Path> walk = Files.walk(copy)) {
+            walk.sorted(Collections.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.pbe;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// *******
+// Lock-free histogram of latencies in nanoseconds, in the style of HdrHistogram: buckets are log-linear, so the precision is relative
+// (each power of two is split into SUB_BUCKETS buckets, about 6% wide) and the whole range of a long fits in BUCKETS buckets.
+// The histogram is striped like a LongAdder: there is a fixed, power-of-two number of stripes (a long[] of BUCKETS counters and totals
+// each, about 8 KB), and a thread records into the stripe its id hashes to, with an atomic add. Threads on different stripes don't
+// contend, and the memory doesn't grow with the number of threads that ever recorded (e.g. one thread per task or per request).
+// A stripe is only allocated when a thread first records into it. A snapshot adds up the stripes.
+// *******
+final class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final int SUM = BUCKETS, MAX = BUCKETS + 1; // totals, stored after the buckets of each stripe
+
+    // Number of stripes: the number of processors rounded up to a power of two, at most 64
+    static final int STRIPES = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle STRIPE = MethodHandles.arrayElementVarHandle(long[][].class);
+
+    private final long[][] stripes = new long[STRIPES][];
+
+    // Record one latency; negative values count as 0
+    void record(long nanos) {
+        long v = Math.max(0, nanos);
+        long[] s = stripe();
+        COUNTERS.getAndAdd(s, bucket(v), 1L);
+        COUNTERS.getAndAdd(s, SUM, v);
+        long max = (long) COUNTERS.getOpaque(s, MAX);
+        while (v > max && !COUNTERS.weakCompareAndSet(s, MAX, max, v))
+            max = (long) COUNTERS.getOpaque(s, MAX);
+    }
+
+    // Stripe of the current thread, allocated on first use; the thread id is spread by a multiplicative hash
+    private long[] stripe() {
+        int i = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32) & (STRIPES - 1);
+        long[] s = (long[]) STRIPE.getAcquire(stripes, i);
+        if (s == null) {
+            long[] created = new long[BUCKETS + 2];
+            s = (long[]) STRIPE.compareAndExchangeRelease(stripes, i, null, created);
+            if (s == null)
+                s = created;
+        }
+        return s;
+    }
+
+    // Values below SUB_BUCKETS have a bucket each; above, a value goes by its highest bit and the SUB_BUCKET_BITS bits below it
+    static int bucket(long v) {
+        if (v < SUB_BUCKETS)
+            return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (v >>> shift & (SUB_BUCKETS - 1));
+    }
+
+    // Highest value that falls into a bucket
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << shift) - 1;
+    }
+
+    // Counts of a histogram at one point in time
+    record Snapshot(long count, long sum, long max, long[] buckets) {
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // Value at a percentile (0-100), as the highest value of the bucket it falls into, so at most about 6% too high
+        long percentile(double p) {
+            long rank = (long) Math.ceil(p / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0)
+                    return Math.min(highestValue(i), max);
+            }
+            return 0;
+        }
+    }
+
+    // Add up the stripes; recording can go on meanwhile, so the sum may include a few calls that the buckets don't, or the other way around
+    Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        long count = 0, sum = 0, max = 0;
+        for (int j = 0; j < STRIPES; j++) {
+            long[] s = (long[]) STRIPE.getAcquire(stripes, j);
+            if (s == null)
+                continue;
+            for (int i = 0; i < BUCKETS; i++) {
+                long n = (long) COUNTERS.getOpaque(s, i);
+                buckets[i] += n;
+                count += n;
+            }
+            sum += (long) COUNTERS.getOpaque(s, SUM);
+            max = Math.max(max, (long) COUNTERS.getOpaque(s, MAX));
+        }
+        return new Snapshot(count, sum, max, buckets);
+    }
+}
@@ -0,0 +1,403 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// *******
+// Profiler of the annotation lookups made through AnnotationRegistry, to find out which lookups are worth moving onto cached or generated code.
+// Each lookup is recorded with its operation, target class and member, annotation type, whether the registry had the class cached
+// (a miss means reflection ran), its time, and the bytes the thread allocated during it.
+// The lookups are grouped in a report of the hottest ones (by total time), with a sample of their call sites, as text or JSON (toJson()).
+// While a JFR recording runs (e.g. -XX:StartFlightRecording), each lookup is also emitted as a com.pbe.AnnotationLookup event.
+//
+// Overhead:
+// - when the profiler isn't started, a lookup pays one volatile read
+// - when it is, a lookup is written into a ring buffer of its own thread, without a lock and without allocating:
+//   one thread writes a buffer, and the drainer thread reads it every DRAIN_MILLIS and merges it into the report,
+//   the volatile counters of the ring telling each side how far the other got; only when its buffer is full does a thread
+//   drain it itself, which means waiting for a drain that is running
+// - the call site is found with a StackWalker, which is the expensive part, so only about one lookup in sampleEvery (per thread) gets it,
+//   picked at random so lookups that alternate in a loop are sampled alike
+// The allocation is read from the thread's allocation counter (com.sun.management.ThreadMXBean), where the JVM supports that.
+// *******
+final class LookupProfiler {
+
+    // The lookups that are recorded, after the AnnotationRegistry method making them
+    enum Op {
+        CLASS("of"), GET_ANNOTATION("getMethodAnnotation"), GET_VALUE("getMethodValue"), IS_PRESENT("isMethodAnnotationPresent"),
+        FOR_EACH("forEachMethodAnnotation"), REPEATED("repeated");
+
+        final String method;
+
+        Op(String method) {
+            this.method = method;
+        }
+    }
+
+    // Lookups grouped by what was looked up
+    record Key(Op op, Class<?> target, String member, Class<?> annotationType) { }
+
+    // Totals of one kind of lookup; callSites counts the sampled lookups per call site
+    record Entry(Key key, long count, long hits, long totalNanos, long maxNanos, long allocatedBytes, Map<String, Long> callSites) {
+        long misses() {
+            return count - hits;
+        }
+
+        double nanosPerLookup() {
+            return (double) totalNanos / count;
+        }
+
+        double bytesPerLookup() {
+            return (double) allocatedBytes / count;
+        }
+    }
+
+    static final int BUFFER_SIZE = 8192; // lookups per thread between two drains, a power of 2
+    static final long DRAIN_MILLIS = 50;
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+    private static final StackWalker WALKER = StackWalker.getInstance();
+    private static final List<Buffer> BUFFERS = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(() -> {
+        Buffer b = new Buffer();
+        BUFFERS.add(b);
+        return b;
+    });
+    private static final ScheduledExecutorService DRAINER = Executors.newSingleThreadScheduledExecutor(AsyncExecutors.daemonThreads("pbe-profiler"));
+
+    private static volatile boolean enabled;
+    private static volatile int sampleEvery = 16;
+    private static ScheduledFuture<?> draining;     // guarded by LOCK
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final Map<Key, Stats> STATS = new HashMap<>(); // merged lookups, guarded by LOCK
+
+    private LookupProfiler() { }
+
+    // Start recording, with the call site of one lookup in sampleEvery (1 for all of them)
+    static void start(int sampleEvery) {
+        if (sampleEvery < 1)
+            throw new IllegalArgumentException("sampleEvery must be at least 1");
+        LOCK.lock();
+        try {
+            LookupProfiler.sampleEvery = sampleEvery;
+            if (draining == null)
+                draining = DRAINER.scheduleWithFixedDelay(LookupProfiler::drain, DRAIN_MILLIS, DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+            enabled = true;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    static void start() {
+        start(16);
+    }
+
+    // Stop recording; what was recorded so far stays in the report
+    static void stop() {
+        LOCK.lock();
+        try {
+            enabled = false;
+            if (draining != null)
+                draining.cancel(false);
+            draining = null;
+        } finally {
+            LOCK.unlock();
+        }
+        drain();
+    }
+
+    // Forget what was recorded
+    static void reset() {
+        LOCK.lock();
+        try {
+            drain();
+            STATS.clear();
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Called before a lookup: its start time, or 0 if the profiler isn't started (then nothing else must be recorded)
+    static long begin() {
+        if (!enabled)
+            return 0;
+        Buffer b = BUFFER.get();
+        b.startBytes = allocatedBytes(); // last, so the profiler's own work isn't counted (a lookup nested in a forEach callback resets it)
+        return System.nanoTime();
+    }
+
+    // Called after a lookup that began at start; records it in the buffer of the current thread
+    static void end(long start, Op op, Class<?> target, String member, Class<?> annotationType, boolean hit) {
+        long nanos = System.nanoTime() - start;
+        long bytes = allocatedBytes();
+        Buffer b = BUFFER.get();
+        bytes -= b.startBytes;
+        String site = null;
+        if (--b.untilSample <= 0) {
+            b.untilSample = ThreadLocalRandom.current().nextInt(1, 2 * sampleEvery); // sampleEvery on average
+            site = callSite();
+        }
+
+        LookupEvent event = new LookupEvent(); // only escapes when a recording has the event enabled
+        if (event.isEnabled()) {
+            event.operation = op.method;
+            event.target = target;
+            event.member = member;
+            event.annotationType = annotationType;
+            event.cacheHit = hit;
+            event.allocated = bytes;
+            event.lookupTime = nanos;
+            event.commit();
+        }
+
+        long w = b.written;
+        if (w - b.read == BUFFER_SIZE) // full: the drainer is behind
+            drain();
+        int i = (int) w & (BUFFER_SIZE - 1);
+        b.ops[i] = op;
+        b.targets[i] = target;
+        b.members[i] = member;
+        b.types[i] = annotationType;
+        b.hits[i] = hit;
+        b.nanos[i] = nanos;
+        b.bytes[i] = bytes;
+        b.sites[i] = site;
+        b.written = w + 1; // publishes the slot to the drainer
+    }
+
+    // The first frame after those of the profiler and the registry and the profiler, e.g. "com.pbe.Example_RepeatedAnnotation.myMethod:70"
+    private static String callSite() {
+        return WALKER.walk(frames -> frames
+                .dropWhile(f -> f.getClassName().equals(LookupProfiler.class.getName()))
+                .dropWhile(f -> f.getClassName().startsWith(AnnotationRegistry.class.getName()))
+                .findFirst()
+                .map(f -> f.getClassName() + "." + f.getMethodName() + ":" + f.getLineNumber())
+                .orElse("?"));
+    }
+
+    // Merge the lookups written into all buffers since the last drain; buffers of threads that ended are dropped once empty
+    static void drain() {
+        LOCK.lock();
+        try {
+            drainLocked();
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    private static void drainLocked() {
+        for (Buffer b : BUFFERS) {
+            long r = b.read, w = b.written;
+            for (; r < w; r++) {
+                int i = (int) r & (BUFFER_SIZE - 1);
+                Key key = new Key(b.ops[i], b.targets[i], b.members[i], b.types[i]);
+                STATS.computeIfAbsent(key, k -> new Stats()).add(b.hits[i], b.nanos[i], b.bytes[i], b.sites[i]);
+                b.targets[i] = null; // don't keep classes reachable from the buffer
+                b.types[i] = null;
+                b.sites[i] = null;
+            }
+            b.read = r; // hands the slots back to the owner
+            if (!b.owner.isAlive() && b.read == b.written)
+                BUFFERS.remove(b);
+        }
+    }
+
+    // The recorded lookups, the hottest (most total time) first
+    static List<Entry> report() {
+        List<Entry> entries = new ArrayList<>();
+        LOCK.lock();
+        try {
+            drain();
+            for (Map.Entry<Key, Stats> e : STATS.entrySet()) {
+                Stats s = e.getValue();
+                entries.add(new Entry(e.getKey(), s.count, s.hits, s.totalNanos, s.maxNanos, s.bytes, new LinkedHashMap<>(s.sites)));
+            }
+        } finally {
+            LOCK.unlock();
+        }
+        entries.sort((a, b) -> Long.compare(b.totalNanos(), a.totalNanos()));
+        return entries;
+    }
+
+    // The limit hottest lookups as a table
+    static String toText(int limit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-26s %-58s %-18s %8s %6s %10s %10s%n", "Lookup", "Target", "Annotation", "Count", "Miss", "ns/lookup", "B/lookup"));
+        List<Entry> entries = report();
+        for (Entry e : entries.subList(0, Math.min(limit, entries.size()))) {
+            Key k = e.key();
+            sb.append(String.format(Locale.ROOT, "%-26s %-58s %-18s %8d %6d %10.0f %10.1f%n", k.op().method,
+                    k.target().getName() + (k.member().isEmpty() ? "" : "." + k.member()),
+                    k.annotationType() == null ? "-" : k.annotationType().getSimpleName(),
+                    e.count(), e.misses(), e.nanosPerLookup(), e.bytesPerLookup()));
+            for (Map.Entry<String, Long> site : e.callSites().entrySet())
+                sb.append("    at ").append(site.getKey()).append(" (").append(site.getValue()).append(" sampled)\n");
+        }
+        return sb.toString();
+    }
+
+    // The limit hottest lookups as JSON:
+    // {"lookups":[{"operation":"repeated","target":"com.pbe.Example_RepeatedAnnotation","member":"myMethod","annotationType":"com.pbe.MyAnno",
+    //   "count":1,"hits":0,"misses":1,"totalNanos":..,"maxNanos":..,"nanosPerLookup":..,"bytesPerLookup":..,"callSites":{"..":1}}, ..]}
+    static String toJson(int limit) {
+        List<Entry> entries = report();
+        StringBuilder sb = new StringBuilder("{\"lookups\":[");
+        for (int n = 0; n < Math.min(limit, entries.size()); n++) {
+            Entry e = entries.get(n);
+            Key k = e.key();
+            sb.append(n > 0 ? ",\n" : "\n").append("{\"operation\":").append(quote(k.op().method))
+                    .append(",\"target\":").append(quote(k.target().getName()))
+                    .append(",\"member\":").append(quote(k.member()))
+                    .append(",\"annotationType\":").append(k.annotationType() == null ? "null" : quote(k.annotationType().getName()))
+                    .append(",\"count\":").append(e.count())
+                    .append(",\"hits\":").append(e.hits())
+                    .append(",\"misses\":").append(e.misses())
+                    .append(",\"totalNanos\":").append(e.totalNanos())
+                    .append(",\"maxNanos\":").append(e.maxNanos())
+                    .append(String.format(Locale.ROOT, ",\"nanosPerLookup\":%.1f,\"bytesPerLookup\":%.1f", e.nanosPerLookup(), e.bytesPerLookup()))
+                    .append(",\"callSites\":{");
+            int s = 0;
+            for (Map.Entry<String, Long> site : e.callSites().entrySet())
+                sb.append(s++ > 0 ? "," : "").append(quote(site.getKey())).append(':').append(site.getValue());
+            sb.append("}}");
+        }
+        return sb.append("\n]}\n").toString();
+    }
+
+    static void writeJson(Path file, int limit) throws IOException {
+        Files.writeString(file, toJson(limit));
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < 0x20)
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+            return (com.sun.management.ThreadMXBean) bean;
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    // Ring of lookups written by one thread and read by the drainer
+    // Slots from read up to written belong to the drainer, the others to the owner; each side only moves its own counter
+    private static final class Buffer {
+        final Thread owner = Thread.currentThread();
+        final Op[] ops = new Op[BUFFER_SIZE];
+        final Class<?>[] targets = new Class<?>[BUFFER_SIZE];
+        final String[] members = new String[BUFFER_SIZE];
+        final Class<?>[] types = new Class<?>[BUFFER_SIZE];
+        final boolean[] hits = new boolean[BUFFER_SIZE];
+        final long[] nanos = new long[BUFFER_SIZE];
+        final long[] bytes = new long[BUFFER_SIZE];
+        final String[] sites = new String[BUFFER_SIZE];
+        volatile long written;    // written by the owner
+        volatile long read;       // written by the drainer
+        long startBytes;          // used by the owner
+        int untilSample;          // used by the owner
+    }
+
+    // Totals of one kind of lookup, guarded by LOCK
+    private static final class Stats {
+        long count, hits, totalNanos, maxNanos, bytes;
+        final Map<String, Long> sites = new LinkedHashMap<>();
+
+        void add(boolean hit, long nanos, long allocated, String site) {
+            count++;
+            if (hit)
+                hits++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            bytes += allocated;
+            if (site != null)
+                sites.merge(site, 1L, Long::sum);
+        }
+    }
+
+    // JFR event for one lookup, e.g. for: java -XX:StartFlightRecording=filename=lookups.jfr ...; jfr print --events com.pbe.AnnotationLookup lookups.jfr
+    @Name("com.pbe.AnnotationLookup")
+    @Label("Annotation Lookup")
+    @Category({ "PBE", "Annotations" })
+    @Description("An annotation lookup through AnnotationRegistry, recorded by LookupProfiler")
+    static final class LookupEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Target")
+        Class<?> target;
+        @Label("Member")
+        String member;
+        @Label("Annotation Type")
+        Class<?> annotationType;
+        @Label("Cache Hit")
+        boolean cacheHit;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+        @Label("Lookup Time")
+        @Timespan
+        long lookupTime; // not duration, which JFR reserves for the time between begin() and end() of the event
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Profile the examples, a loop that looks up annotations many times, and a class that is looked up for the first time
+        start();
+        Example_ObtainingAllAnnotations.main(args);
+        Example_RepeatedAnnotation.main(args);
+        Class<?>[] params = { String.class, int.class };
+        for (int i = 0; i < 100_000; i++) {
+            AnnotationRegistry.getMethodValue(Example_DefaultValues2.class, "myMethod", params, MyAnnotation2Value.class);
+            AnnotationRegistry.isMethodAnnotationPresent(Example_MarkerAnnotation.class, "myMethod", AnnotationRegistry.NO_PARAMETERS, myMarker.class);
+        }
+        AnnotationRegistry.of(Example_CachedMethods.class);
+        stop();
+
+        System.out.println();
+        System.out.print(toText(10));
+        if (args.length > 0) {
+            writeJson(Paths.get(args[0]), 100);
+            System.out.println("Report written to " + args[0]);
+        }
+    }
+}
@@ -210,8 +210,25 @@ import java.lang.annotation.RetentionPolicy;
 
 public class Main {
 
-    public static void main(String[] args) {
-	// write your code here
+    // Runs the examples, reading their annotations either through reflection or through the accessors generated at compile time
+    // Usage: java com.pbe.Main [reflective|generated] - both print the same annotation values
+    // (AnnotationModeBenchmark compares what reading them costs both ways)
+    public static void main(String[] args) throws NoSuchMethodException {
+        String mode = args.length > 0 ? args[0] : System.getProperty(AnnotationMode.PROPERTY, "reflective");
+        if (!mode.equals("reflective") && !mode.equals("generated")) { // AnnotationMode would read it as reflective
+            System.err.println("Unknown mode " + mode + "; usage: java com.pbe.Main [reflective|generated]");
+            System.exit(2);
+        }
+        System.setProperty(AnnotationMode.PROPERTY, mode); // before AnnotationMode is loaded, which reads the property once
+        System.out.println("Annotations read " + (AnnotationMode.GENERATED ? "from the generated accessors" : "through reflection"));
+        System.out.println();
+
+        Example_MarkerAnnotation.main(args);
+        Example_SingleMemberAnnotation.main(args);
+        Example_DefaultValues.main(args);
+        Example_DefaultValues2.main(args);
+        Example_ObtainingAllAnnotations.main(args);
+        Example_RepeatedAnnotation.main(args);
     }
 
     // Example of annotation in it's simplest form
@@ -0,0 +1,153 @@
+package com.pbe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// *******
+// Minimal reader for the class files in a jar, working on a memory-mapped copy of the file.
+// java.util.jar.JarFile copies each entry into a new byte array. Here, the central directory of the zip file is read straight from the mapping:
+// - entries that are STORED (not compressed) are handed out as a slice of the mapping, so they are never copied
+// - entries that are DEFLATED are inflated into a single buffer that is reused for all entries
+// Heap use therefore stays bounded by the largest class in the jar, whatever the size of the jar itself.
+// The class entries are located once when the jar is opened, so ranges of them can be handed to different threads (see AnnotationScanner).
+// Note that the buffer passed to the callback is only valid during the callback.
+// *******
+final class MappedJar {
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_LOCATOR = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int STORED = 0, DEFLATED = 8;
+
+    private final Path path;
+    private final ByteBuffer zip;
+    private final int[] classEntries; // central directory position of each .class entry
+
+    private MappedJar(Path path, ByteBuffer zip, int[] classEntries) {
+        this.path = path;
+        this.zip = zip;
+        this.classEntries = classEntries;
+    }
+
+    // Map a jar and locate its class entries
+    static MappedJar open(Path jar) throws IOException {
+        ByteBuffer zip;
+        try (FileChannel ch = FileChannel.open(jar, StandardOpenOption.READ)) {
+            zip = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int end = findEndOfCentralDirectory(zip);
+        long directory = Integer.toUnsignedLong(zip.getInt(end + 16));
+        long directoryEnd = directory + Integer.toUnsignedLong(zip.getInt(end + 12));
+        if (directory == 0xFFFFFFFFL || zip.getShort(end + 10) == (short) 0xFFFF) { // zip64, e.g. a fat jar with more than 65535 entries
+            int locator = end - 20;
+            if (locator < 0 || zip.getInt(locator) != ZIP64_END_LOCATOR)
+                throw new IOException("Invalid zip64 jar " + jar);
+            int end64 = Math.toIntExact(zip.getLong(locator + 8));
+            directory = zip.getLong(end64 + 48);
+            directoryEnd = directory + zip.getLong(end64 + 40);
+        }
+
+        int[] entries = new int[1024];
+        int count = 0;
+        for (int p = Math.toIntExact(directory); p < directoryEnd; ) {
+            if (zip.getInt(p) != CENTRAL_DIRECTORY_ENTRY)
+                throw new IOException("Corrupt central directory in " + jar);
+            int nameLength = Short.toUnsignedInt(zip.getShort(p + 28));
+            if (isClassFile(zip, p + 46, nameLength)) {
+                if (count == entries.length)
+                    entries = Arrays.copyOf(entries, count * 2);
+                entries[count++] = p;
+            }
+            p += 46 + nameLength + Short.toUnsignedInt(zip.getShort(p + 30)) + Short.toUnsignedInt(zip.getShort(p + 32));
+        }
+        return new MappedJar(jar, zip, Arrays.copyOf(entries, count));
+    }
+
+    // Call action for each .class entry in the jar, with the entry name and its (uncompressed) bytes
+    static void forEachClass(Path jar, BiConsumer<String, ByteBuffer> action) throws IOException {
+        MappedJar j = open(jar);
+        j.forEachClass(0, j.classCount(), action);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int classCount() {
+        return classEntries.length;
+    }
+
+    // Call action for the class entries from (inclusive) to to (exclusive)
+    // Different ranges of the same jar may be read by different threads at the same time, as each call has its own Inflater and buffer
+    void forEachClass(int from, int to, BiConsumer<String, ByteBuffer> action) throws IOException {
+        Inflater inflater = new Inflater(true);
+        ByteBuffer inflated = ByteBuffer.allocate(64 * 1024);
+        byte[] name = new byte[256];
+        try {
+            for (int i = from; i < to; i++) {
+                int p = classEntries[i];
+                int method = Short.toUnsignedInt(zip.getShort(p + 10));
+                int compressedSize = zip.getInt(p + 20);
+                int size = zip.getInt(p + 24);
+                int nameLength = Short.toUnsignedInt(zip.getShort(p + 28));
+                int header = zip.getInt(p + 42);
+
+                if (name.length < nameLength)
+                    name = new byte[nameLength * 2];
+                zip.get(p + 46, name, 0, nameLength);
+                String entry = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+
+                if (zip.getInt(header) != LOCAL_HEADER)
+                    throw new IOException("Corrupt local header for " + entry + " in " + path);
+                int data = header + 30 + Short.toUnsignedInt(zip.getShort(header + 26)) + Short.toUnsignedInt(zip.getShort(header + 28));
+
+                if (method == STORED) {
+                    action.accept(entry, zip.slice(data, size));
+                } else if (method == DEFLATED) {
+                    if (inflated.capacity() < size)
+                        inflated = ByteBuffer.allocate(Math.max(size, inflated.capacity() * 2));
+                    inflated.clear().limit(size);
+                    inflater.reset();
+                    inflater.setInput(zip.slice(data, compressedSize));
+                    while (inflated.hasRemaining() && !inflater.finished())
+                        if (inflater.inflate(inflated) == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                            throw new IOException("Truncated entry " + entry + " in " + path);
+                    inflated.flip();
+                    action.accept(entry, inflated);
+                } else {
+                    throw new IOException("Unsupported compression method " + method + " for " + entry + " in " + path);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt jar " + path, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // The end of central directory record is at the end of the file, followed by an optional comment of at most 64K
+    private static int findEndOfCentralDirectory(ByteBuffer zip) throws IOException {
+        int last = zip.limit() - 22;
+        for (int p = last; p >= 0 && p >= last - 0xFFFF; p--)
+            if (zip.getInt(p) == END_OF_CENTRAL_DIRECTORY)
+                return p;
+        throw new IOException("Not a zip file");
+    }
+
+    // Compare the name's suffix with ".class" in place, so non-class entries don't cost a String
+    private static boolean isClassFile(ByteBuffer zip, int name, int length) {
+        return length > 6 && zip.get(name + length - 6) == '.' && zip.get(name + length - 5) == 'c' && zip.get(name + length - 4) == 'l'
+                && zip.get(name + length - 3) == 'a' && zip.get(name + length - 2) == 's' && zip.get(name + length - 1) == 's';
+    }
+}
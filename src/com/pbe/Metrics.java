@@ -0,0 +1,65 @@
+package com.pbe;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// *******
+// Registry of the metrics recorded for @Counted and @Timed methods (see InstrumentedMethod): a LongAdder per counter, a LatencyHistogram per timer.
+// Metrics are created on first use, by name, and live as long as the JVM.
+// snapshot() reads them all at one point in time; export() formats a snapshot as text, one metric per line, in the Prometheus text format.
+// *******
+final class Metrics {
+
+    private static final ConcurrentHashMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> TIMERS = new ConcurrentHashMap<>();
+
+    private Metrics() { }
+
+    static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    static LatencyHistogram timer(String name) {
+        return TIMERS.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    // All metrics at one point in time, sorted by name
+    record Snapshot(Map<String, Long> counters, Map<String, LatencyHistogram.Snapshot> timers) { }
+
+    static Snapshot snapshot() {
+        Map<String, Long> counters = new TreeMap<>();
+        COUNTERS.forEach((name, adder) -> counters.put(name, adder.sum()));
+        Map<String, LatencyHistogram.Snapshot> timers = new TreeMap<>();
+        TIMERS.forEach((name, histogram) -> timers.put(name, histogram.snapshot()));
+        return new Snapshot(counters, timers);
+    }
+
+    // Format the metrics, e.g.
+    //   Example_InstrumentedMethods_parse_total 1000
+    //   parse_latency_seconds{quantile="0.99"} 1.2E-6
+    static String export(Snapshot s) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : s.counters().entrySet()) {
+            String name = metricName(e.getKey());
+            sb.append("# TYPE ").append(name).append("_total counter\n");
+            sb.append(name).append("_total ").append(e.getValue()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram.Snapshot> e : s.timers().entrySet()) {
+            String name = metricName(e.getKey()) + "_seconds";
+            LatencyHistogram.Snapshot h = e.getValue();
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            for (String q : new String[] { "0.5", "0.9", "0.99", "0.999" })
+                sb.append(name).append("{quantile=\"").append(q).append("\"} ").append(h.percentile(Double.parseDouble(q) * 100) / 1e9).append('\n');
+            sb.append(name).append("_count ").append(h.count()).append('\n');
+            sb.append(name).append("_sum ").append(h.sum() / 1e9).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Metric names may only contain letters, digits, underscores and colons
+    private static String metricName(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_:]", "_");
+    }
+}
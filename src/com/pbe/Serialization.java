@@ -0,0 +1,136 @@
+package com.pbe;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// *******
+// Entry point for encoding objects of the classes marked @Serialize (see BinaryCodec).
+// The codec of a class is generated at compile time (SerializerProcessor) and looked up on first use, then cached per class.
+// For the best speed, get the codec once with forClass() and encode into a buffer that is reused;
+// toBytes() and fromBytes() are simpler, and size the buffer from the codec's size hint (so from @MaxLen) to avoid growing it.
+// *******
+final class Serialization {
+
+    private static final ClassValue<BinaryCodec<?>> CODECS = new ClassValue<>() {
+        @Override
+        protected BinaryCodec<?> computeValue(Class<?> type) {
+            BinaryCodec<?> codec = Codecs.of(type); // generated, maps each @Serialize class to its generated codec
+            if (codec == null)
+                throw new IllegalArgumentException(type.getName() + " is not marked @Serialize");
+            return codec;
+        }
+    };
+
+    private Serialization() { }
+
+    // Codec of a class marked @Serialize
+    @SuppressWarnings("unchecked")
+    static <T> BinaryCodec<T> forClass(Class<T> type) {
+        return (BinaryCodec<T>) CODECS.get(type);
+    }
+
+    // Encode an object into a new array
+    @SuppressWarnings("unchecked")
+    static byte[] toBytes(Object object) {
+        BinaryCodec<Object> codec = (BinaryCodec<Object>) CODECS.get(object.getClass());
+        ByteBuffer buffer = ByteBuffer.allocate(codec.sizeHint());
+        while (true) {
+            try {
+                codec.encode(object, buffer);
+                return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+            } catch (BufferOverflowException e) { // longer than hinted: start again with a larger buffer
+                buffer = ByteBuffer.allocate(Math.max(64, buffer.capacity() * 2));
+            }
+        }
+    }
+
+    // Decode an object from an array holding exactly one encoded object
+    static <T> T fromBytes(Class<T> type, byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        T object = forClass(type).decode(in);
+        if (in.hasRemaining())
+            throw new IllegalArgumentException(in.remaining() + " bytes left after decoding " + type.getName());
+        return object;
+    }
+
+    // Helpers for the encoding of Strings and lengths, used by the generated codecs
+
+    // Write a String as its length in UTF-8 bytes and the bytes, directly into the buffer (String.getBytes() would create an array first)
+    static void putString(ByteBuffer out, String s) {
+        if (s == null) {
+            out.putInt(-1);
+            return;
+        }
+        int start = out.position();
+        out.putInt(0); // the length is only known once the characters are written
+        int n = s.length();
+        int i = 0;
+        if (out.hasArray() && out.remaining() >= n) {
+            // Fast path for ASCII text in a heap buffer: one array store per character, without the buffer's checks
+            byte[] a = out.array();
+            int p = out.arrayOffset() + out.position();
+            for (; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80)
+                    break;
+                a[p + i] = (byte) c;
+            }
+            out.position(out.position() + i);
+        }
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6));
+                out.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | cp >> 18));
+                out.put((byte) (0x80 | cp >> 12 & 0x3F));
+                out.put((byte) (0x80 | cp >> 6 & 0x3F));
+                out.put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?'); // an unpaired surrogate can't be encoded, like String.getBytes() does
+            } else {
+                out.put((byte) (0xE0 | c >> 12));
+                out.put((byte) (0x80 | c >> 6 & 0x3F));
+                out.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+        out.putInt(start, out.position() - start - 4);
+    }
+
+    static String getString(ByteBuffer in) {
+        int n = getLength(in);
+        if (n < 0)
+            return null;
+        if (in.hasArray()) { // decode in place
+            String s = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+            in.position(in.position() + n);
+            return s;
+        }
+        byte[] bytes = new byte[n]; // a direct buffer has to be copied out first: String has no constructor taking a ByteBuffer
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Read an enum constant, written as its ordinal (-1 for null); values is the type's values(), kept by the codec
+    static <E extends Enum<E>> E getEnum(ByteBuffer in, E[] values) {
+        int o = in.getInt();
+        if (o < -1 || o >= values.length)
+            throw new IllegalArgumentException("Invalid ordinal " + o + " at position " + (in.position() - 4));
+        return o < 0 ? null : values[o];
+    }
+
+    // Read a length, -1 for null; every element takes at least one byte, so a length beyond the end of the buffer means corrupt input
+    // (checking it here avoids allocating a huge array for it)
+    static int getLength(ByteBuffer in) {
+        int n = in.getInt();
+        if (n < -1 || n > in.remaining())
+            throw new IllegalArgumentException("Invalid length " + n + " at position " + (in.position() - 4));
+        return n;
+    }
+}
@@ -0,0 +1,350 @@
+package com.pbe;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedArrayType;
+import java.lang.reflect.AnnotatedParameterizedType;
+import java.lang.reflect.AnnotatedType;
+import java.lang.reflect.AnnotatedTypeVariable;
+import java.lang.reflect.AnnotatedWildcardType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// *******
+// Cache of the annotated types of a class and its members, as in Example_TypeAnnotations:
+// the receiver of f(), the return type of f2(), the throws clause of f4(), the array levels of w, the superclass of SomeClass.
+// getAnnotatedType(), getAnnotatedReturnType(), ... parse the type annotation bytes of the member again on every call,
+// and build a new tree of AnnotatedType objects, with new annotation arrays at every level.
+// The graph walks each of those trees once, when the class is first asked for, and keeps it as a flattened, immutable Tree:
+// the nodes in pre-order, each with its kind, its type, its annotations and its path from the root.
+// Paths use the notation of ClassFileAnnotationReader.TypeTarget: '[' array element, '*' wildcard bound, "n;" type argument n.
+// E.g. for String @MaxLen(num=99) [] @NotZeroLen [] w:
+//   node 0, path "":   String[][], @MaxLen(num=99)
+//   node 1, path "[":  String[],   @NotZeroLen
+//   node 2, path "[[": String
+// so the annotation at array depth 1 is of(c).field("w").atArrayDepth(1), or getAnnotation("[", NotZeroLen.class).
+// Queries only read arrays that exist, so they don't allocate. Owner types (Outer.@A Inner) and the bounds of type variables are not walked.
+// *******
+final class TypeAnnotationGraph {
+
+    // The kind of type at a node, after the AnnotatedType subinterfaces
+    enum Kind { CLASS, ARRAY, PARAMETERIZED, WILDCARD, VARIABLE }
+
+    private static final ClassValue<TypeAnnotationGraph> GRAPHS = new ClassValue<>() {
+        @Override
+        protected TypeAnnotationGraph computeValue(Class<?> type) {
+            return new TypeAnnotationGraph(type);
+        }
+    };
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+    private static final Tree[] NO_TREES = new Tree[0];
+
+    private final Class<?> type;
+    private final Tree superclass;                          // null for Object, interfaces and primitives, as getAnnotatedSuperclass()
+    private final Tree[] interfaces;
+    private final Map<String, Tree> fields = new HashMap<>();
+    private final Map<String, ExecutableTypes[]> methods = new HashMap<>(); // declared methods, grouped by name (overloads share one array)
+    private final ExecutableTypes[] constructors;
+
+    private TypeAnnotationGraph(Class<?> type) {
+        this.type = type;
+        AnnotatedType superclass = type.getAnnotatedSuperclass();
+        this.superclass = superclass == null ? null : new Tree(superclass);
+        this.interfaces = trees(type.getAnnotatedInterfaces());
+        for (Field f : type.getDeclaredFields())
+            fields.put(f.getName(), new Tree(f.getAnnotatedType()));
+        for (Method m : type.getDeclaredMethods()) {
+            if (m.isSynthetic())
+                continue;
+            ExecutableTypes[] overloads = methods.get(m.getName());
+            overloads = overloads == null ? new ExecutableTypes[1] : Arrays.copyOf(overloads, overloads.length + 1);
+            overloads[overloads.length - 1] = new ExecutableTypes(m);
+            methods.put(m.getName(), overloads);
+        }
+        Constructor<?>[] declared = type.getDeclaredConstructors();
+        this.constructors = new ExecutableTypes[declared.length];
+        for (int i = 0; i < declared.length; i++)
+            constructors[i] = new ExecutableTypes(declared[i]);
+        // never modified after construction, safely published through the ClassValue
+    }
+
+    // The graph of a class, built on first use
+    static TypeAnnotationGraph of(Class<?> c) {
+        return GRAPHS.get(c);
+    }
+
+    Class<?> type() {
+        return type;
+    }
+
+    // Counterpart of getAnnotatedSuperclass(): null where that returns null
+    Tree superclass() {
+        return superclass;
+    }
+
+    // Counterpart of getAnnotatedInterfaces()[i]
+    Tree superinterface(int i) {
+        return interfaces[i];
+    }
+
+    int superinterfaceCount() {
+        return interfaces.length;
+    }
+
+    // Counterpart of getDeclaredField(name).getAnnotatedType()
+    Tree field(String name) throws NoSuchFieldException {
+        Tree t = fields.get(name);
+        if (t == null)
+            throw new NoSuchFieldException(type.getName() + "." + name);
+        return t;
+    }
+
+    // Find a declared method by name and parameter types, like Class.getDeclaredMethod()
+    ExecutableTypes method(String name, Class<?>[] params) throws NoSuchMethodException {
+        ExecutableTypes[] overloads = methods.get(name);
+        if (overloads != null)
+            for (ExecutableTypes m : overloads)
+                if (m.hasParameterTypes(params))
+                    return m;
+        throw new NoSuchMethodException(type.getName() + "." + name + Arrays.toString(params));
+    }
+
+    ExecutableTypes constructor(Class<?>[] params) throws NoSuchMethodException {
+        for (ExecutableTypes c : constructors)
+            if (c.hasParameterTypes(params))
+                return c;
+        throw new NoSuchMethodException(type.getName() + ".<init>" + Arrays.toString(params));
+    }
+
+    private static Tree[] trees(AnnotatedType[] types) {
+        if (types.length == 0)
+            return NO_TREES;
+        Tree[] trees = new Tree[types.length];
+        for (int i = 0; i < types.length; i++)
+            trees[i] = new Tree(types[i]);
+        return trees;
+    }
+
+    // The annotated types of a method or constructor
+    static final class ExecutableTypes {
+        private final Class<?>[] parameterTypes;
+        private final Tree returnType;   // the constructed type for a constructor, as getAnnotatedReturnType()
+        private final Tree receiverType; // null for static methods and constructors of top-level classes, as getAnnotatedReceiverType()
+        private final Tree[] parameters;
+        private final Tree[] exceptions;
+
+        private ExecutableTypes(Executable e) {
+            this.parameterTypes = e.getParameterTypes();
+            this.returnType = new Tree(e.getAnnotatedReturnType());
+            AnnotatedType receiver = e.getAnnotatedReceiverType();
+            this.receiverType = receiver == null ? null : new Tree(receiver);
+            this.parameters = trees(e.getAnnotatedParameterTypes());
+            this.exceptions = trees(e.getAnnotatedExceptionTypes());
+        }
+
+        Tree returnType() {
+            return returnType;
+        }
+
+        Tree receiverType() {
+            return receiverType;
+        }
+
+        Tree parameterType(int i) {
+            return parameters[i];
+        }
+
+        int parameterCount() {
+            return parameters.length;
+        }
+
+        // Type i of the throws clause
+        Tree exceptionType(int i) {
+            return exceptions[i];
+        }
+
+        int exceptionCount() {
+            return exceptions.length;
+        }
+
+        private boolean hasParameterTypes(Class<?>[] params) {
+            if (params.length != parameterTypes.length)
+                return false;
+            for (int i = 0; i < params.length; i++)
+                if (params[i] != parameterTypes[i])
+                    return false;
+            return true;
+        }
+    }
+
+    // *******
+    // Flattened annotated type: node 0 is the type itself, followed by the nodes inside it in pre-order,
+    // so the element type of an array is always the next node, and the subtree of a node is a contiguous range.
+    // *******
+    static final class Tree {
+        private final Kind[] kinds;
+        private final Type[] types;
+        private final String[] paths;
+        private final int[] parents;     // -1 for the root
+        private final int[] ends;        // index after the last node of each subtree
+        private final Annotation[][] annotations;
+        private final int annotationTotal;
+
+        private Tree(AnnotatedType root) {
+            List<AnnotatedType> nodes = new ArrayList<>();
+            List<String> paths = new ArrayList<>();
+            List<Integer> parents = new ArrayList<>();
+            List<Integer> ends = new ArrayList<>();
+            add(root, "", -1, nodes, paths, parents, ends);
+
+            int n = nodes.size();
+            this.kinds = new Kind[n];
+            this.types = new Type[n];
+            this.paths = paths.toArray(new String[0]);
+            this.parents = new int[n];
+            this.ends = new int[n];
+            this.annotations = new Annotation[n][];
+            int total = 0;
+            for (int i = 0; i < n; i++) {
+                AnnotatedType t = nodes.get(i);
+                kinds[i] = kind(t);
+                types[i] = t.getType();
+                this.parents[i] = parents.get(i);
+                this.ends[i] = ends.get(i);
+                Annotation[] a = t.getAnnotations(); // a fresh array, which stays private to the tree
+                annotations[i] = a.length == 0 ? NO_ANNOTATIONS : a;
+                total += a.length;
+            }
+            this.annotationTotal = total;
+        }
+
+        // Add a node and, after it, the nodes inside it; ends is filled in once the subtree is complete
+        private static void add(AnnotatedType t, String path, int parent, List<AnnotatedType> nodes, List<String> paths, List<Integer> parents, List<Integer> ends) {
+            int node = nodes.size();
+            nodes.add(t);
+            paths.add(path);
+            parents.add(parent);
+            ends.add(-1);
+            if (t instanceof AnnotatedArrayType) {
+                add(((AnnotatedArrayType) t).getAnnotatedGenericComponentType(), path + "[", node, nodes, paths, parents, ends);
+            } else if (t instanceof AnnotatedParameterizedType) {
+                AnnotatedType[] arguments = ((AnnotatedParameterizedType) t).getAnnotatedActualTypeArguments();
+                for (int i = 0; i < arguments.length; i++)
+                    add(arguments[i], path + i + ";", node, nodes, paths, parents, ends);
+            } else if (t instanceof AnnotatedWildcardType) {
+                AnnotatedWildcardType w = (AnnotatedWildcardType) t;
+                AnnotatedType[] bounds = w.getAnnotatedLowerBounds().length > 0 ? w.getAnnotatedLowerBounds() : w.getAnnotatedUpperBounds();
+                if (bounds.length > 0) // '?' alone has the bound Object, which can't carry annotations, but is kept as a node
+                    add(bounds[0], path + "*", node, nodes, paths, parents, ends);
+            }
+            ends.set(node, nodes.size());
+        }
+
+        private static Kind kind(AnnotatedType t) {
+            if (t instanceof AnnotatedArrayType)
+                return Kind.ARRAY;
+            if (t instanceof AnnotatedParameterizedType)
+                return Kind.PARAMETERIZED;
+            if (t instanceof AnnotatedWildcardType)
+                return Kind.WILDCARD;
+            if (t instanceof AnnotatedTypeVariable)
+                return Kind.VARIABLE;
+            return Kind.CLASS;
+        }
+
+        int nodeCount() {
+            return kinds.length;
+        }
+
+        Kind kind(int node) {
+            return kinds[node];
+        }
+
+        Type type(int node) {
+            return types[node];
+        }
+
+        String path(int node) {
+            return paths[node];
+        }
+
+        // Parent of a node, -1 for the root
+        int parent(int node) {
+            return parents[node];
+        }
+
+        // Index after the last node inside a node: the nodes inside node are node + 1 .. end(node) - 1
+        int end(int node) {
+            return ends[node];
+        }
+
+        // Node with a path, e.g. "[" for the element type of an array or "0;" for the first type argument; -1 if there is none
+        int node(String path) {
+            for (int i = 0; i < paths.length; i++)
+                if (paths[i].equals(path))
+                    return i;
+            return -1;
+        }
+
+        // Node of the array at a depth: 0 is the type itself, 1 its element type, ...; -1 if the type has fewer levels
+        int atArrayDepth(int depth) {
+            int node = 0;
+            for (int d = 0; d < depth; d++) {
+                if (kinds[node] != Kind.ARRAY)
+                    return -1;
+                node++; // the element type follows its array
+            }
+            return node;
+        }
+
+        int annotationCount(int node) {
+            return annotations[node].length;
+        }
+
+        Annotation annotationAt(int node, int i) {
+            return annotations[node][i];
+        }
+
+        <A extends Annotation> A getAnnotation(int node, Class<A> type) {
+            if (node < 0)
+                return null;
+            for (Annotation a : annotations[node])
+                if (a.annotationType() == type)
+                    return type.cast(a);
+            return null;
+        }
+
+        <A extends Annotation> A getAnnotation(String path, Class<A> type) {
+            return getAnnotation(node(path), type);
+        }
+
+        // Number of annotations in the whole tree; 0 means nothing in it is annotated
+        int annotationTotal() {
+            return annotationTotal;
+        }
+
+        // One line per node, indented by depth, e.g. "  [  String[] @com.pbe.NotZeroLen()"
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < kinds.length; i++) {
+                int depth = 0;
+                for (int p = parents[i]; p >= 0; p = parents[p])
+                    depth++;
+                sb.append("  ".repeat(depth)).append(paths[i].isEmpty() ? "." : paths[i]).append("  ").append(types[i].getTypeName());
+                for (Annotation a : annotations[i])
+                    sb.append(' ').append(a);
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+    }
+}
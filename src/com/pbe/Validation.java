@@ -0,0 +1,136 @@
+package com.pbe;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// *******
+// Entry point for validating objects against the constraints of their fields (see Validator).
+// The validator of a class is generated at compile time (ValidatorProcessor) and looked up on first use, then cached per class.
+// A generated validator checks the fields declared by its class; the constraints on inherited fields are checked by the validators
+// of the superclasses, which are chained in (so e.g. Example_TypeAnnotations.SomeClass is validated against the constraints on w).
+// Validating an object therefore never walks AnnotatedType trees through reflection.
+// *******
+final class Validation {
+
+    // Validator for classes without constrained fields
+    private static final Validator<Object> NONE = (object, sink) -> 0;
+
+    private static final ClassValue<Validator<?>> VALIDATORS = new ClassValue<>() {
+        @Override
+        protected Validator<?> computeValue(Class<?> type) {
+            Validator<?> own = Validators.of(type); // generated, maps each class to its generated validator
+            Validator<?> inherited = type.getSuperclass() == null ? NONE : get(type.getSuperclass());
+            if (own == null)
+                return inherited;
+            return inherited == NONE ? own : new Chained(inherited, own);
+        }
+    };
+
+    // Validator of a class with constraints on its own fields and on inherited ones: the superclass' constraints come first
+    @SuppressWarnings("unchecked")
+    private static final class Chained implements Validator<Object> {
+        private final Validator<Object> first, second;
+
+        Chained(Validator<?> first, Validator<?> second) {
+            this.first = (Validator<Object>) first;
+            this.second = (Validator<Object>) second;
+        }
+
+        @Override
+        public int validate(Object object, Sink sink) {
+            return first.validate(object, sink) + second.validate(object, sink);
+        }
+
+        @Override
+        public int constraintCount() {
+            return first.constraintCount() + second.constraintCount();
+        }
+
+        @Override
+        public String constraint(int index) {
+            int n = first.constraintCount();
+            return index < n ? first.constraint(index) : second.constraint(index - n);
+        }
+
+        // Each part validates into a bitset of its own, whose bits are then copied to out, shifted past the constraints before them
+        @Override
+        public void validateBatch(Object[] batch, int count, BatchViolations out) {
+            BatchViolations part = new BatchViolations();
+            int offset = 0;
+            for (Validator<Object> v : List.of(first, second)) {
+                int n = v.constraintCount();
+                part.reset(count, n);
+                v.validateBatch(batch, count, part);
+                for (int i = part.nextInvalid(0); i >= 0; i = part.nextInvalid(i + 1))
+                    for (int c = 0; c < n; c++)
+                        if (part.violates(i, c))
+                            out.set(i, offset + c);
+                offset += n;
+            }
+        }
+    }
+
+    private Validation() { }
+
+    // Validator of a class
+    @SuppressWarnings("unchecked")
+    static <T> Validator<T> forClass(Class<T> type) {
+        return (Validator<T>) VALIDATORS.get(type);
+    }
+
+    // Return whether an object satisfies all constraints of its class
+    @SuppressWarnings("unchecked")
+    static boolean isValid(Object object) {
+        return ((Validator<Object>) VALIDATORS.get(object.getClass())).validate(object, Validator.IGNORE) == 0;
+    }
+
+    // Return the violations of an object as messages, e.g. "w[]: NotZeroLen"; an empty (shared) list if it is valid
+    @SuppressWarnings("unchecked")
+    static List<String> validate(Object object) {
+        List<String> messages = new ArrayList<>(0);
+        ((Validator<Object>) VALIDATORS.get(object.getClass())).validate(object, (path, constraint) -> messages.add(path + ": " + constraint));
+        return messages.isEmpty() ? Collections.emptyList() : messages;
+    }
+
+    // Validate a batch of objects of the same class; the result holds one bit per object and constraint
+    static BatchViolations validateBatch(Class<?> type, Object[] batch) {
+        return validateBatch(type, batch, batch.length, new BatchViolations());
+    }
+
+    static BatchViolations validateBatch(Class<?> type, List<?> batch) {
+        return validateBatch(type, batch.toArray(), batch.size(), new BatchViolations());
+    }
+
+    // Validate the first count objects of a batch into out, which is cleared first and can be reused for the next batch
+    // Throws IllegalArgumentException if one of them is null or not an instance of type (checked up front: the generated code casts each)
+    static BatchViolations validateBatch(Class<?> type, Object[] batch, int count, BatchViolations out) {
+        for (int i = 0; i < count; i++)
+            if (!type.isInstance(batch[i]))
+                throw new IllegalArgumentException("Object " + i + " of the batch is " + (batch[i] == null ? "null" : "a " + batch[i].getClass().getName())
+                        + ", not a " + type.getName());
+        Validator<?> v = VALIDATORS.get(type);
+        out.reset(count, v.constraintCount());
+        v.validateBatch(batch, count, out);
+        return out;
+    }
+
+    // Helpers for @Unique, used by the generated validators
+
+    static boolean hasDuplicates(Object[] array) {
+        if (array.length < 2)
+            return false;
+        Set<Object> seen = new HashSet<>(array.length * 2);
+        for (Object o : array)
+            if (!seen.add(o))
+                return true;
+        return false;
+    }
+
+    static boolean hasDuplicates(Collection<?> collection) {
+        return collection.size() > 1 && !(collection instanceof Set) && new HashSet<>(collection).size() < collection.size(); // a Set can't hold duplicates
+    }
+}
@@ -0,0 +1,41 @@
+package com.pbe;
+
+// *******
+// Validator for the constraints declared with the type annotations of Example_TypeAnnotations:
+// - @NotZeroLen: the annotated String, array, collection or map must not be empty
+// - @MaxLen(num): the annotated String, array, collection or map must not be longer than num
+// - @Unique: the elements of the annotated array or collection must be distinct
+// - @EmptyOK, on a field: a null or empty field value is accepted, whatever constraints its type carries
+// Constraints apply to the type they annotate, so for String @MaxLen(num=99) [] @NotZeroLen [] w, @MaxLen limits the length of w itself
+// and @NotZeroLen applies to each String[] inside it. Constraints on type arguments (e.g. List<@NotZeroLen String>) apply to the elements.
+// A null value doesn't violate any constraint; only @NotZeroLen and @MaxLen check lengths, so use them to rule out empty values.
+//
+// Implementations are generated at compile time by ValidatorProcessor (processor module), one per class with constrained fields,
+// as straight-line code that reads the fields directly. Use Validation to obtain the validator of a class.
+// *******
+interface Validator<T> {
+
+    // Receives the violations found, e.g. ("w[]", "NotZeroLen") when one of the arrays inside w is empty
+    interface Sink {
+        void violation(String path, String constraint);
+    }
+
+    // Sink that ignores the violations, when only their number is needed
+    Sink IGNORE = (path, constraint) -> { };
+
+    // Check all constraints of an object, report each violation to sink, and return the number of violations
+    int validate(T object, Sink sink);
+
+    // Number of constraints checked by validateBatch(), and the description of each, e.g. "w[]: NotZeroLen"
+    default int constraintCount() {
+        return 0;
+    }
+
+    default String constraint(int index) {
+        throw new IndexOutOfBoundsException(index);
+    }
+
+    // Check the first count objects of a batch (all instances of T), and record each violated constraint in out
+    // Each constraint is checked for the whole batch before the next one, in a tight loop, and no object is created for a violation
+    default void validateBatch(Object[] batch, int count, BatchViolations out) { }
+}
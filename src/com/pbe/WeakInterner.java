@@ -0,0 +1,68 @@
+package com.pbe;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+// *******
+// Interner that only holds its canonical instances weakly, used by the generated value records (see AnnotationValueProcessor).
+// Equal values share one instance while something (e.g. the AnnotationRegistry metadata of an element) still refers to it;
+// once nothing does, the instance is collected and its entry is removed, so distinct values don't pile up for the life of the JVM
+// as they would in a plain map.
+// *******
+final class WeakInterner<T> {
+
+    private final ConcurrentHashMap<Ref<T>, Ref<T>> canonical = new ConcurrentHashMap<>();
+    private final ReferenceQueue<T> collected = new ReferenceQueue<>();
+
+    // Return the canonical instance that is equal to value; value itself becomes canonical if there is none yet
+    T intern(T value) {
+        expunge();
+        Ref<T> ref = new Ref<>(value, collected);
+        while (true) {
+            Ref<T> existing = canonical.putIfAbsent(ref, ref);
+            if (existing == null)
+                return value;
+            T v = existing.get();
+            if (v != null)
+                return v;
+            canonical.remove(existing, existing); // collected, but not expunged yet
+        }
+    }
+
+    // Number of canonical instances held, including any that were collected but not removed yet
+    int size() {
+        expunge();
+        return canonical.size();
+    }
+
+    private void expunge() {
+        for (Object r; (r = collected.poll()) != null; )
+            canonical.remove(r, r);
+    }
+
+    // Weak reference comparing by the value it refers to; a cleared reference is only equal to itself
+    private static final class Ref<T> extends WeakReference<T> {
+        private final int hash;
+
+        Ref(T value, ReferenceQueue<T> queue) {
+            super(value, queue);
+            this.hash = value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof Ref) || ((Ref<?>) o).hash != hash)
+                return false;
+            T v = get();
+            return v != null && v.equals(((Ref<?>) o).get());
+        }
+    }
+}